@@ -99,6 +99,15 @@ public abstract class Command<M, U, C>
 		return true;
 	}
 
+	/**Function called to check if this command only reads things, read only commands are run in parallel with other commands rather than waiting their turn
+	 * @return true if the command doesn't change anything, false otherwise
+	 * @see Commands#execute(Command, Object, Runnable)
+	 */
+	public boolean isReadOnly()
+	{
+		return false;
+	}
+
 	/**Function called when constructing help to check if this command should be added
 	 * @return true if the command should be shown in help, false otherwise
 	 */
@@ -19,7 +19,7 @@ import discord4j.core.object.entity.Member;
  * Does not allow players to add while offline(invisible mode). This is done to prevent people adding while invisible, then going offline (which the bot cant detect). 
  * The bot needs to remove players when they go offline to prevent games starting after people have left. 
  * <p>
- * Adding to queue and starting game are contained in a synchronized statement to prevent players removing while a game is being started.
+ * The queue checks its size and adds in one step, so only one add can fill the queue. The locking is done by the gather object, which checks the player isn't in a game and adds them while holding the same lock used to move the players from the queue into a new game.
  * 
  * @author cameron
  *
@@ -51,30 +51,27 @@ public class CommandAdd extends Command<Message, Member, Channel>
 			return "You cannot add while you are offline "+member.getDisplayName()+"!";
 		}
 
-		synchronized(gather)
-		{
-			int addReturnVal = gather.addToQueue(member);
+		int addReturnVal = gather.addToQueue(member);
 
-			switch(addReturnVal)
-			{
-			case -1:
-				return "You must link before you can add to the queue "+member.getDisplayName()+" type **!link KAGUsernameHere** to get started or **!linkhelp** for more information";
-			case 1:
-				LOGGER.info("Adding player to queue: "+member.getDisplayName());
-				return gather.fullUserString(member)+" **added** to the queue! ("+gather.numPlayersInQueue()+"/"+gather.getMaxQueueSize()+")";
-			case 2:
-				this.reply(messageObject, gather.fullUserString(member)+" **added** to the queue! ("+gather.numPlayersInQueue()+"/"+gather.getMaxQueueSize()+")");
-				LOGGER.info("Adding player to queue: "+member.getDisplayName());
-				gather.startGame();
-				return null;
-			case 3:
-				return"You cannot add to the queue when you are **already in a game** "+member.getDisplayName()+"!";
-			case 0:
-				return "You are already in the queue "+member.getDisplayName()+"!";
-			case 4:
-				return "You were not added because the queue is already full, try again later "+member.getDisplayName()+"!";
-			}
-			return "An unexpected error occured adding "+member.getDisplayName()+" to the queue";
+		switch(addReturnVal)
+		{
+		case -1:
+			return "You must link before you can add to the queue "+member.getDisplayName()+" type **!link KAGUsernameHere** to get started or **!linkhelp** for more information";
+		case 1:
+			LOGGER.info("Adding player to queue: "+member.getDisplayName());
+			return gather.fullUserString(member)+" **added** to the queue! ("+gather.numPlayersInQueue()+"/"+gather.getMaxQueueSize()+")";
+		case 2:
+			this.reply(messageObject, gather.fullUserString(member)+" **added** to the queue! ("+gather.numPlayersInQueue()+"/"+gather.getMaxQueueSize()+")");
+			LOGGER.info("Adding player to queue: "+member.getDisplayName());
+			gather.startGame();
+			return null;
+		case 3:
+			return"You cannot add to the queue when you are **already in a game** "+member.getDisplayName()+"!";
+		case 0:
+			return "You are already in the queue "+member.getDisplayName()+"!";
+		case 4:
+			return "You were not added because the queue is already full, try again later "+member.getDisplayName()+"!";
 		}
+		return "An unexpected error occured adding "+member.getDisplayName()+" to the queue";
 	}
 }
@@ -24,6 +24,12 @@ public class CommandCachedPlayerInfo extends Command<Message, Member, Channel>
 		super(commands, Arrays.asList("cachedplayerinfo"), "Check the information of a player stored in the bot cache", "cachedplayerinfo KAGName/@user");
 	}
 
+	@Override
+	public boolean isReadOnly()
+	{
+		return true;
+	}
+
 	@Override
 	public String onCommand(String[] splitMessage, String messageString, Message messageObject, Member member, Channel channel)
 	{
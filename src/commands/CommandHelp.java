@@ -18,6 +18,12 @@ public class CommandHelp extends Command<Message, Member, Channel>
 		super(commands, Arrays.asList("help", "h"), "Display this help message", "help");
 	}
 
+	@Override
+	public boolean isReadOnly()
+	{
+		return true;
+	}
+
 	@Override
 	public String onCommand(String[] splitMessage, String messageString, Message messageObject, Member member, Channel channel)
 	{
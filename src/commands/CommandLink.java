@@ -146,6 +146,7 @@ public class CommandLink extends Command<Message, Member, Channel>
 				//player token is good
 				int result = DiscordBot.database.linkAccounts(username, member.getId().asLong(), member.getGuildId().asLong());
 				LOGGER.info("account linking changed "+result+" lines in the sql database");
+				DiscordBot.statsCache.invalidate(username, member.getId().asLong());
 				if(result>=0)
 				{
 					this.reply(messageObject, "account successfully linked");
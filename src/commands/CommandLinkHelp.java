@@ -16,6 +16,12 @@ public class CommandLinkHelp extends Command<Message, Member, Channel>
 		super(commands, Arrays.asList("linkhelp"), "Link your KAG account to your discord account");
 	}
 
+	@Override
+	public boolean isReadOnly()
+	{
+		return true;
+	}
+
 	@Override
 	public String onCommand(String[] splitMessage, String messageString, Message messageObject, Member member, Channel channel)
 	{
@@ -17,6 +17,12 @@ public class CommandPing extends Command<Message, Member, Channel>
 		return false;
 	}
 
+	@Override
+	public boolean isReadOnly()
+	{
+		return true;
+	}
+
 	@Override
 	public String onCommand(String[] splitMessage, String messageString, Message messageObject, Member member, Channel channel)
 	{
@@ -3,7 +3,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import core.DiscordBot;
-import core.GatherDB;
+import core.StatsCache;
 import discord4j.core.object.entity.Channel;
 import discord4j.core.object.entity.Guild;
 import discord4j.core.object.entity.Message;
@@ -15,8 +15,8 @@ import discord4j.core.object.entity.Member;
  * <p>
  * Useful for checking the link status of a player. 
  * @author cameron
- * @see GatherDB#getKagName(long)
- * @see GatherDB#getDiscordID(String)
+ * @see StatsCache#getKagName(long)
+ * @see StatsCache#getDiscordID(String)
  */
 public class CommandPlayerInfo extends Command<Message, Member, Channel>
 {
@@ -25,6 +25,12 @@ public class CommandPlayerInfo extends Command<Message, Member, Channel>
 		super(commands, Arrays.asList("playerinfo"), "Check the information of a player stored in the database", "playerinfo <@user/KAGName/discordName/discordNick>");
 	}
 
+	@Override
+	public boolean isReadOnly()
+	{
+		return true;
+	}
+
 	@Override
 	public String onCommand(String[] splitMessage, String messageString, Message messageObject, Member member, Channel channel)
 	{
@@ -35,17 +41,17 @@ public class CommandPlayerInfo extends Command<Message, Member, Channel>
 		{
 			//if they just did !playerinfo without any argument, just get stats for them
 			userToGetInfoFor = member;
-			kagnameToGetInfoFor = DiscordBot.database.getKagName(userToGetInfoFor.getId().asLong());
+			kagnameToGetInfoFor = DiscordBot.statsCache.getKagName(userToGetInfoFor.getId().asLong());
 		}
 		else if(!mentions.isEmpty())
 		{
 			userToGetInfoFor = mentions.get(0);
-			kagnameToGetInfoFor = DiscordBot.database.getKagName(userToGetInfoFor.getId().asLong());
+			kagnameToGetInfoFor = DiscordBot.statsCache.getKagName(userToGetInfoFor.getId().asLong());
 		}
 		else
 		{
 			//first try to interpret the argument as a kagname
-			long id = DiscordBot.database.getDiscordID(splitMessage[1]);
+			long id = DiscordBot.statsCache.getDiscordID(splitMessage[1]);
 			userToGetInfoFor = DiscordBot.client.getUserById(Snowflake.of(id)).block();
 			if(userToGetInfoFor!=null)
 			{
@@ -60,7 +66,7 @@ public class CommandPlayerInfo extends Command<Message, Member, Channel>
 					userToGetInfoFor = DiscordBot.findMemberByUsername(guild, splitMessage[1]);
 					if(userToGetInfoFor != null)
 					{
-						kagnameToGetInfoFor = DiscordBot.database.getKagName(userToGetInfoFor.getId().asLong());
+						kagnameToGetInfoFor = DiscordBot.statsCache.getKagName(userToGetInfoFor.getId().asLong());
 					}
 					else
 					{
@@ -68,7 +74,7 @@ public class CommandPlayerInfo extends Command<Message, Member, Channel>
 						userToGetInfoFor = DiscordBot.findMemberByDisplayName(guild, splitMessage[1]);
 						if(userToGetInfoFor != null)
 						{
-							kagnameToGetInfoFor = DiscordBot.database.getKagName(userToGetInfoFor.getId().asLong());
+							kagnameToGetInfoFor = DiscordBot.statsCache.getKagName(userToGetInfoFor.getId().asLong());
 						}
 					}
 				}
@@ -25,6 +25,12 @@ public class CommandPlayers extends Command<Message, Member, Channel>
 		else return true;
 	}
 
+	@Override
+	public boolean isReadOnly()
+	{
+		return true;
+	}
+
 	@Override
 	public String onCommand(String[] splitMessage, String messageString, Message messageObject, Member member, Channel channel)
 	{
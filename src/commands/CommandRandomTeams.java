@@ -1,4 +1,5 @@
 package commands;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -50,9 +51,14 @@ public class CommandRandomTeams extends Command<Message, Member, Channel>
 
 		gather.clearQueue();		
 		List<StatsObject> stats = DiscordBot.database.getRandomPlayers(gather.getMaxQueueSize());
+		List<String> kagNames = new ArrayList<String>();
 		for(StatsObject stat : stats)
 		{
-			PlayerObject player = DiscordBot.players.getOrCreatePlayerObject(member);
+			kagNames.add(stat.kagname);
+		}
+		//resolve the whole list at once rather than one database lookup per player
+		for(PlayerObject player : DiscordBot.players.getOrCreatePlayerObjects(kagNames, gather.getGuild().getId()))
+		{
 			int addReturnVal = gather.addToQueue(player);
 			switch(addReturnVal)
 			{
@@ -50,7 +50,10 @@ public class CommandRefreshServers extends Command<Message, Member, Channel>
 		}
 		for(GatherGame game : games)
 		{
-			game.updateTeamsOnServer();
+			if(!game.updateTeamsOnServer())
+			{
+				return "**Could not send** the teams to "+game.getServerIp()+":"+game.getServerPort()+", the server isn't keeping up";
+			}
 			return "**Sent current teams** to "+game.getServerIp()+":"+game.getServerPort();
 		}
 		return null;
@@ -36,18 +36,15 @@ public class CommandRem extends Command<Message, Member, Channel>
 		GatherObject gather = DiscordBot.getGatherObjectForChannel(channel);
 		if(gather==null) return null;
 
-		synchronized(gather)
+		int remReturnVal = gather.remFromQueue(member);
+		switch(remReturnVal)
 		{
-			int remReturnVal = gather.remFromQueue(member);
-			switch(remReturnVal)
-			{
-			case 1:
-				LOGGER.info("Removing player from queue: "+member.getDisplayName());
-				return gather.fullUserString(member)+" **left** the queue! ("+gather.numPlayersInQueue()+"/"+gather.getMaxQueueSize()+")";
-			case 0:
-				return "You are already not in the queue "+member.getDisplayName()+"!";
-			}
-			return "An unexpected error occured attempting to remove "+member.getDisplayName()+" from the queue";
+		case 1:
+			LOGGER.info("Removing player from queue: "+member.getDisplayName());
+			return gather.fullUserString(member)+" **left** the queue! ("+gather.numPlayersInQueue()+"/"+gather.getMaxQueueSize()+")";
+		case 0:
+			return "You are already not in the queue "+member.getDisplayName()+"!";
 		}
+		return "An unexpected error occured attempting to remove "+member.getDisplayName()+" from the queue";
 	}
 }
\ No newline at end of file
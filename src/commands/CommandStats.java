@@ -3,7 +3,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import core.DiscordBot;
-import core.GatherDB;
+import core.StatsCache;
 import core.StatsObject;
 import discord4j.core.object.entity.Channel;
 import discord4j.core.object.entity.Guild;
@@ -15,8 +15,8 @@ import discord4j.core.object.entity.Member;
  * If the command contains a mention, stats are retreived for that player. 
  * It is then assumed the argument given is a KAG name. If this is unsuccessful the bot attempts to find a discord user by that name or a discord nick by that name. 
  * @author cameron
- * @see GatherDB#getStats(long)
- * @see GatherDB#getStats(String)
+ * @see StatsCache#getStats(long)
+ * @see StatsCache#getStats(String)
  */
 public class CommandStats extends Command<Message, Member, Channel>
 {
@@ -25,6 +25,12 @@ public class CommandStats extends Command<Message, Member, Channel>
 		super(commands, Arrays.asList("stats", "playerstats"), "Check the stats of a player stored in the database", "stats <KAGName/@user>");
 	}
 
+	@Override
+	public boolean isReadOnly()
+	{
+		return true;
+	}
+
 	@Override
 	public String onCommand(String[] splitMessage, String messageString, Message messageObject, Member member, Channel channel)
 	{
@@ -33,7 +39,7 @@ public class CommandStats extends Command<Message, Member, Channel>
 		if(splitMessage.length==1)
 		{
 			//if they just did !stats without any argument, just get stats for them
-			stats = DiscordBot.database.getStats(member.getId().asLong());
+			stats = DiscordBot.statsCache.getStats(member.getId().asLong());
 			if(stats==null)
 			{
 				return "Could not find stats for, if you want the stats of someone else then usage is "+this.getUsage();
@@ -41,11 +47,11 @@ public class CommandStats extends Command<Message, Member, Channel>
 		}
 		else if(!mentions.isEmpty())
 		{
-			stats = DiscordBot.database.getStats(mentions.get(0).getId().asLong());
+			stats = DiscordBot.statsCache.getStats(mentions.get(0).getId().asLong());
 		}
 		else
 		{
-			stats = DiscordBot.database.getStats(splitMessage[1]);
+			stats = DiscordBot.statsCache.getStats(splitMessage[1]);
 			if(stats==null)
 			{
 				//if the username wasnt a kag name, maybe it was a discord username
@@ -55,7 +61,7 @@ public class CommandStats extends Command<Message, Member, Channel>
 					Member matchedMember = DiscordBot.findMemberByUsername(guild, splitMessage[1]);
 					if(matchedMember != null)
 					{
-						stats = DiscordBot.database.getStats(matchedMember.getId().asLong());
+						stats = DiscordBot.statsCache.getStats(matchedMember.getId().asLong());
 					}
 					else
 					{
@@ -63,7 +69,7 @@ public class CommandStats extends Command<Message, Member, Channel>
 						matchedMember = DiscordBot.findMemberByDisplayName(guild, splitMessage[1]);
 						if(matchedMember != null)
 						{
-							stats = DiscordBot.database.getStats(matchedMember.getId().asLong());
+							stats = DiscordBot.statsCache.getStats(matchedMember.getId().asLong());
 						}
 					}
 				}
@@ -75,6 +81,8 @@ public class CommandStats extends Command<Message, Member, Channel>
 			return "could not find stats for that player, did you type their name correctly?";
 		}
 		
-		return "Stats for "+stats.kagname+": \n"+stats.toString();
+		int position = DiscordBot.leaderboard.getPosition(stats.kagname);
+		String positionString = position > 0 ? " Position: #"+position : "";
+		return "Stats for "+stats.kagname+": \n"+stats.toString()+positionString;
 	}
 }
\ No newline at end of file
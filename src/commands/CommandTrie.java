@@ -0,0 +1,92 @@
+package commands;
+
+import java.util.Arrays;
+
+/**Case insensitive lookup from a command alias to its command, built once when the commands are registered.
+ * <p>
+ * The alias is looked up straight out of the message, one character at a time, so nothing needs to be split, substringed or lower cased first.
+ * Each node keeps its children in a small array, aliases are short and mostly share few letters so a linear search is quicker than hashing.
+ * @author cameron
+ *
+ * @param <T> the object stored for each alias
+ */
+class CommandTrie<T>
+{
+	private static class Node<T>
+	{
+		private char[] keys = new char[0];
+		private Node<T>[] children = newArray(0);
+		private T value;
+
+		private Node<T> child(char c)
+		{
+			for(int i=0; i<keys.length; i++)
+			{
+				if(keys[i] == c) return children[i];
+			}
+			return null;
+		}
+
+		private Node<T> addChild(char c)
+		{
+			Node<T> child = child(c);
+			if(child != null) return child;
+			child = new Node<T>();
+			keys = Arrays.copyOf(keys, keys.length+1);
+			children = Arrays.copyOf(children, children.length+1);
+			keys[keys.length-1] = c;
+			children[children.length-1] = child;
+			return child;
+		}
+
+		@SuppressWarnings("unchecked")
+		private static <T> Node<T>[] newArray(int size)
+		{
+			return (Node<T>[]) new Node<?>[size];
+		}
+	}
+
+	private Node<T> root = new Node<T>();
+
+	/**Adds an alias, replacing anything already stored for it
+	 * @param alias the alias, in any case
+	 * @param value the object to store for the alias
+	 */
+	void put(String alias, T value)
+	{
+		Node<T> node = root;
+		for(int i=0; i<alias.length(); i++)
+		{
+			node = node.addChild(Character.toLowerCase(alias.charAt(i)));
+		}
+		node.value = value;
+	}
+
+	/**Finds the alias that starts at an index of a string and runs until the first separator or the end of the string
+	 * @param message the string to read from
+	 * @param start the index the alias starts at
+	 * @return the object stored for the alias, or null if there is none
+	 */
+	T find(String message, int start)
+	{
+		Node<T> node = root;
+		int length = message.length();
+		for(int i=start; i<length; i++)
+		{
+			char c = message.charAt(i);
+			if(isSeparator(c)) break;
+			node = node.child(Character.toLowerCase(c));
+			if(node == null) return null;
+		}
+		return node.value;
+	}
+
+	/**Checks if a character separates the words of a command, this is any whitespace other than a new line (the same as [\s&&[^\n]])
+	 * @param c the character to check
+	 * @return true if it is a separator
+	 */
+	static boolean isSeparator(char c)
+	{
+		return c == ' ' || c == '\t' || c == '\r' || c == '\f' || c == '\u000B';
+	}
+}
@@ -1,10 +1,29 @@
 package commands;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**Abstract class describing a command managing interface, to be instantiated for different frameworks/objects.
+ * <p>
+ * Commands are run on a pool of worker threads rather than the thread the message arrived on, so a slow command doesn't hold up the messages after it.
+ * Commands that change things are run one at a time, in the order they arrived, on a lane for each channel (i.e. each gather queue), while read only commands run straight away in parallel.
+ * How long each command waited and how long it took to run are recorded. 
+ * Commands can be held back until the bot is ready with {@link #holdUntil(CompletableFuture)}, they are queued rather than thrown away. 
+ * <p>
+ * Every message in the channel comes through here, so messages without a prefix are thrown out by checking their first character, and the alias is looked up in a {@link CommandTrie} straight from the message.
+ * The message is only split into words once it is known to be a command.
  * @author cameron
  *
  * @param <M> the message object
@@ -14,15 +33,66 @@ import java.util.List;
 public abstract class Commands<M, U, C>
 {
 	//useful for finding the command associated with a command string
-	private HashMap<String, Command<M, U, C>> commands;
+	private CommandTrie<Command<M, U, C>> commands;
 	//useful when a list of commands is needed in the order they were created (i.e. when getting help)
 	private List<Command<M, U, C>> commandList;
 	List<String> prefixes;
+	//the first character of every prefix, for throwing out messages that can't be commands
+	private String prefixStarts;
+
+	private static final Pattern WORD_SEPARATOR = Pattern.compile("[\\s&&[^\\n]]++");
+
+	static final Logger LOGGER = LoggerFactory.getLogger(Commands.class);
+	//commands taking longer than this are logged as a warning
+	private static final long SLOW_COMMAND_TIME = 2000;		//milliseconds
+	//how many commands between logging the stats of every command
+	private static final int STATS_LOG_INTERVAL = 500;
+
+	/**The queue wait and run time totals for one command
+	 */
+	private static class ExecutionStats
+	{
+		private AtomicLong count = new AtomicLong();
+		private AtomicLong totalWait = new AtomicLong();
+		private AtomicLong totalTime = new AtomicLong();
+		private AtomicLong maxTime = new AtomicLong();
+
+		private void record(long wait, long time)
+		{
+			count.incrementAndGet();
+			totalWait.addAndGet(wait);
+			totalTime.addAndGet(time);
+			long max = maxTime.get();
+			while(time > max && !maxTime.compareAndSet(max, time))
+			{
+				max = maxTime.get();
+			}
+		}
+	}
+
+	private ExecutorService workers;
+	//the last command queued on each lane, the next command on the lane runs after it
+	private Map<Object, CompletableFuture<Void>> lanes;
+	//commands don't start running until this completes
+	private volatile CompletableFuture<?> ready;
+	private Map<String, ExecutionStats> executionStats;
+	private AtomicLong commandsRun;
 
 	Commands()
 	{
-		this.commands = new HashMap<>();
+		this.commands = new CommandTrie<>();
 		this.commandList = new ArrayList<>();
+		this.lanes = new ConcurrentHashMap<>();
+		this.ready = CompletableFuture.completedFuture(null);
+		this.executionStats = new ConcurrentHashMap<>();
+		this.commandsRun = new AtomicLong();
+		AtomicInteger threadNumber = new AtomicInteger();
+		this.workers = Executors.newCachedThreadPool(runnable ->
+		{
+			Thread thread = new Thread(runnable, "Command worker "+threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
 	}
 
 	/**Set the list of prefixes the bot listening for
@@ -31,6 +101,12 @@ public abstract class Commands<M, U, C>
 	public void setPrefixes(List<String> prefixes)
 	{
 		this.prefixes = prefixes;
+		StringBuilder starts = new StringBuilder();
+		for(String prefix : prefixes)
+		{
+			if(prefix.length() > 0 && starts.indexOf(prefix.substring(0, 1)) < 0) starts.append(prefix.charAt(0));
+		}
+		this.prefixStarts = starts.toString();
 	}
 
 	/**Register a new command
@@ -40,18 +116,144 @@ public abstract class Commands<M, U, C>
 	{
 		for(String alias : command.getAliases())
 		{
-			commands.put(alias.toLowerCase(), command);
+			commands.put(alias, command);
 		}
 		commandList.add(command);
 	}
 
-	/**Find a command by alias
-	 * @param alias
-	 * @return
+	/**Checks if a message starts with a character that one of the prefixes starts with, messages that don't can't be commands
+	 * @param message the message received as a string
+	 * @return true if the message might be a command
 	 */
-	private Command<M, U, C> getCommand(String alias)
+	private boolean mightBeCommand(String message)
 	{
-		return commands.get(alias);
+		if(message == null || message.isEmpty() || prefixStarts == null) return false;
+		return prefixStarts.indexOf(message.charAt(0)) >= 0;
+	}
+
+	/**Finds the command a message is using, without checking the channel or permissions. Doesn't block, so it can be used on the thread the message arrived on. 
+	 * @param message the message received as a string
+	 * @return the command, or null if the message is not a command
+	 */
+	public Command<M, U, C> findCommand(String message)
+	{
+		if(!mightBeCommand(message)) return null;
+		for (String prefix : this.prefixes)
+		{
+			if (message.startsWith(prefix))
+			{
+				return commands.find(message, prefix.length());
+			}
+		}
+		return null;
+	}
+
+	/**Holds back every command until a future completes, e.g. while caches are filled at startup. Commands that arrive in the meantime are queued and run in order once it completes. 
+	 * @param ready the future to wait for, it should always complete (normally or not) so that commands aren't held forever
+	 */
+	public void holdUntil(CompletableFuture<?> ready)
+	{
+		this.ready = ready;
+	}
+
+	/**Runs a command on the worker threads. Read only commands run straight away, other commands run after every earlier command on the same lane has finished. 
+	 * @param command the command being run, used for the read only check and the stats
+	 * @param laneKey the lane to run on (e.g. the channel id), null to run straight away
+	 * @param task the work to do, usually a call to {@link #onMessage(Object, Object, Object, Object)}
+	 * @return a future that completes when the command has finished
+	 */
+	public CompletableFuture<Void> execute(Command<M, U, C> command, Object laneKey, Runnable task)
+	{
+		long queuedAt = System.currentTimeMillis();
+		Runnable timedTask = () -> this.runTimed(command, queuedAt, task);
+		if(command.isReadOnly()) return enqueue(null, timedTask);
+		return enqueue(laneKey, timedTask);
+	}
+
+	/**Runs something that isn't a command on a lane, for events that change the same things as the commands (e.g. a queued player going offline) so they stay in order with them. 
+	 * Errors are logged rather than thrown, so they don't stop the lane. 
+	 * @param laneKey the lane to run on (e.g. the channel id), null to run straight away
+	 * @param description what the task does, used in the logs
+	 * @param task the work to do
+	 * @return a future that completes when the task has finished
+	 */
+	public CompletableFuture<Void> runOnLane(Object laneKey, String description, Runnable task)
+	{
+		return enqueue(laneKey, () ->
+		{
+			try
+			{
+				task.run();
+			}
+			catch(RuntimeException e)
+			{
+				LOGGER.error("Error "+description, e);
+			}
+		});
+	}
+
+	/**Queues a task on a lane, or runs it straight away on the worker threads if there is no lane. Nothing runs until the hold from {@link #holdUntil(CompletableFuture)} is over. 
+	 * @param laneKey the lane to run on, null to run straight away
+	 * @param task the work to do, must not throw
+	 * @return a future that completes when the task has finished
+	 */
+	private CompletableFuture<Void> enqueue(Object laneKey, Runnable task)
+	{
+		//run even if the hold failed, it only decides when commands can start
+		CompletableFuture<?> start = ready.handle((ignored, error) -> null);
+		if(laneKey == null)
+		{
+			return start.thenRunAsync(task, workers);
+		}
+		CompletableFuture<Void> tail = lanes.compute(laneKey, (key, previous) ->
+		{
+			if(previous == null) return start.thenRunAsync(task, workers);
+			return previous.thenRunAsync(task, workers);
+		});
+		//remove the lane once it is empty, so channels that are only used once don't stay in the map
+		tail.whenComplete((ignored, error) -> lanes.remove(laneKey, tail));
+		return tail;
+	}
+
+	/**Runs a command, recording how long it waited and how long it took. Errors are logged rather than thrown, so one failed command doesn't stop its lane. 
+	 * @param command the command being run
+	 * @param queuedAt when the command was queued
+	 * @param task the work to do
+	 */
+	private void runTimed(Command<M, U, C> command, long queuedAt, Runnable task)
+	{
+		long start = System.currentTimeMillis();
+		try
+		{
+			task.run();
+		}
+		catch(RuntimeException e)
+		{
+			LOGGER.error("Error running command "+command.getPrimaryAlias(), e);
+		}
+		long end = System.currentTimeMillis();
+		ExecutionStats stats = executionStats.computeIfAbsent(command.getPrimaryAlias(), alias -> new ExecutionStats());
+		stats.record(start-queuedAt, end-start);
+		if(end-start > SLOW_COMMAND_TIME) LOGGER.warn("Command "+command.getPrimaryAlias()+" took "+(end-start)+"ms after waiting "+(start-queuedAt)+"ms");
+		else LOGGER.debug("Command "+command.getPrimaryAlias()+" took "+(end-start)+"ms after waiting "+(start-queuedAt)+"ms");
+		if(commandsRun.incrementAndGet() % STATS_LOG_INTERVAL == 0) LOGGER.info("Command stats:\n"+this.getExecutionStatsString());
+	}
+
+	/**Gets the queue wait and run time of every command that has been used. 
+	 * @return a string with one line for each command
+	 */
+	public String getExecutionStatsString()
+	{
+		StringBuilder builder = new StringBuilder();
+		for(Map.Entry<String, ExecutionStats> entry : new TreeMap<>(executionStats).entrySet())
+		{
+			ExecutionStats stats = entry.getValue();
+			long count = stats.count.get();
+			if(count == 0) continue;
+			builder.append(entry.getKey()).append(": ").append(count).append(" runs, avg wait ").append(stats.totalWait.get()/count)
+					.append("ms, avg time ").append(stats.totalTime.get()/count).append("ms, max time ").append(stats.maxTime.get()).append("ms\n");
+		}
+		return builder.toString();
 	}
 
 	/**Should be triggered every time a message is received, checks if it is a valid command, in a valid channel, and the user has permission, then executes the command if appropriate. 
@@ -62,21 +264,21 @@ public abstract class Commands<M, U, C>
 	 */
 	public void onMessage(String message, M messageObject, U user, C channel)
 	{
+		if (!mightBeCommand(message)) return;
 		for (String prefix : this.prefixes)
 		{
-			if (message != null && message.startsWith(prefix))
+			if (message.startsWith(prefix))
 			{
 				//the message had a prefix we were looking for, now check if its a valid command
-				message = message.substring(prefix.length());
-				String[] splitMessage = message.split("[\\s&&[^\\n]]++");
-				//just use the first command that matches
-				Command<M, U, C> command = this.getCommand(splitMessage[0].toLowerCase());
+				Command<M, U, C> command = commands.find(message, prefix.length());
 				if (command != null && command.isChannelValid(channel))
 				{
 					if (command.hasPermission(user, channel))
 					{
-						//found the command, execute it
-						String returnValue = command.onCommand(splitMessage, message, messageObject, user, channel);
+						//found the command, only now is it worth splitting the message up
+						String commandMessage = message.substring(prefix.length());
+						String[] splitMessage = WORD_SEPARATOR.split(commandMessage);
+						String returnValue = command.onCommand(splitMessage, commandMessage, messageObject, user, channel);
 						if (returnValue != null && returnValue.length()>0)
 						{
 							//send the return value as a reply to the message
@@ -91,6 +293,7 @@ public abstract class Commands<M, U, C>
 					}
 				}
 				//if no command was found or the channel was invalid, make no response
+				return;
 			}
 		}
 	}
@@ -9,6 +9,8 @@ import discord4j.core.object.entity.Member;
 import discord4j.core.object.entity.Message;
 
 /**Instantiation of the Command manager class for discord4J
+ * <p>
+ * Commands are run off the event thread, see {@link Commands#execute(Command, Object, Runnable)}. 
  * @author cameron
  *
  */
@@ -29,7 +31,7 @@ public class Discord4JCommands extends Commands<Message, Member, Channel>
 	@Override
 	public void reply(Message message, String replyMessage)
 	{
-		DiscordBot.sendMessage(message.getChannel().block(), replyMessage);
+		DiscordBot.queueMessage(message.getChannel().block(), replyMessage);
 	}
 
 	/**To be called by the event dispatcher, converts the event into the require onMessage() call
@@ -37,7 +39,13 @@ public class Discord4JCommands extends Commands<Message, Member, Channel>
 	 */
 	public void onMessageReceivedEvent(final MessageCreateEvent event)
 	{
-		this.onMessage(event.getMessage().getContent().orElse(null), event.getMessage(), event.getMember().orElse(null), event.getMessage().getChannel().block());
+		String content = event.getMessage().getContent().orElse(null);
+		//most messages aren't commands, they never need to leave the event thread
+		Command<Message, Member, Channel> command = this.findCommand(content);
+		if(command == null) return;
+		//each channel gets its own lane, which is one lane for each gather queue
+		this.execute(command, event.getMessage().getChannelId(), () ->
+				this.onMessage(content, event.getMessage(), event.getMember().orElse(null), event.getMessage().getChannel().block()));
 	}
 
 	/**When the someone uses a command they don't have permission for, want to give them some feedback
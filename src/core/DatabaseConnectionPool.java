@@ -0,0 +1,215 @@
+package core;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**A small bounded pool of database connections, used by {@link GatherDB} so that commands from different threads don't have to share one connection.
+ * <p>
+ * Each connection keeps its own cache of prepared statements, so the fixed queries are only prepared once per connection. The cache is limited to the {@link #MAX_CACHED_STATEMENTS} most recently used statements.
+ * @author cameron
+ * @see GatherDB
+ */
+public class DatabaseConnectionPool
+{
+	static final Logger LOGGER = LoggerFactory.getLogger(DatabaseConnectionPool.class);
+	//how long to wait for a connection to be returned when the pool is exhausted
+	private static final int BORROW_TIMEOUT = 30000;		//milliseconds
+	//the most prepared statements kept open for each connection
+	private static final int MAX_CACHED_STATEMENTS = 64;
+
+	private String url;
+	private String username;
+	private String password;
+	private int maxSize;
+	private int openConnections;
+	private BlockingQueue<PooledConnection> idleConnections;
+
+	/**A database connection along with the prepared statements that have been created for it.
+	 */
+	public static class PooledConnection
+	{
+		private Connection connection;
+		private Map<String, PreparedStatement> statementCache;
+
+		PooledConnection(Connection connection)
+		{
+			this.connection = connection;
+			//least recently used statements are closed once there are too many, queries with a variable number of parameters (e.g. IN lists) would otherwise grow it forever
+			this.statementCache = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true)
+			{
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest)
+				{
+					if(size() <= MAX_CACHED_STATEMENTS) return false;
+					try
+					{
+						eldest.getValue().close();
+					} catch (SQLException e) {
+					}
+					return true;
+				}
+			};
+		}
+
+		/**Gets the prepared statement for a query, preparing it the first time it is used on this connection.
+		 * @param sql the query string with ? placeholders for the parameters
+		 * @return the cached prepared statement with its parameters cleared
+		 * @throws SQLException
+		 */
+		public PreparedStatement prepare(String sql) throws SQLException
+		{
+			PreparedStatement statement = statementCache.get(sql);
+			if(statement == null)
+			{
+				statement = connection.prepareStatement(sql);
+				statementCache.put(sql, statement);
+			}
+			else
+			{
+				statement.clearParameters();
+			}
+			return statement;
+		}
+
+		/**Getter for the underlying connection, for things that are not covered by the statement cache such as transactions.
+		 * @return the jdbc connection
+		 */
+		public Connection getConnection()
+		{
+			return connection;
+		}
+
+		/**Closes all the cached statements and the connection, ignoring any errors.
+		 */
+		void close()
+		{
+			for(PreparedStatement statement : statementCache.values())
+			{
+				try
+				{
+					statement.close();
+				} catch (SQLException e) {
+				}
+			}
+			statementCache.clear();
+			try
+			{
+				connection.close();
+			} catch (SQLException e) {
+			}
+		}
+	}
+
+	DatabaseConnectionPool(String url, String username, String password, int maxSize)
+	{
+		this.url = url;
+		this.username = username;
+		this.password = password;
+		this.maxSize = maxSize;
+		this.openConnections = 0;
+		this.idleConnections = new LinkedBlockingQueue<PooledConnection>();
+	}
+
+	/**Gets a connection from the pool. Opens a new connection if there are no idle ones and the pool is not full, otherwise waits for one to be released.
+	 * @return a connection that must be given back with {@link #release(PooledConnection, boolean)}
+	 * @throws SQLException if a new connection could not be opened, or no connection became free in time
+	 */
+	public PooledConnection borrow() throws SQLException
+	{
+		long deadline = System.currentTimeMillis() + BORROW_TIMEOUT;
+		while(true)
+		{
+			PooledConnection pooled = idleConnections.poll();
+			if(pooled != null) return pooled;
+			boolean reserved = false;
+			synchronized(this)
+			{
+				//only the slot is reserved while holding the lock, so a slow connect doesn't hold up other threads borrowing and releasing
+				if(openConnections < maxSize)
+				{
+					openConnections++;
+					reserved = true;
+				}
+			}
+			if(reserved)
+			{
+				try
+				{
+					return new PooledConnection(DriverManager.getConnection(url, username, password));
+				}
+				catch (SQLException | RuntimeException e)
+				{
+					synchronized(this)
+					{
+						openConnections--;
+					}
+					throw e;
+				}
+			}
+			long remaining = deadline - System.currentTimeMillis();
+			if(remaining <= 0) throw new SQLException("Timed out waiting for a database connection");
+			try
+			{
+				//wake up periodically in case a broken connection was closed and there is room to open a new one
+				pooled = idleConnections.poll(Math.min(remaining, 1000), TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new SQLException("Interrupted waiting for a database connection");
+			}
+			if(pooled != null) return pooled;
+		}
+	}
+
+	/**Gives a connection back to the pool.
+	 * @param pooled the connection to give back
+	 * @param broken true if an error occured using this connection, in which case it is closed rather than reused
+	 */
+	public void release(PooledConnection pooled, boolean broken)
+	{
+		if(pooled == null) return;
+		if(broken)
+		{
+			pooled.close();
+			synchronized(this)
+			{
+				openConnections--;
+			}
+		}
+		else
+		{
+			idleConnections.offer(pooled);
+		}
+	}
+
+	/**Closes every connection that is not currently in use. Used when a connection fails, since the idle ones have most likely timed out too.
+	 */
+	public void closeIdle()
+	{
+		PooledConnection pooled;
+		while((pooled = idleConnections.poll()) != null)
+		{
+			release(pooled, true);
+		}
+	}
+
+	/**Getter for the maximum number of connections this pool will open.
+	 * @return the maximum pool size
+	 */
+	public int getMaxSize()
+	{
+		return maxSize;
+	}
+}
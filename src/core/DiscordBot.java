@@ -5,12 +5,18 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URL;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -53,6 +59,8 @@ import commands.Discord4JCommands;
 import discord4j.core.DiscordClient;
 import discord4j.core.DiscordClientBuilder;
 import discord4j.core.event.domain.PresenceUpdateEvent;
+import discord4j.core.event.domain.VoiceStateUpdateEvent;
+import discord4j.core.event.domain.guild.GuildCreateEvent;
 import discord4j.core.event.domain.guild.MemberLeaveEvent;
 import discord4j.core.event.domain.lifecycle.ConnectEvent;
 import discord4j.core.event.domain.message.MessageCreateEvent;
@@ -70,7 +78,9 @@ import discord4j.core.object.presence.Activity;
 import discord4j.core.object.presence.Presence;
 import discord4j.core.object.presence.Status;
 import discord4j.core.object.util.Snowflake;
+import discord4j.rest.http.client.ClientException;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 /**The main bot class. Contains most of the interaction with the Discord bot client. Contains various helper functions and objects.
  * @author cameron
@@ -79,6 +89,13 @@ import reactor.core.publisher.Flux;
 public class DiscordBot
 {
 	static final Logger LOGGER = LoggerFactory.getLogger(DiscordBot.class);
+	//how often the stats of the connections and caches are logged
+	private static final long STATS_LOG_INTERVAL = 600000;		//milliseconds
+	//how many requests from one batch can be sent at once, discord rate limits each route anyway so more than this would just wait in the client
+	private static final int BATCH_CONCURRENCY = 5;
+	//how many times a failed request in a batch is sent again
+	private static final int BATCH_RETRIES = 2;
+	private static final Duration BATCH_RETRY_DELAY = Duration.ofMillis(500);
 	/**
 	 * The instance of the Discord4J client
 	 */
@@ -94,6 +111,22 @@ public class DiscordBot
 	 * @see PlayerObjectManager
 	 */
 	public static PlayerObjectManager players;
+	//how many of the most recent players to load into the player cache at startup
+	private static final int PRELOAD_PLAYERS = 500;
+	//the longest commands are held back waiting for the player cache to be filled
+	private static final Duration PRELOAD_TIMEOUT = Duration.ofSeconds(30);
+	/**Rate limits, merges and drops outgoing messages and edits
+	 * @see MessageScheduler
+	 */
+	public static MessageScheduler messageScheduler = new MessageScheduler();
+	/**The in memory player rankings, used for the scoreboard
+	 * @see Leaderboard
+	 */
+	public static Leaderboard leaderboard;
+	/**The cache of player stats, also saves game results to the database
+	 * @see StatsCache
+	 */
+	public static StatsCache statsCache;
 
 	//TODO: change this to a map of channel to gather object for quicker lookup in the most common case
 	/**Set of gather objects. Each gather object represents one gather queue, and one command channel. 
@@ -101,6 +134,21 @@ public class DiscordBot
 	 */
 	public static Set<GatherObject> gatherObjects;
 
+	/**The discord id of every player in any gather queue, used to ignore events for members that aren't queued. 
+	 * @see GatherQueueObject
+	 */
+	public static final QueuedPlayerIndex queuedPlayers = new QueuedPlayerIndex();
+
+	/**Who the bot has given the queue role to, saved so that the role can be cleaned up at startup. 
+	 * @see GatherObject#clearQueueRole()
+	 */
+	public static final RoleHolderRecord queueRoleHolders = new RoleHolderRecord("queueroles.json");
+
+	/**Which voice channel each member is in, used when moving players between the team rooms. 
+	 * @see GatherObject#movePlayersIntoTeamRoomsAsync(GatherGame)
+	 */
+	public static final VoiceStateCache voiceStates = new VoiceStateCache();
+
 	public boolean doKagServerConnections = true;
 
 	/**Helper function for getting the correct gather object, helpful for when a player uses a command. 
@@ -171,25 +219,42 @@ public class DiscordBot
 	 */
 	public void startBot(String token) {
 		client = new DiscordClientBuilder(token).setInitialPresence(Presence.online()).build();
+		Discord4JCommands commands = new Discord4JCommands();
 
 		// event listeners
-		client.getEventDispatcher().on(PresenceUpdateEvent.class).subscribe((PresenceUpdateEvent event) -> 
+		//every member of the guild going offline comes through here, so check they are queued before doing anything else
+		client.getEventDispatcher().on(PresenceUpdateEvent.class)
+				.filter(event -> !queuedPlayers.isEmpty())
+				.filter(event -> queuedPlayers.contains(event.getUserId().asLong()))
+				.filter(event -> event.getCurrent().getStatus()==Status.OFFLINE)
+				.flatMap(event -> event.getMember().onErrorResume(e ->
+				{
+					LOGGER.warn("Failed to get the member that went offline: "+e.getMessage());
+					return Mono.empty();
+				}))
+				.subscribe(member ->
+				{
+					//queue changes go on the gather's command lane, so they stay in order with the commands and don't block the gateway thread
+					for(GatherObject gather : gatherObjects)
+					{
+						commands.runOnLane(gather.getCommandChannel().getId(), "removing offline member", () -> userWentOffline(gather, member));
+					}
+				});
+		client.getEventDispatcher().on(GuildCreateEvent.class).subscribe(voiceStates::onGuildCreate);
+		client.getEventDispatcher().on(VoiceStateUpdateEvent.class).subscribe(voiceStates::onVoiceStateUpdate);
+		client.getEventDispatcher().on(MemberLeaveEvent.class).subscribe((MemberLeaveEvent event) ->
 		{
-			if(event.getCurrent().getStatus()==Status.OFFLINE)
+			Member member = event.getMember().get();
+			for(GatherObject gather : DiscordBot.getGatherObjectsForGuild(event.getGuildId()))
 			{
-				DiscordBot.userWentOffline(event.getMember().block());
+				commands.runOnLane(gather.getCommandChannel().getId(), "removing member that left", () -> userLeftGuild(gather, member));
 			}
 		});
-		client.getEventDispatcher().on(MemberLeaveEvent.class).subscribe((MemberLeaveEvent event) ->
-		{
-			DiscordBot.userLeftGuild(event.getGuildId(), event.getMember().get());
-		});
 
 		//TODO load the queue object
 		//TODO delete the saved object so we don't load it next time
 
 		// command listening
-		Discord4JCommands commands = new Discord4JCommands();
 		commands.registerCommand(new CommandHelp(commands));
 		client.getEventDispatcher().on(MessageCreateEvent.class).subscribe(commands::onMessageReceivedEvent);
 
@@ -252,18 +317,70 @@ public class DiscordBot
 		Iterator<GatherObject> itr = DiscordBot.gatherObjects.iterator();
 		GatherObject gather = itr.next();
 		if(gather == null) return;
+		queueRoleHolders.load();
 		gather.clearQueueRole();
+		gather.getTeamRoles().adoptExistingRoles();
 
 		//wait until the bot connects to update the channel caption (doesn't work before then)
 		client.getEventDispatcher().on(ConnectEvent.class).subscribe((ConnectEvent event) ->
 		{
 			gather.updateChannelCaption();
 		});
+		//fill the player cache once logged in, only the first time the bot connects
+		//commands are queued until it is filled, or until the timeout so a slow preload can't stop the bot answering
+		CompletableFuture<Void> playersPreloaded = new CompletableFuture<Void>();
+		commands.holdUntil(playersPreloaded);
+		client.getEventDispatcher().on(ConnectEvent.class).next().subscribe((ConnectEvent event) ->
+		{
+			Mono<Void> preload = Flux.fromIterable(DiscordBot.gatherObjects)
+					.flatMap(gatherObj -> logErrors(players.preload(gatherObj.getGuild().getId(), PRELOAD_PLAYERS), "preloading the player cache"))
+					.then();
+			runAsync(preload.doFinally(signal -> playersPreloaded.complete(null)), "preloading the player cache");
+			Mono.delay(PRELOAD_TIMEOUT).subscribe(ignored ->
+			{
+				if(playersPreloaded.complete(null)) LOGGER.warn("Player cache still filling after "+PRELOAD_TIMEOUT.getSeconds()+" seconds, accepting commands anyway");
+			});
+		});
+
+		startStatsLog();
 
 		LOGGER.info("logging in");
 		client.login().block();
 	}
 
+	/**Starts logging the stats of the connections and caches periodically, so it can be seen if anything is falling behind. 
+	 */
+	private static void startStatsLog()
+	{
+		Timer timer = new Timer("Stats log", true);
+		timer.scheduleAtFixedRate(new TimerTask()
+		{
+			public void run()
+			{
+				LOGGER.info(getStatsString());
+			}
+		}, STATS_LOG_INTERVAL, STATS_LOG_INTERVAL);
+	}
+
+	/**Gets the stats of the connections and caches used by the bot. 
+	 * @return a string with a line for each thing being measured
+	 */
+	public static String getStatsString()
+	{
+		StringBuilder builder = new StringBuilder("Stats:");
+		for(GatherObject gather : gatherObjects)
+		{
+			for(GatherServer server : gather.servers.values())
+			{
+				builder.append("\nRCON ").append(server.getIp()).append(":").append(server.getPort()).append(": ").append(server.getRconStatsString());
+			}
+		}
+		if(statsCache != null) builder.append("\nStats cache: ").append(statsCache.getStatsString());
+		builder.append("\nMessage scheduler: ").append(messageScheduler.getStatsString());
+		builder.append("\n").append(voiceStates.getStatsString());
+		return builder.toString();
+	}
+
 	/**Main, instantiates some things, loads the database properties, sets up the database and player object managers
 	 * @param args
 	 * @throws IOException
@@ -280,11 +397,21 @@ public class DiscordBot
 		String pass = props.getProperty("password");
 		String id = props.getProperty("ipaddress");
 		String db = props.getProperty("database");
+		int poolSize = Integer.parseInt(props.getProperty("poolsize", "4"));
 		input.close();
 		
 		//connect to database
-		database = new GatherDB(user, pass, id, db);
-		database.connect();
+		database = new GatherDB(user, pass, id, db, poolSize);
+		database.addRatingColumn();
+		
+		statsCache = new StatsCache(database);
+		//make sure game results that are still waiting get saved when the bot stops
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> statsCache.shutdown(), "Stats flush on shutdown"));
+		
+		//load the rankings once, after this they are updated as games end
+		leaderboard = new Leaderboard(statsCache);
+		leaderboard.reload();
+		leaderboard.startReconciling();
 		
 		players = new PlayerObjectManager();
 		
@@ -300,6 +427,86 @@ public class DiscordBot
 	}
 
 	//wrappers, so we are a little detached from the library
+	//the async versions return the Mono without subscribing, the blocking versions just block on the async versions
+	//only use the blocking versions when the result is actually needed straight away
+
+	/**Helper for running a Mono in the background when nothing needs to wait for the result. Errors are logged rather than thrown. 
+	 * @param action the Mono to subscribe to
+	 * @param description what the action does, used in the error log
+	 */
+	public static void runAsync(Mono<?> action, String description)
+	{
+		logErrors(action, description).subscribe();
+	}
+
+	/**Helper for stopping one failed request from cancelling the rest of a group of requests. The error is logged and the Mono completes empty instead. 
+	 * @param action the Mono that might fail
+	 * @param description what the action does, used in the error log
+	 * @return a Mono that completes empty if the action failed
+	 */
+	public static <T> Mono<T> logErrors(Mono<T> action, String description)
+	{
+		return action.onErrorResume(e ->
+		{
+			LOGGER.warn("Discord request failed ("+description+"): "+e.getMessage());
+			return Mono.empty();
+		});
+	}
+
+	/**Sends a request for each item in a group (e.g. moving every player in a game), a few at a time, and completes once every request has finished. 
+	 * <p>
+	 * A request that fails is retried after a short wait, unless discord said the request itself was wrong (a 4xx response), since sending it again won't help. 
+	 * Requests that still fail are logged and don't stop the rest of the group, how many failed is logged once the whole group is done. 
+	 * @param items the items to send a request for
+	 * @param request makes the request for one item
+	 * @param description what the group of requests does, used in the logs
+	 * @return a Mono that completes once every request has succeeded or given up
+	 */
+	public static <T> Mono<Void> runBatch(Iterable<T> items, Function<T, Mono<?>> request, String description)
+	{
+		return Mono.defer(() ->
+		{
+			AtomicInteger total = new AtomicInteger();
+			AtomicInteger failed = new AtomicInteger();
+			long start = System.currentTimeMillis();
+			return Flux.fromIterable(items)
+					.flatMap(item ->
+					{
+						total.incrementAndGet();
+						return Mono.defer(() -> request.apply(item))
+								//only wait when there is another attempt to make, the last failure is passed straight on
+								.retryWhen(errors -> errors.index().concatMap(attempt ->
+								{
+									if(attempt.getT1() < BATCH_RETRIES && isRetryable(attempt.getT2())) return Mono.delay(BATCH_RETRY_DELAY);
+									return Mono.error(attempt.getT2());
+								}))
+								.then()
+								.onErrorResume(e ->
+								{
+									failed.incrementAndGet();
+									LOGGER.warn("Discord request failed ("+description+"): "+e.getMessage());
+									return Mono.empty();
+								});
+					}, BATCH_CONCURRENCY)
+					.then(Mono.fromRunnable(() ->
+					{
+						long time = System.currentTimeMillis()-start;
+						if(failed.get() > 0) LOGGER.warn(description+": "+failed.get()+" of "+total.get()+" requests failed after "+time+"ms");
+						else LOGGER.debug(description+": "+total.get()+" requests took "+time+"ms");
+					}));
+		});
+	}
+
+	/**Checks if a failed request is worth sending again. 
+	 * @param e the error the request failed with
+	 * @return false if discord rejected the request (other than rate limits, which the client already retries), true otherwise
+	 */
+	private static boolean isRetryable(Throwable e)
+	{
+		if(!(e instanceof ClientException)) return true;
+		int status = ((ClientException) e).getStatus().code();
+		return status < 400 || status >= 500;
+	}
 
 	/**Wrapper function for sending messages with tts defaulted to false.
 	 * @param channel - the channel to put the message in
@@ -321,11 +528,46 @@ public class DiscordBot
 	 */
 	public static Message sendMessage(MessageChannel channel, String msg, boolean tts)
 	{
-		return channel.createMessage(messageSpec ->
+		return sendMessageAsync(channel, msg, tts).block();
+	}
+
+	/**Async wrapper function for sending messages with tts defaulted to false.
+	 * @param channel - the channel to put the message in
+	 * @param msg - the message to send
+	 * @return a Mono that emits the message object after the message has been created
+	 * @see #sendMessageAsync(MessageChannel, String, boolean)
+	 */
+	public static Mono<Message> sendMessageAsync(MessageChannel channel, String msg)
+	{
+		return sendMessageAsync(channel, msg, false);
+	}
+
+	/**Async wrapper function for sending messages. 
+	 * @param channel - the channel to put the message in
+	 * @param msg - the message to send
+	 * @param tts - should use text to speech
+	 * @return a Mono that emits the message object after the message has been created
+	 * @see Discord4J: {@link MessageChannel#createMessage(java.util.function.Consumer)}
+	 */
+	public static Mono<Message> sendMessageAsync(MessageChannel channel, String msg, boolean tts)
+	{
+		if(channel == null) return Mono.empty();
+		return Mono.defer(() -> Mono.fromFuture(messageScheduler.send(channel, msg, tts, true)));
+	}
+
+	/**Wrapper function for sending messages when nothing needs the message object afterwards. Returns straight away, 
+	 * the message may be merged with other messages queued to the same channel around the same time. 
+	 * @param channel - the channel to put the message in
+	 * @param msg - the message to send
+	 * @see MessageScheduler#send(MessageChannel, String, boolean, boolean)
+	 */
+	public static void queueMessage(MessageChannel channel, String msg)
+	{
+		if(channel == null) return;
+		messageScheduler.send(channel, msg, false, false).whenComplete((message, error) ->
 		{
-			messageSpec.setContent(msg);
-			messageSpec.setTts(tts);
-		}).block();
+			if(error != null) LOGGER.warn("Discord request failed (queued message): "+error.getMessage());
+		});
 	}
 	
 	/**Wrapper for editing messages. 
@@ -335,11 +577,19 @@ public class DiscordBot
 	 */
 	public static void editMessage(Message msg, String newString)
 	{
-		if (msg == null) return;
-		msg.edit(editSpec ->
-		{
-			editSpec.setContent(newString);
-		}).block();
+		editMessageAsync(msg, newString).block();
+	}
+
+	/**Async wrapper for editing messages. 
+	 * @param msg - the message to be edited
+	 * @param newString - the new version of the message
+	 * @return a Mono that emits the edited message
+	 * @see Discord4J: {@link Message#edit(java.util.function.Consumer)}
+	 */
+	public static Mono<Message> editMessageAsync(Message msg, String newString)
+	{
+		if (msg == null) return Mono.empty();
+		return Mono.defer(() -> Mono.fromFuture(messageScheduler.edit(msg, newString)));
 	}
 	
 	/**Wrapper for deleting messages.
@@ -348,8 +598,18 @@ public class DiscordBot
 	 */
 	public static void deleteMessage(Message msg)
 	{
-		if (msg == null) return;
-		msg.delete().block();
+		deleteMessageAsync(msg).block();
+	}
+
+	/**Async wrapper for deleting messages. The delete goes through the {@link MessageScheduler}, so it counts towards the channel's rate limit like sends and edits. 
+	 * @param msg - the message to delete
+	 * @return a Mono that completes when the message has been deleted
+	 * @see Discord4J: {@link Message#delete()}
+	 */
+	public static Mono<Void> deleteMessageAsync(Message msg)
+	{
+		if (msg == null) return Mono.empty();
+		return Mono.defer(() -> Mono.fromFuture(messageScheduler.delete(msg)));
 	}
 	
 	/**Wrapper for adding roles to a guild member. 
@@ -359,8 +619,19 @@ public class DiscordBot
 	 */
 	public static void addRole(Member member, Role role)
 	{
-		if(member == null || role == null) return;
-		member.addRole(role.getId()).block();
+		addRoleAsync(member, role).block();
+	}
+
+	/**Async wrapper for adding roles to a guild member. 
+	 * @param member - the member to be changed
+	 * @param role - the role to give them
+	 * @return a Mono that completes when the role has been added
+	 * @see Discord4J: {@link Member#addRole(Snowflake)}
+	 */
+	public static Mono<Void> addRoleAsync(Member member, Role role)
+	{
+		if(member == null || role == null) return Mono.empty();
+		return member.addRole(role.getId());
 	}
 	
 	/**Wrapper for removing roles from a guild member. 
@@ -370,8 +641,19 @@ public class DiscordBot
 	 */
 	public static void removeRole(Member member, Role role)
 	{
-		if(member == null || role == null) return;
-		member.removeRole(role.getId()).block();
+		removeRoleAsync(member, role).block();
+	}
+
+	/**Async wrapper for removing roles from a guild member. 
+	 * @param member - the member to be changed
+	 * @param role - the role to take away
+	 * @return a Mono that completes when the role has been removed
+	 * @see Discord4J: {@link Member#removeRole(Snowflake)}
+	 */
+	public static Mono<Void> removeRoleAsync(Member member, Role role)
+	{
+		if(member == null || role == null) return Mono.empty();
+		return member.removeRole(role.getId());
 	}
 	
 	/**Wrapper for deleting a role from a guild.
@@ -379,8 +661,17 @@ public class DiscordBot
 	 */
 	public static void deleteRole(Role role)
 	{
-		if(role==null) return;
-		role.delete().block();
+		deleteRoleAsync(role).block();
+	}
+
+	/**Async wrapper for deleting a role from a guild.
+	 * @param role the role object to delete
+	 * @return a Mono that completes when the role has been deleted
+	 */
+	public static Mono<Void> deleteRoleAsync(Role role)
+	{
+		if(role==null) return Mono.empty();
+		return role.delete();
 	}
 	
 	/**Wrapper for getting a list of the roles of a guild sorted by their natural positions. 
@@ -400,10 +691,22 @@ public class DiscordBot
 	 */
 	public static void moveToVoiceChannel(Member member, VoiceChannel channel)
 	{
-		member.edit(editSpec ->
+		moveToVoiceChannelAsync(member, channel).block();
+	}
+
+	/**Async wrapper for moving a guild member to a voice channel. User must already be in a voice channel to allow moving them. Requires the Permission.MOVE_MEMBERS permission.
+	 * @param member - the member to be moved
+	 * @param channel - the channel to move them to
+	 * @return a Mono that completes when the member has been moved
+	 * @see Discord4J: {@link Member#edit(java.util.function.Consumer)}
+	 */
+	public static Mono<Void> moveToVoiceChannelAsync(Member member, VoiceChannel channel)
+	{
+		if(member == null || channel == null) return Mono.empty();
+		return member.edit(editSpec ->
 		{
 			editSpec.setNewVoiceChannel(channel.getId());
-		}).block();
+		});
 	}
 
 	/**Wrapper for getting/creating a users private message channel. Used for sending messages directly to a user. 
@@ -413,7 +716,28 @@ public class DiscordBot
 	 */
 	public static PrivateChannel getPMChannel(User user)
 	{
-		return user.getPrivateChannel().block();
+		return getPMChannelAsync(user).block();
+	}
+
+	/**Async wrapper for getting/creating a users private message channel. 
+	 * @param user the user you want to message
+	 * @return a Mono that emits the user's private channel
+	 * @see Discord4J: {@link User#getPrivateChannel()}
+	 */
+	public static Mono<PrivateChannel> getPMChannelAsync(User user)
+	{
+		if(user == null) return Mono.empty();
+		return user.getPrivateChannel();
+	}
+
+	/**Async helper for sending a private message to a user, without blocking to get their private channel first. 
+	 * @param user the user you want to message
+	 * @param msg the message to send
+	 * @return a Mono that emits the message object after the message has been created
+	 */
+	public static Mono<Message> sendPrivateMessageAsync(User user, String msg)
+	{
+		return getPMChannelAsync(user).flatMap(channel -> sendMessageAsync(channel, msg));
 	}
 
 	/**Wrapper for setting the bot "playing" text. Playing text is global for all guilds the bot is in. 
@@ -459,7 +783,17 @@ public class DiscordBot
 	 */
 	public static Member fetchMember(Snowflake guildId, Snowflake userId)
 	{
-		return client.getMemberById(guildId, userId).block();
+		return fetchMemberAsync(guildId, userId).block();
+	}
+
+	/**Async wrapper for fetching a Discord member.
+	 * @param guildId of the guild the member should be associated with
+	 * @param userId of the user to be fetched
+	 * @return a Mono that emits the Discord guild member
+	 */
+	public static Mono<Member> fetchMemberAsync(Snowflake guildId, Snowflake userId)
+	{
+		return client.getMemberById(guildId, userId);
 	}
 
 	/**Helper for fetching a Discord member by username. Returns the first matching member, I don't know if this order is consistent. 
@@ -484,38 +818,35 @@ public class DiscordBot
 		return guild.getMembers().filter(member -> name.equalsIgnoreCase(member.getDisplayName())).blockFirst();
 	}
 
-	/**Does the things needed when a player disconnects. As of writing this it only removes them from any queue they might be in. 
+	/**Does the things needed when a player disconnects. As of writing this it only removes them from the queue they might be in. 
+	 * Run on the gather's command lane, see {@link commands.Commands#runOnLane(Object, String, Runnable)}. 
+	 * @param object the gather object to remove them from
 	 * @param member the member that disconnected
 	 */
-	public static void userWentOffline(Member member)
+	public static void userWentOffline(GatherObject object, Member member)
 	{
-		for (GatherObject object : gatherObjects)
+		if (object.remFromQueue(member) == 1)
 		{
-			if (object.remFromQueue(member) == 1)
-			{
-				DiscordBot.sendMessage(object.getCommandChannel(), object.fullUserString(member)
-				                + " has been **removed** from the queue (disconnected) ("
-				                + object.numPlayersInQueue()+ "/" 
-				                + object.getMaxQueueSize()+ ")");
-			}
+			DiscordBot.sendMessage(object.getCommandChannel(), object.fullUserString(member)
+			                + " has been **removed** from the queue (disconnected) ("
+			                + object.numPlayersInQueue()+ "/" 
+			                + object.getMaxQueueSize()+ ")");
 		}
 	}
 
-	/**Does the things needed when a player leaves the server. As of writing this it only removes them from any queue they might be in. 
-	 * @param guildId the guild the member left
+	/**Does the things needed when a player leaves the server. As of writing this it only removes them from the queue they might be in. 
+	 * Run on the gather's command lane, see {@link commands.Commands#runOnLane(Object, String, Runnable)}. 
+	 * @param obj the gather object of the guild the member left
 	 * @param member the member that disconnected
 	 * @see #PresenceEventListener
 	 */
-	public static void userLeftGuild(Snowflake guildId, Member member)
+	public static void userLeftGuild(GatherObject obj, Member member)
 	{
-		List<GatherObject> gatherObjects = DiscordBot.getGatherObjectsForGuild(guildId);
-		for(GatherObject obj : gatherObjects) {
-			if (obj.remFromQueue(member) == 1) {
-				DiscordBot.sendMessage(obj.getCommandChannel(), obj.fullUserString(member)
-				                + " has been **removed** from the queue (left server) ("
-				                + obj.numPlayersInQueue()+ "/" 
-				                + obj.getMaxQueueSize()+ ")");
-			}
+		if (obj.remFromQueue(member) == 1) {
+			DiscordBot.sendMessage(obj.getCommandChannel(), obj.fullUserString(member)
+			                + " has been **removed** from the queue (left server) ("
+			                + obj.numPlayersInQueue()+ "/" 
+			                + obj.getMaxQueueSize()+ ")");
 		}
 	}
 	
@@ -620,6 +951,7 @@ public class DiscordBot
 			//both kag name and user info match
 			int result = database.linkAccounts(kagname, userId.asLong(), p.getDiscordUserInfo().getGuildId().asLong());
 			LOGGER.info("account linking changed "+result+" lines in the sql database");
+			statsCache.invalidate(kagname, userId.asLong());
 			linkRequests.remove(p);
 			if(result==-2) return -4;
 			return 1;
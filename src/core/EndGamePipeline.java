@@ -0,0 +1,160 @@
+package core;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**Runs everything that needs to happen at the end of a game in the background, so that the thread reporting the result (e.g. the rcon listener) only has to queue it.
+ * <p>
+ * The end of a game is split into stages that run one after the other on a single thread for each gather object:
+ * persisting the result, reporting it to discord, cleaning up the voice channels and roles, and then starting the next game if the queue is full.
+ * The current stage of every game being ended is tracked and each stage is logged with how long it took, so a stuck or failed stage can be seen.
+ * The clean up stage always runs, even if saving or reporting the result failed, but the next game is only started if every stage before it worked.
+ * @author cameron
+ * @see GatherObject#endGame(GatherGame, int)
+ */
+public class EndGamePipeline
+{
+	static final Logger LOGGER = LoggerFactory.getLogger(EndGamePipeline.class);
+
+	/**The stages a game goes through after it has ended
+	 */
+	public enum Stage
+	{
+		QUEUED, PERSIST, REPORT, CLEANUP, NEXT_GAME
+	}
+
+	private GatherObject gather;
+	private ScheduledExecutorService executor;
+	private Map<Integer, Stage> gameStages;
+
+	EndGamePipeline(GatherObject gather, String name)
+	{
+		this.gather = gather;
+		this.gameStages = new ConcurrentHashMap<Integer, Stage>();
+		this.executor = Executors.newSingleThreadScheduledExecutor(runnable ->
+		{
+			Thread thread = new Thread(runnable, "End game "+name);
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**Queues the end of a game. Returns straight away, the stages are run on the pipeline thread.
+	 * @param game the game that has ended
+	 * @param winningTeam the team that won the game, 0 for blue, 1 for red, -1 for a draw, -2 if it was cancelled
+	 * @return a future that completes when every stage has finished, or completes exceptionally with the error from the stage that failed
+	 */
+	public CompletableFuture<Void> submit(GatherGame game, int winningTeam)
+	{
+		int gameId = game.getGameID();
+		gameStages.put(gameId, Stage.QUEUED);
+		LOGGER.info("Game #"+gameId+" queued for ending, winning team: "+winningTeam);
+		CompletableFuture<Void> future = CompletableFuture.completedFuture(null);
+		future = future.thenComposeAsync(ignored -> runStage(gameId, Stage.PERSIST, () ->
+		{
+			gather.persistGameResult(game, winningTeam);
+			return CompletableFuture.completedFuture(null);
+		}), executor);
+		future = future.thenComposeAsync(ignored -> runStage(gameId, Stage.REPORT, () ->
+		{
+			gather.reportGameResult(game, winningTeam);
+			return CompletableFuture.completedFuture(null);
+		}), executor);
+		//the clean up runs even if saving or reporting failed, otherwise the game would stay running and its players and server would be stuck
+		CompletableFuture<Throwable> earlierError = future.handle((ignored, error) -> error);
+		CompletableFuture<Void> cleanup = earlierError.thenComposeAsync(ignored -> runStage(gameId, Stage.CLEANUP, () -> gather.cleanupEndedGame(game)), executor);
+		//the next game is only started if everything before it worked
+		future = cleanup.thenCombine(earlierError, (ignored, error) -> error).thenComposeAsync(error ->
+		{
+			if(error != null)
+			{
+				CompletableFuture<Void> failed = new CompletableFuture<Void>();
+				failed.completeExceptionally(error);
+				return failed;
+			}
+			return runStage(gameId, Stage.NEXT_GAME, () ->
+			{
+				gather.startNextGame();
+				return CompletableFuture.completedFuture(null);
+			});
+		}, executor);
+		return future.whenComplete((ignored, error) ->
+		{
+			//finished games are forgotten, so the map only holds games that are still being ended
+			gameStages.remove(gameId);
+			if(error == null)
+			{
+				LOGGER.info("Game #"+gameId+" finished ending");
+			}
+			else
+			{
+				LOGGER.error("Ending game #"+gameId+" failed", error);
+			}
+		});
+	}
+
+	/**Runs one stage, recording that the game is in that stage and logging how long the stage took.
+	 * @param gameId the id of the game being ended
+	 * @param stage the stage being run
+	 * @param work the body of the stage, returning a future that completes when the stage has finished
+	 * @return the future returned by the stage
+	 */
+	private CompletableFuture<Void> runStage(int gameId, Stage stage, Supplier<CompletableFuture<Void>> work)
+	{
+		gameStages.put(gameId, stage);
+		long start = System.currentTimeMillis();
+		LOGGER.debug("Game #"+gameId+" starting stage "+stage);
+		return work.get().whenComplete((ignored, error) ->
+		{
+			if(error == null) LOGGER.info("Game #"+gameId+" stage "+stage+" took "+(System.currentTimeMillis()-start)+"ms");
+			else LOGGER.warn("Game #"+gameId+" stage "+stage+" failed after "+(System.currentTimeMillis()-start)+"ms");
+		});
+	}
+
+	/**Runs a task on the pipeline thread after a delay, without holding the thread while waiting. Used by stages that need to wait (e.g. a countdown).
+	 * @param task the task to run
+	 * @param delay the delay in milliseconds
+	 * @return a future that completes once the task has run
+	 */
+	public CompletableFuture<Void> schedule(Runnable task, long delay)
+	{
+		CompletableFuture<Void> future = new CompletableFuture<Void>();
+		executor.schedule(() ->
+		{
+			try
+			{
+				task.run();
+				future.complete(null);
+			}
+			catch(RuntimeException e)
+			{
+				future.completeExceptionally(e);
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+		return future;
+	}
+
+	/**Gets the stage the game is currently in.
+	 * @param gameId the id of the game
+	 * @return the current stage, or null if the game is not being ended (it hasn't ended or has already finished every stage)
+	 */
+	public Stage getStage(int gameId)
+	{
+		return gameStages.get(gameId);
+	}
+
+	/**Checks if there are any games that are still being ended.
+	 * @return true if any game has not finished every stage yet
+	 */
+	public boolean isBusy()
+	{
+		return !gameStages.isEmpty();
+	}
+}
@@ -0,0 +1,183 @@
+package core;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**Collects all the database changes caused by the result of one game, so that they can be written together in one transaction.
+ * <p>
+ * Holds the row for the games table, a row for each player in the playerGames table, and the change to each players stats.
+ * The stat changes are stored in StatsObjects, where each field holds the amount to add rather than the total.
+ * @author cameron
+ * @see GatherDB#saveGameResult(GameResultBatch)
+ * @see GatherGame#saveResultToDB(SubManager)
+ */
+public class GameResultBatch
+{
+	/**the name of the fake player whose games played count is used as the total number of gather games
+	 */
+	public static final String TOTAL_GAMES_KAGNAME = "+numgames";
+
+	/**One row of the playerGames table
+	 */
+	public static class PlayerGameRow
+	{
+		public final String kagName;
+		public final int team;
+		public final boolean won;
+
+		PlayerGameRow(String kagName, int team, boolean won)
+		{
+			this.kagName = kagName;
+			this.team = team;
+			this.won = won;
+		}
+	}
+
+	private int gameId;
+	private int gameLengthSeconds;
+	private List<PlayerGameRow> playerGames;
+	//keyed by lower case kag name so that all the changes for one player are combined into one update
+	private Map<String, StatsObject> statChanges;
+	//how many times saving this result has failed, not written to the failed results file
+	private transient int failedSaves;
+
+	GameResultBatch(int gameId, int gameLengthSeconds)
+	{
+		this.gameId = gameId;
+		this.gameLengthSeconds = gameLengthSeconds;
+		this.playerGames = new ArrayList<PlayerGameRow>();
+		this.statChanges = new LinkedHashMap<String, StatsObject>();
+	}
+
+	/**Gets the stat change object for a player, creating it the first time the player is used.
+	 * @param kagName the KAG username of the player
+	 * @return the StatsObject holding the changes for this player
+	 */
+	private StatsObject getChanges(String kagName)
+	{
+		StatsObject changes = statChanges.get(kagName.toLowerCase());
+		if(changes == null)
+		{
+			changes = new StatsObject();
+			changes.kagname = kagName;
+			statChanges.put(kagName.toLowerCase(), changes);
+		}
+		return changes;
+	}
+
+	/**Adds a row to the playerGames table.
+	 * @param kagName the KAG username of the player
+	 * @param team the team they played on
+	 * @param won true if their team won
+	 */
+	public void addPlayerGame(String kagName, int team, boolean won)
+	{
+		playerGames.add(new PlayerGameRow(kagName, team, won));
+	}
+
+	/**Adds a win and a game played to the player.
+	 * @param kagName the KAG username of the player
+	 */
+	public void addWin(String kagName)
+	{
+		StatsObject changes = getChanges(kagName);
+		changes.wins++;
+		changes.gamesplayed++;
+	}
+
+	/**Adds a loss and a game played to the player.
+	 * @param kagName the KAG username of the player
+	 */
+	public void addLoss(String kagName)
+	{
+		StatsObject changes = getChanges(kagName);
+		changes.losses++;
+		changes.gamesplayed++;
+	}
+
+	/**Adds a desertion to the player.
+	 * @param kagName the KAG username of the player
+	 */
+	public void addDesertion(String kagName)
+	{
+		getChanges(kagName).desertions++;
+	}
+
+	/**Adds a desertion and a desertion loss to the player.
+	 * @param kagName the KAG username of the player
+	 */
+	public void addDesertionLoss(String kagName)
+	{
+		StatsObject changes = getChanges(kagName);
+		changes.desertions++;
+		changes.desertionlosses++;
+	}
+
+	/**Adds a substitution to the player.
+	 * @param kagName the KAG username of the player
+	 */
+	public void addSubstitution(String kagName)
+	{
+		getChanges(kagName).substitutions++;
+	}
+
+	/**Adds a substitution and a substitution win to the player.
+	 * @param kagName the KAG username of the player
+	 */
+	public void addSubstitutionWin(String kagName)
+	{
+		StatsObject changes = getChanges(kagName);
+		changes.substitutions++;
+		changes.substitutionwins++;
+	}
+
+	/**Increments the total number of gather games played.
+	 */
+	public void incrementGamesPlayed()
+	{
+		getChanges(TOTAL_GAMES_KAGNAME).gamesplayed++;
+	}
+
+	/**Records that saving this result to the database failed.
+	 * @return how many times saving has failed, including this time
+	 */
+	int saveFailed()
+	{
+		return ++failedSaves;
+	}
+
+	/**Getter for the id of the game this result is for
+	 * @return the game id
+	 */
+	public int getGameId()
+	{
+		return gameId;
+	}
+
+	/**Getter for the length of the game this result is for
+	 * @return the game length in seconds
+	 */
+	public int getGameLengthSeconds()
+	{
+		return gameLengthSeconds;
+	}
+
+	/**Getter for the playerGames rows
+	 * @return an unmodifiable list of the rows to insert
+	 */
+	public List<PlayerGameRow> getPlayerGames()
+	{
+		return Collections.unmodifiableList(playerGames);
+	}
+
+	/**Getter for the stat changes of every player in this result
+	 * @return an unmodifiable collection of StatsObjects, each holding the amounts to add to one player
+	 */
+	public Collection<StatsObject> getStatChanges()
+	{
+		return Collections.unmodifiableCollection(statChanges.values());
+	}
+}
@@ -1,22 +1,30 @@
 package core;
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import core.DatabaseConnectionPool.PooledConnection;
+
 /**Object for managing the database connection. Provides various useful functions for database interaction. 
  * @author cameron
  * <p>
  * players table created using the command:
- *  CREATE TABLE players (kagname VARCHAR(20), discordid BIGINT, gamesplayed INT DEFAULT 0, wins INT DEFAULT 0, losses INT DEFAULT 0, draws INT DEFAULT 0, desertions INT DEFAULT 0, substitutions INT DEFAULT 0, desertionlosses INT DEFAULT 0, substitutionwins INT DEFAULT 0, UNIQUE KEY kagname (kagname), UNIQUE KEY discordid (discordid));
+ *  CREATE TABLE players (kagname VARCHAR(20), discordid BIGINT, gamesplayed INT DEFAULT 0, wins INT DEFAULT 0, losses INT DEFAULT 0, draws INT DEFAULT 0, desertions INT DEFAULT 0, substitutions INT DEFAULT 0, desertionlosses INT DEFAULT 0, substitutionwins INT DEFAULT 0, mmr DOUBLE NOT NULL DEFAULT 0, UNIQUE KEY kagname (kagname), UNIQUE KEY discordid (discordid), KEY rating (mmr, gamesplayed));
+ * <p>
+ * the mmr column is calculated by {@link StatsObject#calculateRating(int, int, int)} whenever the stats change, 
+ * older players tables are given the column and have it filled in by {@link #addRatingColumn()}
  * <p>
  * games table created using the command:
  * CREATE TABLE games (gameId INT UNSIGNED NOT NULL AUTO_INCREMENT, gameLengthSeconds INT, PRIMARY KEY (gameId));
@@ -40,13 +48,57 @@ public class GatherDB
 	private String username;
 	private String password;
 	private String url;
-	private Connection connection = null;
+	private int poolSize;
+	private DatabaseConnectionPool pool = null;
+
+	//the default number of connections, enough for a few commands and an end of game write to run at the same time
+	private static final int DEFAULT_POOL_SIZE = 4;
+
+	//the fixed queries, these are prepared once per pooled connection and reused
+	private static final String SELECT_PLAYER_BY_DISCORDID = "SELECT * FROM players WHERE discordid = ?";
+	private static final String SELECT_PLAYER_BY_KAGNAME = "SELECT * FROM players WHERE kagname = ?";
+	private static final String SELECT_LINK_BY_DISCORDID = "SELECT kagname, discordid FROM players WHERE discordid = ?";
+	private static final String SELECT_LINK_BY_KAGNAME = "SELECT kagname, discordid FROM players WHERE kagname = ?";
+	private static final String SELECT_RECENT_LINKS = "SELECT p.kagname, p.discordid FROM players p JOIN (SELECT kagName, MAX(gameId) AS lastGame FROM playerGames GROUP BY kagName ORDER BY lastGame DESC LIMIT ?) recent ON recent.kagName=p.kagname WHERE p.discordid IS NOT NULL";
+	private static final String UPDATE_WIN_BY_DISCORDID = "UPDATE players SET wins=wins+1, gamesplayed=gamesplayed+1 WHERE discordid=?";
+	private static final String UPDATE_WIN_BY_KAGNAME = "UPDATE players SET wins=wins+1, gamesplayed=gamesplayed+1 WHERE kagname=?";
+	private static final String UPDATE_LOSS_BY_DISCORDID = "UPDATE players SET losses=losses+1, gamesplayed=gamesplayed+1 WHERE discordid=?";
+	private static final String UPDATE_LOSS_BY_KAGNAME = "UPDATE players SET losses=losses+1, gamesplayed=gamesplayed+1 WHERE kagname=?";
+	private static final String UPDATE_DESERTION_BY_DISCORDID = "UPDATE players SET desertions=desertions+1 WHERE discordid=?";
+	private static final String UPDATE_DESERTION_BY_KAGNAME = "UPDATE players SET desertions=desertions+1 WHERE kagname=?";
+	private static final String UPDATE_DESERTION_LOSS_BY_DISCORDID = "UPDATE players SET desertions=desertions+1, desertionlosses=desertionlosses+1 WHERE discordid=?";
+	private static final String UPDATE_DESERTION_LOSS_BY_KAGNAME = "UPDATE players SET desertions=desertions+1, desertionlosses=desertionlosses+1 WHERE kagname=?";
+	private static final String UPDATE_SUBSTITUTION_BY_DISCORDID = "UPDATE players SET substitutions=substitutions+1 WHERE discordid=?";
+	private static final String UPDATE_SUBSTITUTION_BY_KAGNAME = "UPDATE players SET substitutions=substitutions+1 WHERE kagname=?";
+	private static final String UPDATE_SUBSTITUTION_WIN_BY_DISCORDID = "UPDATE players SET substitutions=substitutions+1, substitutionwins=substitutionwins+1 WHERE discordid=?";
+	private static final String UPDATE_SUBSTITUTION_WIN_BY_KAGNAME = "UPDATE players SET substitutions=substitutions+1, substitutionwins=substitutionwins+1 WHERE kagname=?";
+	private static final String INSERT_LINK = "INSERT INTO players (kagname, discordid) VALUES(?,?) ON DUPLICATE KEY UPDATE kagname=?, discordid=?";
+	private static final String UPDATE_TOTAL_GAMES = "UPDATE players SET gamesplayed=gamesplayed+1 WHERE kagname='+numgames+'";
+	private static final String INSERT_RESERVED_GAME = "INSERT INTO games () VALUES ()";
+	private static final String SELECT_LAST_INSERT_ID = "SELECT LAST_INSERT_ID()";
+	private static final String INSERT_GAME = "INSERT INTO games (gameId, gameLengthSeconds) VALUES (?,?) ON DUPLICATE KEY UPDATE gameLengthSeconds=?";
+	//a result that is saved again rewrites its rows rather than failing on the (gameId, kagName) key
+	private static final String INSERT_PLAYER_GAME = "INSERT INTO playerGames (gameId, kagName, team, won) VALUES (?,?,?,?) ON DUPLICATE KEY UPDATE team=VALUES(team), won=VALUES(won)";
+	private static final String UPDATE_STAT_CHANGES = "UPDATE players SET gamesplayed=gamesplayed+?, wins=wins+?, losses=losses+?, draws=draws+?, desertions=desertions+?, substitutions=substitutions+?, desertionlosses=desertionlosses+?, substitutionwins=substitutionwins+? WHERE kagname=?";
+	private static final String SELECT_ALL_PLAYERS = "SELECT * FROM players";
+	private static final String SELECT_RANDOM_PLAYERS = "SELECT *, ((wins+substitutionwins)/(gamesplayed+desertionlosses+substitutionwins))*100 AS winrate FROM players WHERE kagname<>'+numgames+' ORDER BY RAND() LIMIT ?";
+	private static final String SELECT_RATING_INPUTS_BY_DISCORDID = "SELECT kagname, wins, desertions, gamesplayed FROM players WHERE discordid=?";
+	private static final String SELECT_RATING_INPUTS_BY_KAGNAME = "SELECT kagname, wins, desertions, gamesplayed FROM players WHERE kagname=?";
+	private static final String SELECT_ALL_RATING_INPUTS = "SELECT kagname, wins, desertions, gamesplayed FROM players";
+	private static final String UPDATE_RATING = "UPDATE players SET mmr=? WHERE kagname=?";
+	private static final String ADD_RATING_COLUMN = "ALTER TABLE players ADD COLUMN mmr DOUBLE NOT NULL DEFAULT 0, ADD KEY rating (mmr, gamesplayed)";
 	
 	GatherDB(String user, String pass, String ip, String db)
+	{
+		this(user, pass, ip, db, DEFAULT_POOL_SIZE);
+	}
+
+	GatherDB(String user, String pass, String ip, String db, int poolSize)
 	{
 		setUsername(user);
 		setPassword(pass);
 		setUrl(ip, db);
+		this.poolSize = poolSize;
 		connect();
 	}
 	
@@ -108,7 +160,7 @@ public class GatherDB
 	}
 
 	/**
-	 * Initiates the connection between the bot and the database. 
+	 * Sets up the pool of connections between the bot and the database. Connections are opened when they are first needed. 
 	 */
 	public void connect()
 	{
@@ -119,43 +171,39 @@ public class GatherDB
 			e1.printStackTrace();
 		}
 		
-		try
-		{
-			connection = DriverManager.getConnection(url+"?autoReconnect=true", username, password);
-		} catch (SQLException e)
-		{
-			LOGGER.error("SQLException: " + e.getMessage());
-			LOGGER.error("SQLState: " + e.getSQLState());
-			LOGGER.error("VendorError: " + e.getErrorCode());
-			e.printStackTrace();
-		}
+		if(pool != null) pool.closeIdle();
+		//server side prepared statements so that mysql only parses each of the fixed queries once per connection
+		//rewritten batches so that a batch is sent to the server in one round trip
+		pool = new DatabaseConnectionPool(url+"?useServerPrepStmts=true&rewriteBatchedStatements=true", username, password, poolSize);
 	}
 	
 	private interface SqlStatementObjectReturn<T>
 	{
-		T run(Statement statement, ResultSet result) throws SQLException;
+		T run(PooledConnection connection) throws SQLException;
 	}
 
 	/** Takes a lambda function that will execute some SQL statement(s), if the sql does not error, this will simply return whatever the lambda returns, otherwise, this error handler will catch any SQL errors that occur and return the specified return value.
+	 * <p>
+	 * The lambda is given a connection borrowed from the pool, which is given back once the lambda returns. 
+	 * If the query fails the connection is thrown away and the query is retried once on a fresh connection, since the most likely cause is the server closing an idle connection. 
 	 * @param defaultReturnVal The value that should be returned if no other return is triggered (i.e. when there is an exception caught)
 	 * @param method The lambda to execute
 	 * @return whatever object the lambda method returns
 	 */
 	private <T> T errorHandler(T defaultReturnVal, SqlStatementObjectReturn<T> method)
 	{
-		Statement statement = null;
-		ResultSet result = null;
 		try
 		{
-			return method.run(statement, result);
+			return runWithConnection(method);
 		}
 		catch (SQLException e1)
 		{
 			LOGGER.info("Exception: "+e1.getMessage()+" thrown when running a database query, retrying...");
-			//retry because the the auto reconnect doesn't work until after one query has failed
+			//the other idle connections have probably timed out too
+			pool.closeIdle();
 			try
 			{
-				return method.run(statement, result);
+				return runWithConnection(method);
 			}
 			catch (SQLException e2)
 			{
@@ -167,26 +215,221 @@ public class GatherDB
 				LOGGER.error(writer.toString());
 			}
 		}
+		return defaultReturnVal;
+	}
+
+	/**Borrows a connection from the pool, runs the lambda with it, then gives it back. The connection is closed instead of being reused if the lambda throws.
+	 * @param method The lambda to execute
+	 * @return whatever object the lambda method returns
+	 * @throws SQLException if borrowing the connection or running the lambda failed
+	 */
+	private <T> T runWithConnection(SqlStatementObjectReturn<T> method) throws SQLException
+	{
+		PooledConnection connection = pool.borrow();
+		boolean broken = true;
+		try
+		{
+			T returnVal = method.run(connection);
+			broken = false;
+			return returnVal;
+		}
 		finally
 		{
-			if(result != null)
+			pool.release(connection, broken);
+		}
+	}
+
+	/**Helper for the single row stat updates that take one discord id parameter. The rating of the player is updated in the same transaction. 
+	 * @param sql the update query
+	 * @param id the discord id to use as the parameter
+	 * @return the number of rows changed, -1 if something went wrong
+	 */
+	private int executeUpdate(String sql, long id)
+	{
+		return executeStatUpdate(sql, SELECT_RATING_INPUTS_BY_DISCORDID, id);
+	}
+
+	/**Helper for the single row stat updates that take one KAG username parameter. The rating of the player is updated in the same transaction. 
+	 * @param sql the update query
+	 * @param kagName the KAG username to use as the parameter
+	 * @return the number of rows changed, -1 if something went wrong
+	 */
+	private int executeUpdate(String sql, String kagName)
+	{
+		return executeStatUpdate(sql, SELECT_RATING_INPUTS_BY_KAGNAME, kagName);
+	}
+
+	/**Helper for running a single row stat update and then recalculating the rating of that player, in one transaction. 
+	 * @param sql the update query
+	 * @param ratingSql the query for reading the rating inputs of the same player
+	 * @param key the discord id or kag name to use as the parameter of both queries
+	 * @return the number of rows changed by the update, -1 if something went wrong
+	 */
+	private int executeStatUpdate(String sql, String ratingSql, Object key)
+	{
+		return errorHandler(-1, (connection) -> inTransaction(connection, () ->
+		{
+			PreparedStatement statement = connection.prepare(sql);
+			statement.setObject(1, key);
+			int rowsChanged = statement.executeUpdate();
+			statement = connection.prepare(ratingSql);
+			statement.setObject(1, key);
+			PreparedStatement ratingUpdate = connection.prepare(UPDATE_RATING);
+			try(ResultSet result = statement.executeQuery())
+			{
+				addRatingUpdates(result, ratingUpdate);
+			}
+			ratingUpdate.executeBatch();
+			return rowsChanged;
+		}));
+	}
+
+	private interface SqlTransactionBody<T>
+	{
+		T run() throws SQLException;
+	}
+
+	/**Helper for running some queries in one transaction. Commits if the body returns normally, otherwise rolls back and rethrows. 
+	 * @param connection the connection to run the transaction on
+	 * @param body the queries to run
+	 * @return whatever the body returns
+	 * @throws SQLException
+	 */
+	private <T> T inTransaction(PooledConnection connection, SqlTransactionBody<T> body) throws SQLException
+	{
+		connection.getConnection().setAutoCommit(false);
+		try
+		{
+			T returnVal = body.run();
+			connection.getConnection().commit();
+			return returnVal;
+		}
+		catch (SQLException e)
+		{
+			connection.getConnection().rollback();
+			throw e;
+		}
+		finally
+		{
+			connection.getConnection().setAutoCommit(true);
+		}
+	}
+
+	/**Helper for adding a rating update to a batch for every row of a result containing the kagname, wins, desertions and gamesplayed columns. 
+	 * @param result the rows to calculate ratings for
+	 * @param ratingUpdate the {@link #UPDATE_RATING} statement to add the updates to
+	 * @throws SQLException
+	 */
+	private void addRatingUpdates(ResultSet result, PreparedStatement ratingUpdate) throws SQLException
+	{
+		while(result.next())
+		{
+			ratingUpdate.setDouble(1, StatsObject.calculateRating(result.getInt("wins"), result.getInt("desertions"), result.getInt("gamesplayed")));
+			ratingUpdate.setString(2, result.getString("kagname"));
+			ratingUpdate.addBatch();
+		}
+	}
+
+	/**Helper for recalculating the ratings of a group of players, must be run in the same transaction as the stat changes. 
+	 * @param connection the connection the stat changes were made on
+	 * @param kagNames the players to recalculate
+	 * @throws SQLException
+	 */
+	private void updateRatings(PooledConnection connection, Collection<String> kagNames) throws SQLException
+	{
+		if(kagNames.isEmpty()) return;
+		//one query for all the players, the statement cache keeps one of these for each number of players
+		StringBuilder sql = new StringBuilder("SELECT kagname, wins, desertions, gamesplayed FROM players WHERE kagname IN (?");
+		for(int i=1; i<kagNames.size(); i++) sql.append(",?");
+		sql.append(")");
+		PreparedStatement statement = connection.prepare(sql.toString());
+		int i=1;
+		for(String kagName : kagNames)
+		{
+			statement.setString(i++, kagName);
+		}
+		PreparedStatement ratingUpdate = connection.prepare(UPDATE_RATING);
+		try(ResultSet result = statement.executeQuery())
+		{
+			addRatingUpdates(result, ratingUpdate);
+		}
+		ratingUpdate.executeBatch();
+	}
+
+	/**Adds the mmr column and its index to a players table created before the column existed, then calculates the rating of every player. Does nothing if the column already exists. 
+	 * @return true if the column was added, false if it already existed or something went wrong
+	 */
+	public boolean addRatingColumn()
+	{
+		return errorHandler(false, (connection) ->
+		{
+			try(ResultSet columns = connection.getConnection().getMetaData().getColumns(null, null, "players", "mmr"))
+			{
+				if(columns.next()) return false;
+			}
+			LOGGER.info("Adding the mmr column to the players table");
+			try(Statement statement = connection.getConnection().createStatement())
+			{
+				statement.executeUpdate(ADD_RATING_COLUMN);
+			}
+			inTransaction(connection, () ->
 			{
-				try
+				PreparedStatement ratingUpdate = connection.prepare(UPDATE_RATING);
+				try(ResultSet result = connection.prepare(SELECT_ALL_RATING_INPUTS).executeQuery())
 				{
-					result.close();
-				} catch (SQLException e) {
+					addRatingUpdates(result, ratingUpdate);
 				}
-			}
-			if(statement != null)
+				return ratingUpdate.executeBatch();
+			});
+			return true;
+		});
+	}
+
+	/**Helper for reading a whole player row into a StatsObject. 
+	 * @param result the result set positioned on the row to read
+	 * @return a new StatsObject holding the row values
+	 * @throws SQLException
+	 */
+	private StatsObject readStats(ResultSet result) throws SQLException
+	{
+		StatsObject returnObj = new StatsObject();
+		returnObj.kagname = result.getString("kagname");
+		returnObj.discordid = result.getLong("discordid");
+		returnObj.gamesplayed = result.getInt("gamesplayed");
+		returnObj.wins = result.getInt("wins");
+		returnObj.losses = result.getInt("losses");
+		returnObj.draws = result.getInt("draws");
+		returnObj.desertions = result.getInt("desertions");
+		returnObj.substitutions = result.getInt("substitutions");
+		returnObj.desertionlosses = result.getInt("desertionlosses");
+		returnObj.substitutionwins = result.getInt("substitutionwins");
+		return returnObj;
+	}
+
+	/**Helper for reading a single int column from the player found by one of the fixed player queries. 
+	 * @param sql either {@link #SELECT_PLAYER_BY_KAGNAME} or {@link #SELECT_PLAYER_BY_DISCORDID}
+	 * @param key the kag name or discord id to look up
+	 * @param column the column to read
+	 * @return the column value, or -1 if the player couldnt be found
+	 */
+	private int getPlayerColumn(String sql, Object key, String column)
+	{
+		return errorHandler(-1, (connection) ->
+		{
+			PreparedStatement statement = connection.prepare(sql);
+			statement.setObject(1, key);
+			try(ResultSet result = statement.executeQuery())
 			{
-				try
+				if (result.next())
 				{
-					statement.close();
-				} catch (SQLException e) {
+					return result.getInt(column);
+				}
+				else
+				{
+					return -1;
 				}
 			}
-		}
-		return defaultReturnVal;
+		});
 	}
 	
 	/**Takes a Discord id and returns the corresponding KAG username that is stored in the database. Returns a blank string if they were not found. 
@@ -195,23 +438,25 @@ public class GatherDB
 	 */
 	public String getKagName(long id)
 	{
-		return errorHandler("", (statement, result) ->
+		return errorHandler("", (connection) ->
 		{
-			statement = connection.createStatement();
-			result = statement.executeQuery("SELECT * FROM players WHERE discordid = "+id);
-
-			if (result.next())
+			PreparedStatement statement = connection.prepare(SELECT_PLAYER_BY_DISCORDID);
+			statement.setLong(1, id);
+			try(ResultSet result = statement.executeQuery())
 			{
-				if(!result.isLast())
+				if (result.next())
 				{
-					//would also like to print this warning to discord, but not sure how best to handle that
-					LOGGER.error("Attempted to retrieve player from database by discord id("+id+"), but found multiple entries - this SHOULD NEVER HAPPEN and suggests INCORRECT TABLE CONSTRAINTS. This player may have issues due to incorrect link results");
+					if(!result.isLast())
+					{
+						//would also like to print this warning to discord, but not sure how best to handle that
+						LOGGER.error("Attempted to retrieve player from database by discord id("+id+"), but found multiple entries - this SHOULD NEVER HAPPEN and suggests INCORRECT TABLE CONSTRAINTS. This player may have issues due to incorrect link results");
+					}
+					return result.getString("kagname");
+				}
+				else
+				{
+					return "";
 				}
-				return result.getString("kagname");
-			}
-			else
-			{
-				return "";
 			}
 		});
 	}
@@ -222,27 +467,134 @@ public class GatherDB
 	 */
 	public long getDiscordID(String kagName)
 	{
-		return errorHandler(-1L, (statement, result) ->
+		return errorHandler(-1L, (connection) ->
 		{
-			statement = connection.createStatement();
-			result = statement.executeQuery("SELECT * FROM players WHERE kagname = \"" + kagName + "\"");
+			PreparedStatement statement = connection.prepare(SELECT_PLAYER_BY_KAGNAME);
+			statement.setString(1, kagName);
+			try(ResultSet result = statement.executeQuery())
+			{
+				if (result.next())
+				{
+					if(!result.isLast())
+					{
+						//would also like to print this warning to discord, but not sure how best to handle that
+						LOGGER.error("Attempted to retrieve player from database by kagname("+kagName+"), but found multiple entries - this SHOULD NEVER HAPPEN and suggests INCORRECT TABLE CONSTRAINTS. This player may have issues due to incorrect link results");
+					}
+					return result.getLong("discordid");
+				}
+				else
+				{
+					return -1L;
+				}
+			}
+		});
+	}
+	
+	/**Gets the link details of a player from the database by KAG username, in one lookup on the kagname key. 
+	 * The returned KAG username has the case stored in the database, which might not match the case of the name provided. 
+	 * @param kagName the KAG username of the player to be found, case doesn't matter
+	 * @return the players link, or null if no user was found or something went wrong
+	 */
+	public PlayerLinkObject getLinkedPlayer(String kagName)
+	{
+		return getLink(SELECT_LINK_BY_KAGNAME, kagName);
+	}
 
-			if (result.next())
+	/**Gets the link details of a player from the database by Discord id, in one lookup on the discordid key. 
+	 * @param discordId the Discord id of the player to be found
+	 * @return the players link, or null if no user was found or something went wrong
+	 */
+	public PlayerLinkObject getLinkedPlayer(long discordId)
+	{
+		return getLink(SELECT_LINK_BY_DISCORDID, discordId);
+	}
+
+	/**Helper for reading a single players link with one of the fixed link queries. 
+	 * @param sql either {@link #SELECT_LINK_BY_KAGNAME} or {@link #SELECT_LINK_BY_DISCORDID}
+	 * @param key the kag name or discord id to look up
+	 * @return the players link, or null if no user was found
+	 */
+	private PlayerLinkObject getLink(String sql, Object key)
+	{
+		return errorHandler(null, (connection) ->
+		{
+			PreparedStatement statement = connection.prepare(sql);
+			statement.setObject(1, key);
+			try(ResultSet result = statement.executeQuery())
 			{
+				if (!result.next())
+				{
+					return null;
+				}
 				if(!result.isLast())
 				{
 					//would also like to print this warning to discord, but not sure how best to handle that
-					LOGGER.error("Attempted to retrieve player from database by kagname("+kagName+"), but found multiple entries - this SHOULD NEVER HAPPEN and suggests INCORRECT TABLE CONSTRAINTS. This player may have issues due to incorrect link results");
+					LOGGER.error("Attempted to retrieve player link from database by "+key+", but found multiple entries - this SHOULD NEVER HAPPEN and suggests INCORRECT TABLE CONSTRAINTS. This player may have issues due to incorrect link results");
+				}
+				return new PlayerLinkObject(result.getString("kagname"), result.getLong("discordid"));
+			}
+		});
+	}
+
+	/**Gets the link details of a group of players (e.g. a team list) from the database in one query. 
+	 * @param kagNames the KAG usernames of the players to be found, case doesn't matter
+	 * @return a map from lower case KAG username to the players link, players that aren't linked are left out. Null if something went wrong
+	 */
+	public Map<String, PlayerLinkObject> getLinkedPlayers(Collection<String> kagNames)
+	{
+		return errorHandler(null, (connection) ->
+		{
+			Map<String, PlayerLinkObject> links = new HashMap<String, PlayerLinkObject>();
+			if(kagNames.isEmpty()) return links;
+			//the statement cache keeps one of these for each number of players, which is only ever a few different team sizes
+			StringBuilder sql = new StringBuilder("SELECT kagname, discordid FROM players WHERE kagname IN (?");
+			for(int i=1; i<kagNames.size(); i++) sql.append(",?");
+			sql.append(")");
+			PreparedStatement statement = connection.prepare(sql.toString());
+			int i=1;
+			for(String kagName : kagNames)
+			{
+				statement.setString(i++, kagName);
+			}
+			try(ResultSet result = statement.executeQuery())
+			{
+				while(result.next())
+				{
+					PlayerLinkObject link = new PlayerLinkObject(result.getString("kagname"), result.getLong("discordid"));
+					links.put(link.kagname.toLowerCase(), link);
 				}
-				return result.getLong("discordid");
 			}
-			else
+			return links;
+		});
+	}
+
+	/**Streams the links of the players that played most recently, used to fill the player cache at startup. 
+	 * The rows are streamed from the server one at a time rather than all being read into memory first. 
+	 * @param limit the most players to get
+	 * @param consumer called with each players link as it is read
+	 * @return the number of players read, or -1 if something went wrong
+	 */
+	public int forEachRecentLink(int limit, Consumer<PlayerLinkObject> consumer)
+	{
+		return errorHandler(-1, (connection) ->
+		{
+			PreparedStatement statement = connection.prepare(SELECT_RECENT_LINKS);
+			statement.setInt(1, limit);
+			//tells the mysql driver to stream the result instead of buffering all of it
+			statement.setFetchSize(Integer.MIN_VALUE);
+			int count = 0;
+			try(ResultSet result = statement.executeQuery())
 			{
-				return -1L;
+				while(result.next())
+				{
+					consumer.accept(new PlayerLinkObject(result.getString("kagname"), result.getLong("discordid")));
+					count++;
+				}
 			}
+			return count;
 		});
 	}
-	
+
 	/**Gets the stats of a player from the database. Returns all the stats in a StatsObject. 
 	 * @param kagname the KAG username of the player
 	 * @return the StatsObject holding the players stats
@@ -250,31 +602,20 @@ public class GatherDB
 	 */
 	public StatsObject getStats(String kagname)
 	{
-		return errorHandler(null, (statement, result) ->
+		return errorHandler(null, (connection) ->
 		{
-			StatsObject returnObj = new StatsObject();
-			returnObj.kagname = kagname;
-			statement = connection.createStatement();
-			// result = statement.executeQuery("SELECT *, 2000+(wins*10)-(losses*10) FROM players WHERE kagname = \""+kagname + "\"");
-			result = statement.executeQuery("SELECT * FROM players WHERE kagname = \""+kagname + "\"");
-
-			if (result.next())
-			{
-				returnObj.discordid = result.getLong("discordid");
-				returnObj.gamesplayed = result.getInt("gamesplayed");
-				returnObj.wins = result.getInt("wins");
-				returnObj.losses = result.getInt("losses");
-				returnObj.draws = result.getInt("draws");
-				returnObj.desertions = result.getInt("desertions");
-				returnObj.substitutions = result.getInt("substitutions");
-				returnObj.desertionlosses = result.getInt("desertionlosses");
-				returnObj.substitutionwins = result.getInt("substitutionwins");
-				// returnObj.mmr = result.getInt("2000+(wins*10)-(losses*10)");
-				return returnObj;
-			}
-			else
+			PreparedStatement statement = connection.prepare(SELECT_PLAYER_BY_KAGNAME);
+			statement.setString(1, kagname);
+			try(ResultSet result = statement.executeQuery())
 			{
-				return null;
+				if (result.next())
+				{
+					return readStats(result);
+				}
+				else
+				{
+					return null;
+				}
 			}
 		});
 	}
@@ -286,31 +627,20 @@ public class GatherDB
 	 */
 	public StatsObject getStats(long id)
 	{
-		return errorHandler(null, (statement, result) ->
+		return errorHandler(null, (connection) ->
 		{
-			StatsObject returnObj = new StatsObject();
-			returnObj.discordid = id;
-			statement = connection.createStatement();
-			//result = statement.executeQuery("SELECT *, 2000+(wins*10)-(losses*10) FROM players WHERE discordid = "+id);
-			result = statement.executeQuery("SELECT * FROM players WHERE discordid = "+id);
-
-			if (result.next())
+			PreparedStatement statement = connection.prepare(SELECT_PLAYER_BY_DISCORDID);
+			statement.setLong(1, id);
+			try(ResultSet result = statement.executeQuery())
 			{
-				returnObj.kagname = result.getString("kagName");
-				returnObj.gamesplayed = result.getInt("gamesplayed");
-				returnObj.wins = result.getInt("wins");
-				returnObj.losses = result.getInt("losses");
-				returnObj.draws = result.getInt("draws");
-				returnObj.desertions = result.getInt("desertions");
-				returnObj.substitutions = result.getInt("substitutions");
-				returnObj.desertionlosses = result.getInt("desertionlosses");
-				returnObj.substitutionwins = result.getInt("substitutionwins");
-				// returnObj.mmr = result.getInt("2000+(wins*10)-(losses*10)");
-				return returnObj;
-			}
-			else
-			{
-				return null;
+				if (result.next())
+				{
+					return readStats(result);
+				}
+				else
+				{
+					return null;
+				}
 			}
 		});
 	}
@@ -321,20 +651,7 @@ public class GatherDB
 	 */
 	public int getGamesPlayed(String kagname)
 	{
-		return errorHandler(-1, (statement, result) ->
-		{
-			statement = connection.createStatement();
-			result = statement.executeQuery("SELECT gamesPlayed FROM players WHERE kagname = \"" + kagname + "\"");
-
-			if (result.next())
-			{
-				return result.getInt("gamesplayed");
-			}
-			else
-			{
-				return -1;
-			}
-		});
+		return getPlayerColumn(SELECT_PLAYER_BY_KAGNAME, kagname, "gamesplayed");
 	}
 
 	/**Gets the number of games played by the player from the database. 
@@ -343,20 +660,7 @@ public class GatherDB
 	 */
 	public int getGamesPlayed(long id)
 	{
-		return errorHandler(-1, (statement, result) ->
-		{
-			statement = connection.createStatement();
-			result = statement.executeQuery("SELECT gamesplayed FROM players WHERE discordid = " + id);
-
-			if (result.next())
-			{
-				return result.getInt("gamesplayed");
-			}
-			else
-			{
-				return -1;
-			}
-		});
+		return getPlayerColumn(SELECT_PLAYER_BY_DISCORDID, id, "gamesplayed");
 	}
 
 	/**Gets the number of wins of the player from the database. 
@@ -365,20 +669,7 @@ public class GatherDB
 	 */
 	public int getWins(String kagname)
 	{
-		return errorHandler(-1, (statement, result) ->
-		{
-			statement = connection.createStatement();
-			result = statement.executeQuery("SELECT wins FROM players WHERE kagname = \"" + kagname + "\"");
-
-			if (result.next())
-			{
-				return result.getInt("wins");
-			}
-			else
-			{
-				return -1;
-			}
-		});
+		return getPlayerColumn(SELECT_PLAYER_BY_KAGNAME, kagname, "wins");
 	}
 
 	/**Gets the number of wins of the player from the database. 
@@ -387,20 +678,7 @@ public class GatherDB
 	 */
 	public int getWins(long id)
 	{
-		return errorHandler(-1, (statement, result) ->
-		{
-			statement = connection.createStatement();
-			result = statement.executeQuery("SELECT wins FROM players WHERE discordid = " + id);
-
-			if (result.next())
-			{
-				return result.getInt("wins");
-			}
-			else
-			{
-				return -1;
-			}
-		});
+		return getPlayerColumn(SELECT_PLAYER_BY_DISCORDID, id, "wins");
 	}
 
 	/**Gets the number of losses of the player from the database. 
@@ -409,20 +687,7 @@ public class GatherDB
 	 */
 	public int getLosses(String kagname)
 	{
-		return errorHandler(-1, (statement, result) ->
-		{
-			statement = connection.createStatement();
-			result = statement.executeQuery("SELECT losses FROM players WHERE kagname = \"" + kagname + "\"");
-
-			if (result.next())
-			{
-				return result.getInt("losses");
-			}
-			else
-			{
-				return -1;
-			}
-		});
+		return getPlayerColumn(SELECT_PLAYER_BY_KAGNAME, kagname, "losses");
 	}
 
 	/**Gets the number of losses of the player from the database. 
@@ -431,20 +696,7 @@ public class GatherDB
 	 */
 	public int getLosses(long id)
 	{
-		return errorHandler(-1, (statement, result) ->
-		{
-			statement = connection.createStatement();
-			result = statement.executeQuery("SELECT losses FROM players WHERE discordid = " + id);
-
-			if (result.next())
-			{
-				return result.getInt("losses");
-			}
-			else
-			{
-				return -1;
-			}
-		});
+		return getPlayerColumn(SELECT_PLAYER_BY_DISCORDID, id, "losses");
 	}
 
 	/**Gets the number of draws of the player from the database. 
@@ -453,20 +705,7 @@ public class GatherDB
 	 */
 	public int getDraws(String kagname)
 	{
-		return errorHandler(-1, (statement, result) ->
-		{
-			statement = connection.createStatement();
-			result = statement.executeQuery("SELECT draws FROM players WHERE kagname = \"" + kagname + "\"");
-
-			if (result.next())
-			{
-				return result.getInt("draws");
-			}
-			else
-			{
-				return -1;
-			}
-		});
+		return getPlayerColumn(SELECT_PLAYER_BY_KAGNAME, kagname, "draws");
 	}
 
 	/**Gets the number of draws of the player from the database. 
@@ -475,20 +714,7 @@ public class GatherDB
 	 */
 	public int getDraws(long id)
 	{
-		return errorHandler(-1, (statement, result) ->
-		{
-			statement = connection.createStatement();
-			result = statement.executeQuery("SELECT draws FROM players WHERE discordid = " + id);
-
-			if (result.next())
-			{
-				return result.getInt("draws");
-			}
-			else
-			{
-				return -1;
-			}
-		});
+		return getPlayerColumn(SELECT_PLAYER_BY_DISCORDID, id, "draws");
 	}
 
 	/**Gets the number of desertions of the player from the database. 
@@ -497,20 +723,7 @@ public class GatherDB
 	 */
 	public int getdesertions(String kagname)
 	{
-		return errorHandler(-1, (statement, result) ->
-		{
-			statement = connection.createStatement();
-			result = statement.executeQuery("SELECT desertions FROM players WHERE kagname = \"" + kagname + "\"");
-
-			if (result.next())
-			{
-				return result.getInt("desertions");
-			}
-			else
-			{
-				return -1;
-			}
-		});
+		return getPlayerColumn(SELECT_PLAYER_BY_KAGNAME, kagname, "desertions");
 	}
 
 	/**Gets the number of desertions of the player from the database. 
@@ -519,20 +732,7 @@ public class GatherDB
 	 */
 	public int getdesertions(long id)
 	{
-		return errorHandler(-1, (statement, result) ->
-		{
-			statement = connection.createStatement();
-			result = statement.executeQuery("SELECT desertions FROM players WHERE discordid = " + id);
-
-			if (result.next())
-			{
-				return result.getInt("desertions");
-			}
-			else
-			{
-				return -1;
-			}
-		});
+		return getPlayerColumn(SELECT_PLAYER_BY_DISCORDID, id, "desertions");
 	}
 
 	/**Adds a win to the player in the database. Also increments their games played. 
@@ -541,11 +741,7 @@ public class GatherDB
 	 */
 	public int addWin(long id)
 	{
-		return errorHandler(-1, (statement, result) ->
-		{
-			statement = connection.createStatement();
-			return statement.executeUpdate("UPDATE players SET wins=wins+1, gamesplayed=gamesplayed+1 WHERE discordid="+id);
-		});
+		return executeUpdate(UPDATE_WIN_BY_DISCORDID, id);
 	}
 
 	/**Adds a win to the player in the database. Also increments their games played. 
@@ -554,11 +750,7 @@ public class GatherDB
 	 */
 	public int addWin(String kagName)
 	{
-		return errorHandler(-1, (statement, result) ->
-		{
-			statement = connection.createStatement();
-			return statement.executeUpdate("UPDATE players SET wins=wins+1, gamesplayed=gamesplayed+1 WHERE kagname=\""+kagName+"\"");
-		});
+		return executeUpdate(UPDATE_WIN_BY_KAGNAME, kagName);
 	}
 
 	/**Adds a loss to the player in the database. Also increments their games played. 
@@ -567,11 +759,7 @@ public class GatherDB
 	 */
 	public int addLoss(long id)
 	{
-		return errorHandler(-1, (statement, result) ->
-		{
-			statement = connection.createStatement();
-			return statement.executeUpdate("UPDATE players SET losses=losses+1, gamesplayed=gamesplayed+1 WHERE discordid="+id);
-		});
+		return executeUpdate(UPDATE_LOSS_BY_DISCORDID, id);
 	}
 
 	/**Adds a loss to the player in the database. Also increments their games played. 
@@ -580,11 +768,7 @@ public class GatherDB
 	 */
 	public int addLoss(String kagName)
 	{
-		return errorHandler(-1, (statement, result) ->
-		{
-			statement = connection.createStatement();
-			return statement.executeUpdate("UPDATE players SET losses=losses+1, gamesplayed=gamesplayed+1 WHERE kagname=\""+kagName+"\"");
-		});
+		return executeUpdate(UPDATE_LOSS_BY_KAGNAME, kagName);
 	}
 
 	/**Adds a desertion to the player in the database. 
@@ -593,11 +777,7 @@ public class GatherDB
 	 */
 	public int addDesertion(long id)
 	{
-		return errorHandler(-1, (statement, result) ->
-		{
-			statement = connection.createStatement();
-			return statement.executeUpdate("UPDATE players SET desertions=desertions+1 WHERE discordid="+id);
-		});
+		return executeUpdate(UPDATE_DESERTION_BY_DISCORDID, id);
 	}
 
 	/**Adds a desertion to the player in the database. 
@@ -606,11 +786,7 @@ public class GatherDB
 	 */
 	public int addDesertion(String kagName)
 	{
-		return errorHandler(-1, (statement, result) ->
-		{
-			statement = connection.createStatement();
-			return statement.executeUpdate("UPDATE players SET desertions=desertions+1 WHERE kagname=\""+kagName+"\"");
-		});
+		return executeUpdate(UPDATE_DESERTION_BY_KAGNAME, kagName);
 	}
 
 	/**Adds a desertion loss to the player in the database. A desertion loss means that in a game where this player deserted, their team lost. 
@@ -619,11 +795,7 @@ public class GatherDB
 	 */
 	public int addDesertionLoss(long id)
 	{
-		return errorHandler(-1, (statement, result) ->
-		{
-			statement = connection.createStatement();
-			return statement.executeUpdate("UPDATE players SET desertions=desertions+1, desertionlosses=desertionlosses+1 WHERE discordid="+id);
-		});
+		return executeUpdate(UPDATE_DESERTION_LOSS_BY_DISCORDID, id);
 	}
 
 	/**Adds a desertion loss to the player in the database. A desertion loss means that in a game where this player deserted, their team lost. 
@@ -632,11 +804,7 @@ public class GatherDB
 	 */
 	public int addDesertionLoss(String kagName)
 	{
-		return errorHandler(-1, (statement, result) ->
-		{
-			statement = connection.createStatement();
-			return statement.executeUpdate("UPDATE players SET desertions=desertions+1, desertionlosses=desertionlosses+1 WHERE kagname=\""+kagName+"\"");
-		});
+		return executeUpdate(UPDATE_DESERTION_LOSS_BY_KAGNAME, kagName);
 	}
 
 	/**Adds a substitution to the player in the database. 
@@ -645,11 +813,7 @@ public class GatherDB
 	 */
 	public int addSubstitution(long id)
 	{
-		return errorHandler(-1, (statement, result) ->
-		{
-			statement = connection.createStatement();
-			return statement.executeUpdate("UPDATE players SET substitutions=substitutions+1 WHERE discordid="+id);
-		});
+		return executeUpdate(UPDATE_SUBSTITUTION_BY_DISCORDID, id);
 	}
 
 	/**Adds a substitution to the player in the database. 
@@ -658,11 +822,7 @@ public class GatherDB
 	 */
 	public int addSubstitution(String kagName)
 	{
-		return errorHandler(-1, (statement, result) ->
-		{
-			statement = connection.createStatement();
-			return statement.executeUpdate("UPDATE players SET substitutions=substitutions+1 WHERE kagname=\""+kagName+"\"");
-		});
+		return executeUpdate(UPDATE_SUBSTITUTION_BY_KAGNAME, kagName);
 	}
 
 	/**Adds a substitution win to the player in the database. A substitution win means that in a game where this player subbed in, their team won. 
@@ -671,11 +831,7 @@ public class GatherDB
 	 */
 	public int addSubstitutionWin(long id)
 	{
-		return errorHandler(-1, (statement, result) ->
-		{
-			statement = connection.createStatement();
-			return statement.executeUpdate("UPDATE players SET substitutions=substitutions+1, substitutionwins=substitutionwins+1 WHERE discordid="+id);
-		});
+		return executeUpdate(UPDATE_SUBSTITUTION_WIN_BY_DISCORDID, id);
 	}
 
 	/**Adds a substitution win to the player in the database. A substitution win means that in a game where this player subbed in, their team won. 
@@ -684,11 +840,7 @@ public class GatherDB
 	 */
 	public int addSubstitutionWin(String kagName)
 	{
-		return errorHandler(-1, (statement, result) ->
-		{
-			statement = connection.createStatement();
-			return statement.executeUpdate("UPDATE players SET substitutions=substitutions+1, substitutionwins=substitutionwins+1 WHERE kagname=\""+kagName+"\"");
-		});
+		return executeUpdate(UPDATE_SUBSTITUTION_WIN_BY_KAGNAME, kagName);
 	}
 	
 	/**Links a KAG username and a Discord id in the database. If one of the two already exists in the database, the entry should be updated to the new values. If both already exist it is likely to return an error(not properly tested since its an unlikely case). 
@@ -699,12 +851,16 @@ public class GatherDB
 	 */
 	public int linkAccounts(String kagName, long id, long guildId)
 	{
-		int returnVal = errorHandler(-1, (statement, result) ->
+		int returnVal = errorHandler(-1, (connection) ->
 		{
-			statement = connection.createStatement();
 			//this query can lead to duplicated links if the database constraints aren't correct
 			//could fix this by manually checking for existing entries first and updating the, but then I am just making my own version of "ON DUPLICATE KEY UPDATE"
-			return statement.executeUpdate("INSERT INTO players (kagname, discordid) VALUES(\""+kagName+"\","+id+") ON DUPLICATE KEY UPDATE kagname=\""+kagName+"\", discordid = "+id);
+			PreparedStatement statement = connection.prepare(INSERT_LINK);
+			statement.setString(1, kagName);
+			statement.setLong(2, id);
+			statement.setString(3, kagName);
+			statement.setLong(4, id);
+			return statement.executeUpdate();
 		});
 		if(returnVal!=-1)
 		{
@@ -725,18 +881,15 @@ public class GatherDB
 	 */
 	public boolean checkValidLink(String kagName, long id)
 	{
-		return errorHandler(false, (statement, result) ->
+		//each lookup borrows its own connection, so this must not be wrapped in the error handler (it could wait on itself if the pool is exhausted)
+		if(this.getDiscordID(kagName)!=id)
 		{
-			statement = connection.createStatement();
-			if(this.getDiscordID(kagName)!=id)
-			{
-				return false;
-			}
-			if(!this.getKagName(id).equals(kagName)) {
-				return false;
-			}
-			return true;
-		});
+			return false;
+		}
+		if(!this.getKagName(id).equals(kagName)) {
+			return false;
+		}
+		return true;
 	}
 	
 	/**Increments the total number of gather games played. 
@@ -744,10 +897,9 @@ public class GatherDB
 	 */
 	public int incrementGamesPlayed()
 	{
-		return errorHandler(-1, (statement, result) ->
+		return errorHandler(-1, (connection) ->
 		{
-			statement = connection.createStatement();
-			return statement.executeUpdate("UPDATE players SET gamesplayed=gamesplayed+1 WHERE kagname=\"+numgames+\"");
+			return connection.prepare(UPDATE_TOTAL_GAMES).executeUpdate();
 		});
 	}
 	
@@ -756,19 +908,20 @@ public class GatherDB
 	 */
 	public int reserveGameId()
 	{
-		return errorHandler(-1, (statement, result) ->
+		return errorHandler(-1, (connection) ->
 		{
-			statement = connection.createStatement();
-			statement.executeUpdate("INSERT INTO games () VALUES ()");
-			result = statement.executeQuery("SELECT LAST_INSERT_ID();");
-
-			if (result.next())
+			connection.prepare(INSERT_RESERVED_GAME).executeUpdate();
+			//LAST_INSERT_ID is per connection, so this must use the same connection as the insert
+			try(ResultSet result = connection.prepare(SELECT_LAST_INSERT_ID).executeQuery())
 			{
-				return result.getInt("LAST_INSERT_ID()");
-			}
-			else
-			{
-				return -1;
+				if (result.next())
+				{
+					return result.getInt(1);
+				}
+				else
+				{
+					return -1;
+				}
 			}
 		});
 	}
@@ -779,91 +932,150 @@ public class GatherDB
 	 */
 	public int addGame(GatherGame game)
 	{
-		return errorHandler(-1, (statement, result) ->
+		return errorHandler(-1, (connection) ->
 		{
 			int rowsChanged=-1;
-			statement = connection.createStatement();
 			//game into games table
-			rowsChanged = statement.executeUpdate("INSERT INTO games (gameId, gameLengthSeconds) VALUES ("+game.getGameID()+","+game.getGameLengthSeconds()+") ON DUPLICATE KEY UPDATE gameLengthSeconds="+game.getGameLengthSeconds());
+			PreparedStatement statement = connection.prepare(INSERT_GAME);
+			statement.setInt(1, game.getGameID());
+			statement.setInt(2, game.getGameLengthSeconds());
+			statement.setInt(3, game.getGameLengthSeconds());
+			rowsChanged = statement.executeUpdate();
 			//players into playergames table
 			//TODO make an object for storing more stats related to what the player did in the game, we would then get a list of these objects instead of strings here
 			//TODO appropriate stats for subs
 			List<String> blueTeam = game.getBlueKagNames();
 			List<String> redTeam = game.getRedKagNames();
+			statement = connection.prepare(INSERT_PLAYER_GAME);
 			for(String kagName : blueTeam)
 			{
 				boolean blueWon = game.getWinningTeam()==0 ? true : false;
-				rowsChanged += statement.executeUpdate("INSERT INTO playerGames (gameId, kagName, team, won) VALUES ("+game.getGameID()+", \""+kagName+"\", 0, "+blueWon+")");
+				statement.setInt(1, game.getGameID());
+				statement.setString(2, kagName);
+				statement.setInt(3, 0);
+				statement.setBoolean(4, blueWon);
+				rowsChanged += statement.executeUpdate();
 			}
 			for(String kagName : redTeam)
 			{
 				boolean redWon = game.getWinningTeam()==1 ? true : false;
-				rowsChanged += statement.executeUpdate("INSERT INTO playerGames (gameId, kagName, team, won) VALUES ("+game.getGameID()+", \""+kagName+"\", 1, "+redWon+")");
+				statement.setInt(1, game.getGameID());
+				statement.setString(2, kagName);
+				statement.setInt(3, 1);
+				statement.setBoolean(4, redWon);
+				rowsChanged += statement.executeUpdate();
 			}
 			
 			return rowsChanged;
 		});
 	}
 	
-	/**Returns a list of players ordered based on their rank, followed by win percentage, then games played. Players with less than 10 games are ignored. 
-	 * @param numPlayers the number of players to get
-	 * @return a list of StatsObject that has a length of numPlayers or less 
+	/**Writes the whole result of a game to the database in one transaction. The game row, every playerGames row, and every players stat changes are sent as jdbc batches, then committed together. 
+	 * If anything fails the transaction is rolled back, so a result is either saved completely or not at all. 
+	 * @param batch the GameResultBatch holding the result of the game
+	 * @return the number of rows changed by the request, -1 if something went wrong. 
+	 * @see GameResultBatch
+	 */
+	public int saveGameResult(GameResultBatch batch)
+	{
+		return errorHandler(-1, (connection) -> inTransaction(connection, () ->
+		{
+			int rowsChanged = 0;
+			//game into games table
+			PreparedStatement statement = connection.prepare(INSERT_GAME);
+			statement.setInt(1, batch.getGameId());
+			statement.setInt(2, batch.getGameLengthSeconds());
+			statement.setInt(3, batch.getGameLengthSeconds());
+			rowsChanged += statement.executeUpdate();
+			//players into playergames table
+			statement = connection.prepare(INSERT_PLAYER_GAME);
+			for(GameResultBatch.PlayerGameRow row : batch.getPlayerGames())
+			{
+				statement.setInt(1, batch.getGameId());
+				statement.setString(2, row.kagName);
+				statement.setInt(3, row.team);
+				statement.setBoolean(4, row.won);
+				statement.addBatch();
+			}
+			rowsChanged += sumUpdateCounts(statement.executeBatch());
+			//stat changes into players table
+			statement = connection.prepare(UPDATE_STAT_CHANGES);
+			for(StatsObject changes : batch.getStatChanges())
+			{
+				statement.setInt(1, changes.gamesplayed);
+				statement.setInt(2, changes.wins);
+				statement.setInt(3, changes.losses);
+				statement.setInt(4, changes.draws);
+				statement.setInt(5, changes.desertions);
+				statement.setInt(6, changes.substitutions);
+				statement.setInt(7, changes.desertionlosses);
+				statement.setInt(8, changes.substitutionwins);
+				statement.setString(9, changes.kagname);
+				statement.addBatch();
+			}
+			rowsChanged += sumUpdateCounts(statement.executeBatch());
+			//ratings for everyone whose stats changed
+			List<String> kagNames = new ArrayList<String>();
+			for(StatsObject changes : batch.getStatChanges())
+			{
+				if(!GameResultBatch.TOTAL_GAMES_KAGNAME.equals(changes.kagname)) kagNames.add(changes.kagname);
+			}
+			updateRatings(connection, kagNames);
+			return rowsChanged;
+		}));
+	}
+
+	/**Helper for adding up the results of a jdbc batch. 
+	 * @param updateCounts the array returned by executeBatch
+	 * @return the total number of rows changed, ignoring statements where the driver couldn't say how many rows changed
+	 */
+	private int sumUpdateCounts(int[] updateCounts)
+	{
+		int total = 0;
+		for(int count : updateCounts)
+		{
+			if(count > 0) total += count;
+		}
+		return total;
+	}
+	
+	/**Gets the stats of every player in the database, including the fake player used for the total number of games. Used to load the {@link Leaderboard}. 
+	 * @return a list of StatsObject for every row of the players table, null if something went wrong
 	 */
-	public List<StatsObject> getTopPlayers(int numPlayers)
+	public List<StatsObject> getAllPlayers()
 	{
-		return errorHandler(null, (statement, result) ->
+		return errorHandler(null, (connection) ->
 		{
-			statement = connection.createStatement();
-			//result = statement.executeQuery("(SELECT *, ((wins+substitutionwins)/(gamesplayed+desertionlosses+substitutionwins))*100, 2000+(wins*10)-(losses*10) FROM players WHERE gamesplayed>=10 AND kagname<>\"+numgames+\" ORDER BY ((wins+substitutionwins)/(gamesplayed+desertionlosses+substitutionwins))*100 DESC LIMIT "+numPlayers+")"
-			//result = statement.executeQuery("(SELECT *, ((wins+substitutionwins)/(gamesplayed+desertionlosses+substitutionwins))*100, 2000+(wins*10)-(losses*10) FROM players WHERE gamesplayed>=10 AND kagname<>\"+numgames+\" ORDER BY 2000+(wins*10)-(losses*10) DESC, ((wins+substitutionwins)/(gamesplayed+desertionlosses+substitutionwins))*100 DESC, gamesplayed DESC LIMIT "+numPlayers+")"
-			result = statement.executeQuery("(SELECT *, ((wins+substitutionwins)/(gamesplayed+desertionlosses+substitutionwins))*100 AS winrate, ((1*(wins-(desertions/2))/gamesplayed)+1.96*1.96/(2*gamesplayed)-1.96*SQRT(((1*(wins-(desertions/2))/gamesplayed)*(1-(1*(wins-(desertions/2))/gamesplayed))+1.96*1.96/(4*gamesplayed))/gamesplayed))/(1+1.96*1.96/gamesplayed) AS mmr FROM players WHERE gamesplayed>(SELECT gamesplayed FROM players WHERE kagname='+numgames+')*0.1 AND kagname<>\"+numgames+\" ORDER BY mmr DESC, winrate DESC, gamesplayed DESC, kagname ASC LIMIT "+numPlayers+")"
-			                             /*+ " UNION ALL "
-			                              + "(SELECT *, (wins/(wins+losses+desertions))*100 FROM players WHERE gamesplayed<10 AND kagname<>\"+numgames+\" ORDER BY gamesplayed DESC)"*/);
-
-			List<StatsObject> returnList = new ArrayList<StatsObject>();
-			while (result.next())
+			PreparedStatement statement = connection.prepare(SELECT_ALL_PLAYERS);
+			try(ResultSet result = statement.executeQuery())
 			{
-				StatsObject returnObj = new StatsObject();
-				returnObj.kagname = result.getString("kagname");
-				returnObj.discordid = result.getLong("discordid");
-				returnObj.gamesplayed = result.getInt("gamesplayed");
-				returnObj.wins = result.getInt("wins");
-				returnObj.losses = result.getInt("losses");
-				returnObj.draws = result.getInt("draws");
-				returnObj.desertions = result.getInt("desertions");
-				returnObj.substitutions = result.getInt("substitutions");
-				returnObj.winRate = result.getFloat("winrate");
-				// returnObj.mmr = result.getInt("2000+(wins*10)-(losses*10)");
-				returnList.add(returnObj);
+				List<StatsObject> returnList = new ArrayList<StatsObject>();
+				while (result.next())
+				{
+					returnList.add(readStats(result));
+				}
+				return returnList;
 			}
-			return returnList;
 		});
 	}
 	
 	public List<StatsObject> getRandomPlayers(int numPlayers)
 	{
-		return errorHandler(null, (statement, result) ->
+		return errorHandler(null, (connection) ->
 		{
-			statement = connection.createStatement();
-			result = statement.executeQuery("SELECT *, ((wins+substitutionwins)/(gamesplayed+desertionlosses+substitutionwins))*100 AS winrate, ((1*(wins-(desertions/2))/gamesplayed)+1.96*1.96/(2*gamesplayed)-1.96*SQRT(((1*(wins-(desertions/2))/gamesplayed)*(1-(1*(wins-(desertions/2))/gamesplayed))+1.96*1.96/(4*gamesplayed))/gamesplayed))/(1+1.96*1.96/gamesplayed) AS mmr FROM players WHERE kagname<>'+numgames+' ORDER BY RAND() LIMIT "+numPlayers);
-
-			List<StatsObject> returnList = new ArrayList<StatsObject>();
-			while (result.next())
+			PreparedStatement statement = connection.prepare(SELECT_RANDOM_PLAYERS);
+			statement.setInt(1, numPlayers);
+			try(ResultSet result = statement.executeQuery())
 			{
-				StatsObject returnObj = new StatsObject();
-				returnObj.kagname = result.getString("kagname");
-				returnObj.discordid = result.getLong("discordid");
-				returnObj.gamesplayed = result.getInt("gamesplayed");
-				returnObj.wins = result.getInt("wins");
-				returnObj.losses = result.getInt("losses");
-				returnObj.draws = result.getInt("draws");
-				returnObj.desertions = result.getInt("desertions");
-				returnObj.substitutions = result.getInt("substitutions");
-				returnObj.winRate = result.getFloat("winrate");
-				// returnObj.mmr = result.getInt("2000+(wins*10)-(losses*10)");
-				returnList.add(returnObj);
+				List<StatsObject> returnList = new ArrayList<StatsObject>();
+				while (result.next())
+				{
+					StatsObject returnObj = readStats(result);
+					returnObj.winRate = result.getFloat("winrate");
+					returnList.add(returnObj);
+				}
+				return returnList;
 			}
-			return returnList;
 		});
 	}
 }
@@ -140,51 +140,58 @@ public class GatherGame
 		return msg;
 	}
 
+	/**Sends the player count and both teams to the KAG server, followed by the command that tells the server what changed. 
+	 * Every command is still queued if one is dropped, so that as much as possible reaches the server. 
+	 * @param finishCommand the command telling the server the teams have been set, scrambled or updated
+	 * @return false if any of the commands were dropped, true otherwise
+	 */
+	private boolean sendTeamCommands(String finishCommand)
+	{
+		boolean sent = server.sendMessage("getRules().set_s32('numPlayers',"+this.getPlayerCount()+");");
+		sent &= server.sendMessage(this.generateBlueTeamMsg());
+		sent &= server.sendMessage(this.generateRedTeamMsg());
+		sent &= server.sendMessage(finishCommand);
+		if(!sent) LOGGER.error("Failed to send the teams for game #"+this.getGameID()+" to "+this.getServerIp()+":"+this.getServerPort()+", the rcon send queue is full");
+		return sent;
+	}
+
 	/**Helper function for sending the teams to the KAG server when a game is created
+	 * @return false if any of the commands were dropped because the server's send queue is full, true otherwise
 	 */
-	public void sendTeamsToServer()
+	public boolean sendTeamsToServer()
 	{
 		//set the teams for the kag server by doing these commands
 		//getRules().set_s32('numPlayers',10);			//if we want to adjust the game size
 		//string[] blue={'player1', 'player2', 'etc'}; getRules().set('blueTeam',blue);
 		//string[] red={'player1', 'player2', 'etc'}; getRules().set('redTeam',red);
 		//getRules().set_bool('teamsSet',true);
-		server.sendMessage("getRules().set_s32('numPlayers',"+this.getPlayerCount()+");");
-		server.sendMessage(this.generateBlueTeamMsg());
-		server.sendMessage(this.generateRedTeamMsg());
-		server.sendMessage("getRules().set_bool('teamsSet',true);");
+		return sendTeamCommands("getRules().set_bool('teamsSet',true);");
 	}
 
 	/**Helper function for updating the teams on the KAG server when the teams have been scrambled (forces a check of all players teams). 
+	 * @return false if any of the commands were dropped because the server's send queue is full, true otherwise
 	 */
-	public void sendScrambledTeamsToServer()
+	public boolean sendScrambledTeamsToServer()
 	{
 		//update the teams for the kag server by doing these commands
 		//getRules().set_s32('numPlayers',10);			//if we want to adjust the game size
 		//string[] blue={'player1', 'player2', 'etc'}; getRules().set('blueTeam',blue);
 		//string[] red={'player1', 'player2', 'etc'}; getRules().set('redTeam',red);
 		//"getRules().set_bool('teamsUpdated',true);"
-		server.sendMessage("getRules().set_s32('numPlayers',"+this.getPlayerCount()+");");
-		server.sendMessage(this.generateBlueTeamMsg());
-		server.sendMessage(this.generateRedTeamMsg());
-		server.sendMessage("getRules().set_bool('teamsScrambled',true);");
-
+		return sendTeamCommands("getRules().set_bool('teamsScrambled',true);");
 	}
 
 	/**Helper function for updating the teams on the KAG server when the teams are changed or for any other reason. 
+	 * @return false if any of the commands were dropped because the server's send queue is full, true otherwise
 	 */
-	public void updateTeamsOnServer()
+	public boolean updateTeamsOnServer()
 	{
 		//update the teams for the kag server by doing these commands
 		//getRules().set_s32('numPlayers',10);			//if we want to adjust the game size
 		//string[] blue={'player1', 'player2', 'etc'}; getRules().set('blueTeam',blue);
 		//string[] red={'player1', 'player2', 'etc'}; getRules().set('redTeam',red);
 		//"getRules().set_bool('teamsUpdated',true);"
-		server.sendMessage("getRules().set_s32('numPlayers',"+this.getPlayerCount()+");");
-		server.sendMessage(this.generateBlueTeamMsg());
-		server.sendMessage(this.generateRedTeamMsg());
-		server.sendMessage("getRules().set_bool('teamsUpdated',true);");
-
+		return sendTeamCommands("getRules().set_bool('teamsUpdated',true);");
 	}
 
 	/**Replaces one player in the game with another, this is the place where subs are actually subbed in. 
@@ -221,14 +228,27 @@ public class GatherGame
 	}
 
 	/**Function for saving the result of the game to the database. 
-	 * @param winningTeam the team that won this game
+	 * <p>
+	 * All the stat changes and playerGames rows are collected into a GameResultBatch, which the {@link StatsCache} writes to the database in one transaction. 
 	 * @param subObj the SubManager object that tracks subs for this game
+	 * @return the GameResultBatch that was saved
+	 * @see GatherDB#saveGameResult(GameResultBatch)
 	 */
-	public void saveResultToDB(SubManager subObj)
+	public GameResultBatch saveResultToDB(SubManager subObj)
 	{
-		DiscordBot.database.addGame(this);
+		GameResultBatch batch = new GameResultBatch(this.getGameID(), this.getGameLengthSeconds());
+		//TODO make an object for storing more stats related to what the player did in the game, we would then get a list of these objects instead of strings here
+		//TODO appropriate stats for subs
+		for(String kagName : this.getBlueKagNames())
+		{
+			batch.addPlayerGame(kagName, 0, this.getWinningTeam()==0);
+		}
+		for(String kagName : this.getRedKagNames())
+		{
+			batch.addPlayerGame(kagName, 1, this.getWinningTeam()==1);
+		}
 		//TODO remove games played variable at the end of the season
-		DiscordBot.database.incrementGamesPlayed();
+		batch.incrementGamesPlayed();
 		for(PlayerObject p : bluePlayerList)
 		{
 			//if they subbed in or left they dont get a win/loss stat
@@ -238,13 +258,13 @@ public class GatherGame
 			}
 			else if(this.getWinningTeam()==0)
 			{
-				int val = DiscordBot.database.addWin(p.getKagName());
-				LOGGER.info("Adding win for "+p.getKagName()+" "+val);
+				batch.addWin(p.getKagName());
+				LOGGER.info("Adding win for "+p.getKagName());
 			}
 			else if(this.getWinningTeam()==1)
 			{
-				int val = DiscordBot.database.addLoss(p.getKagName());
-				LOGGER.info("Adding loss for "+p.getKagName()+" "+val);
+				batch.addLoss(p.getKagName());
+				LOGGER.info("Adding loss for "+p.getKagName());
 			}
 			//TODO warning, draws not accounted for
 		}
@@ -257,13 +277,13 @@ public class GatherGame
 			}
 			else if(this.getWinningTeam()==1)
 			{
-				int val = DiscordBot.database.addWin(p.getKagName());
-				LOGGER.info("Adding win for "+p.getKagName()+" "+val);
+				batch.addWin(p.getKagName());
+				LOGGER.info("Adding win for "+p.getKagName());
 			}
 			else if(this.getWinningTeam()==0)
 			{
-				int val = DiscordBot.database.addLoss(p.getKagName());
-				LOGGER.info("Adding loss for "+p.getKagName()+" "+val);
+				batch.addLoss(p.getKagName());
+				LOGGER.info("Adding loss for "+p.getKagName());
 			}
 			//TODO warning, draws not accounted for
 		}
@@ -271,52 +291,52 @@ public class GatherGame
 		{
 			if(this.getWinningTeam()==0)
 			{
-				int val = DiscordBot.database.addDesertion(p.getKagName());
-				LOGGER.info("Adding desertion for "+p.getKagName()+" "+val);
+				batch.addDesertion(p.getKagName());
+				LOGGER.info("Adding desertion for "+p.getKagName());
 			}
 			else if(this.getWinningTeam()==1)
 			{
-				int val = DiscordBot.database.addDesertionLoss(p.getKagName());
-				LOGGER.info("Adding desertion for "+p.getKagName()+" "+val);
+				batch.addDesertionLoss(p.getKagName());
+				LOGGER.info("Adding desertion for "+p.getKagName());
 			}
 		}
 		for(PlayerObject p : redDeserted)
 		{
 			if(this.getWinningTeam()==1)
 			{
-				int val = DiscordBot.database.addDesertion(p.getKagName());
-				LOGGER.info("Adding desertion for "+p.getKagName()+" "+val);
+				batch.addDesertion(p.getKagName());
+				LOGGER.info("Adding desertion for "+p.getKagName());
 			}
 			else if(this.getWinningTeam()==0)
 			{
-				int val = DiscordBot.database.addDesertionLoss(p.getKagName());
-				LOGGER.info("Adding desertion for "+p.getKagName()+" "+val);
+				batch.addDesertionLoss(p.getKagName());
+				LOGGER.info("Adding desertion for "+p.getKagName());
 			}
 		}
 		for(PlayerObject p : blueSubbedIn)
 		{
 			if(this.getWinningTeam()==0)
 			{
-				int val = DiscordBot.database.addSubstitutionWin(p.getKagName());
-				LOGGER.info("Adding substitution for "+p.getKagName()+" "+val);
+				batch.addSubstitutionWin(p.getKagName());
+				LOGGER.info("Adding substitution for "+p.getKagName());
 			}
 			else if(this.getWinningTeam()==1)
 			{
-				int val = DiscordBot.database.addSubstitution(p.getKagName());
-				LOGGER.info("Adding substitution for "+p.getKagName()+" "+val);
+				batch.addSubstitution(p.getKagName());
+				LOGGER.info("Adding substitution for "+p.getKagName());
 			}
 		}
 		for(PlayerObject p : redSubbedIn)
 		{
 			if(this.getWinningTeam()==1)
 			{
-				int val = DiscordBot.database.addSubstitutionWin(p.getKagName());
-				LOGGER.info("Adding substitution for "+p.getKagName()+" "+val);
+				batch.addSubstitutionWin(p.getKagName());
+				LOGGER.info("Adding substitution for "+p.getKagName());
 			}
 			else if(this.getWinningTeam()==0)
 			{
-				int val = DiscordBot.database.addSubstitution(p.getKagName());
-				LOGGER.info("Adding substitution for "+p.getKagName()+" "+val);
+				batch.addSubstitution(p.getKagName());
+				LOGGER.info("Adding substitution for "+p.getKagName());
 			}
 		}
 
@@ -328,15 +348,20 @@ public class GatherGame
 				if(this.getPlayerTeam(p) == this.getWinningTeam() || this.getWinningTeam() == -1)
 				{
 					//if they were on the winning team or its a draw add a desertion
-					DiscordBot.database.addDesertion(p.getKagName());
+					batch.addDesertion(p.getKagName());
 				}
 				else if (this.getWinningTeam()>=0 && this.getPlayerTeam(p) != this.getWinningTeam())
 				{
 					//if a team won and the player wasnt on it then they get a desertion loss
-					DiscordBot.database.addDesertionLoss(p.getKagName());
+					batch.addDesertionLoss(p.getKagName());
 				}
 			}
 		}
+
+		//written behind by the stats cache, which also updates the rankings
+		DiscordBot.statsCache.recordGameResult(batch);
+		LOGGER.info("Recorded result of game #"+this.getGameID());
+		return batch;
 	}
 
 	/**Shuffles the current player list, then puts the first half into the blue team, and the second half into the red team. 
@@ -5,6 +5,15 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,6 +30,8 @@ import discord4j.core.object.entity.User;
 import discord4j.core.object.entity.VoiceChannel;
 import discord4j.core.object.util.Permission;
 import discord4j.core.object.util.Snowflake;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 /**This object contains various variables and functions for one gather queue/channel. 
  * @author cameron
@@ -29,6 +40,8 @@ import discord4j.core.object.util.Snowflake;
 public class GatherObject
 {
 	static final Logger LOGGER = LoggerFactory.getLogger(GatherObject.class);
+	//how many role removals can be in flight at once when clearing the queue role at startup
+	private static final int CLEAR_ROLE_CONCURRENCY = 4;
 
 	private GatherQueueObject queue;
 
@@ -45,17 +58,63 @@ public class GatherObject
 	private String commandChannelBaseName = "";
 
 	public SubManager substitutions = null;
+	private TeamRolePool teamRoles;
 
 	public Map<String, GatherServer> servers;
 
 	private List<GatherGame> runningGames;
+	//indexes of the running games, kept up to date by addRunningGame, replacePlayer and setGameEnded
+	private Map<Integer, GatherGame> gamesById;
+	private Map<String, GatherGame> gamesByServer;
+	private Map<Snowflake, GatherGame> gamesByPlayer;
+
+	private EndGamePipeline endGamePipeline;
+	//held while checking if a player is in a game and adding them, and while taking the players out of the queue and putting them in a game
+	private final Object startLock = new Object();
+
+	/**The latest ticket counts received from one server that haven't been applied to its game yet
+	 */
+	private static class PendingTickets
+	{
+		private static final int NONE = Integer.MIN_VALUE;
+		private final String ip;
+		private final int port;
+		//one slot for each team, NONE when there is nothing new
+		private final AtomicIntegerArray tickets = new AtomicIntegerArray(new int[] {NONE, NONE});
+
+		PendingTickets(String ip, int port)
+		{
+			this.ip = ip;
+			this.port = port;
+		}
+	}
+
+	//ticket updates come in very often near the end of a game, so only the latest counts are kept and they are applied every ticketUpdateInterval
+	private long ticketUpdateInterval;
+	private Map<String, PendingTickets> pendingTickets;
+	private AtomicBoolean ticketFlushScheduled;
+	private ScheduledExecutorService ticketExecutor;
 
 	GatherObject(GatherObjectConfig config)
 	{
 		queue = new GatherQueueObject();
+		endGamePipeline = new EndGamePipeline(this, "guild "+config.guildID);
+		ticketUpdateInterval = config.ticketUpdateInterval;
+		pendingTickets = new ConcurrentHashMap<String, PendingTickets>();
+		ticketFlushScheduled = new AtomicBoolean(false);
+		ticketExecutor = Executors.newSingleThreadScheduledExecutor(runnable ->
+		{
+			Thread thread = new Thread(runnable, "Tickets guild "+config.guildID);
+			thread.setDaemon(true);
+			return thread;
+		});
 		servers = new HashMap<String, GatherServer>();
-		runningGames = new ArrayList<GatherGame>();
+		runningGames = new CopyOnWriteArrayList<GatherGame>();
+		gamesById = new ConcurrentHashMap<Integer, GatherGame>();
+		gamesByServer = new ConcurrentHashMap<String, GatherGame>();
+		gamesByPlayer = new ConcurrentHashMap<Snowflake, GatherGame>();
 		substitutions = new SubManager(this);
+		teamRoles = new TeamRolePool(this);
 		this.setDiscordObjects(config);
 		this.initialiseServers(config);
 	}
@@ -344,26 +403,31 @@ public class GatherObject
 	 */
 	public int addToQueue(PlayerObject player)
 	{
-		if(isInGame(player))
+		GatherQueueObject.AddResult result;
+		//checked while holding the start lock, so a game that is starting can't be missed between taking its players out of the queue and indexing it
+		synchronized(startLock)
 		{
-			return 3;
-		}
-		if(queue.add(player))
-		{
-			updateChannelCaption();
-			DiscordBot.addRole(player.getDiscordUserInfo(), getQueueRole());
-			if(isQueueFull())
+			if(isInGame(player))
 			{
-				return 2;
+				return 3;
 			}
-			return 1;
+			result = queue.tryAdd(player);
 		}
-		if(isQueueFull())
+		switch(result)
 		{
-			return 4;
+			case ADDED:
+				updateChannelCaption();
+				this.giveQueueRole(player);
+				return 1;
+			case ADDED_NOW_FULL:
+				updateChannelCaption();
+				this.giveQueueRole(player);
+				return 2;
+			case QUEUE_FULL:
+				return 4;
+			default:
+				return 0;
 		}
-		return 0;
-
 	}
 
 	/**Wrapper function for adding a player to the queue by Discord user. 
@@ -388,7 +452,7 @@ public class GatherObject
 		if(queue.remove(player))
 		{
 			updateChannelCaption();
-			DiscordBot.removeRole(player.getDiscordUserInfo(), getQueueRole());
+			this.takeQueueRole(player);
 			return 1;
 		}
 		else
@@ -397,13 +461,13 @@ public class GatherObject
 		}
 	}
 	
+	/**Finds a player in the queue by their discord user. 
+	 * @param user the user to look for
+	 * @return the players PlayerObject, or null if they are not in the queue
+	 */
 	public PlayerObject checkInQueue(User user)
 	{
-		for(PlayerObject p : queue.asList())
-		{
-			if(user.getId().equals(p.getDiscordid())) return p;
-		}
-		return null;
+		return queue.get(user.getId());
 	}
 
 	/**Searches the queue for a player with a matching discord id, then removes that player object if the player is found
@@ -427,11 +491,7 @@ public class GatherObject
 	public GatherGame getPlayersGame(PlayerObject player)
 	{
 		if(player==null) return null;
-		for(GatherGame game : runningGames)
-		{
-			if(game.isPlayerPlaying(player)) return game;
-		}
-		return null;
+		return gamesByPlayer.get(player.getDiscordid());
 	}
 
 	/**Wrapper for getting a players game from user object
@@ -441,7 +501,8 @@ public class GatherObject
 	 */
 	public GatherGame getPlayersGame(User user)
 	{
-		return getPlayersGame(DiscordBot.players.getIfExists(user));
+		if(user==null) return null;
+		return gamesByPlayer.get(user.getId());
 	}
 
 	/**Wrapper of getPlayersGame() that returns true if they are found, or false otherwise
@@ -520,9 +581,10 @@ public class GatherObject
 			DiscordBot.sendMessage(getCommandChannel(), "__**Blue**__: "+game.blueMentionList().toString());
 			DiscordBot.sendMessage(getCommandChannel(), "__**Red**__:  "+game.redMentionList().toString());
 			LOGGER.info("Teams shuffled: "+game.getBlueKagNames().toString()+game.getRedKagNames().toString());
-			this.sortTeamRoomsAfterShuffle(game);
-			this.removePlayerTeamRoles(game);
-			this.addPlayersToTeamRoles(game);
+			//the voice moves and role changes don't depend on each other, so send them all at once, only players that changed team have their roles changed
+			DiscordBot.runAsync(Mono.when(
+					this.movePlayersIntoTeamRoomsAsync(game),
+					teamRoles.assignMembers(game)), "sorting players after shuffle for game #"+game.getGameID());
 			return;
 		case -1:
 			DiscordBot.sendMessage(getCommandChannel(), "You have already voted to scramble the teams "+player.getDiscordUserInfo().getDisplayName()+"("+game.getNumScrambleVotes()+"/"+game.getScrambleVotesReq()+")");
@@ -534,26 +596,39 @@ public class GatherObject
 	/**Function for doing everything needed to start a gather game. 
 	 * <p>
 	 * This first gets a free server and sets it in use, then creates a gather game with the current queue and shuffles the teams, then adds the game to the list of running games, 
-	 * then sends appropriate messages to discord and the KAG server, then clears the queue and moves players into their team rooms
-	 * TODO: make this function not block for 5 seconds while the blocking movePlayersIntoTeamRooms(5) is called
+	 * then sends appropriate messages to discord and the KAG server, then clears the queue and moves players into their team rooms. 
+	 * The move countdown is scheduled on the {@link EndGamePipeline} thread, so this returns without waiting for the players to be moved. 
 	 */
 	public int startGame()
 	{
-		String serverId = this.getFreeServer();
-		GatherServer server = this.getServer(serverId);
-		if(server == null)
-		{
-			DiscordBot.sendMessage(getCommandChannel(), "There are currently **no servers** to play on! A game will be **started when** a server becomes **available**!");
-			return -1;
+		String serverId;
+		GatherServer server;
+		GatherGame game;
+		List<PlayerObject> list;
+		//games can be started from commands, the end game pipeline and the rcon listeners at the same time
+		//holding the lock until the game is indexed means the players are always either in the queue or in a game, so nobody can add again in between
+		synchronized(startLock)
+		{
+			serverId = this.getFreeServer();
+			server = this.getServer(serverId);
+			if(server == null)
+			{
+				DiscordBot.sendMessage(getCommandChannel(), "There are currently **no servers** to play on! A game will be **started when** a server becomes **available**!");
+				return -1;
+			}
+			//setup the game, taking the players out of the queue in one go so nobody can add or remove part way through
+			list = queue.clearIfFull();
+			if(list == null)
+			{
+				//someone removed since the queue filled up, or another game already took these players
+				return 0;
+			}
+			server.setInUse(true);
+			game = new GatherGame(DiscordBot.database.reserveGameId(), list, null, null, server, null, null);
+			game.shuffleTeams();
+			this.addRunningGame(game);
 		}
-		//setup the game
-		List<PlayerObject> list = queue.asList();
-		server.setInUse(true);
-		GatherGame game = new GatherGame(DiscordBot.database.reserveGameId(), list, null, null, server, null, null);
-		game.shuffleTeams();
-		runningGames.add(game);
-		//reset the queue
-		this.clearQueue();
+		this.removeQueueRoles(list);
 
 		//announce the game
 		//do the team messages in separate lines so that it highlights the players team
@@ -563,28 +638,29 @@ public class GatherObject
 		String passwordString = "";
 		if(server.getServerPassword()!=null && !server.getServerPassword().isEmpty()) passwordString = " with password "+server.getServerPassword();
 		DiscordBot.sendMessage(getCommandChannel(), "Gather game #"+game.getGameID()+" starting on "+server.getServerName()+passwordString, true);
-		if(server.getServerLink()!=null && server.getServerLink()!="") DiscordBot.sendMessage(getCommandChannel(), serverIdString + server.getServerLink());
-		DiscordBot.sendMessage(getCommandChannel(), "__**Blue**__: "+game.blueMentionList().toString());
-		DiscordBot.sendMessage(getCommandChannel(), "__**Red**__:  "+game.redMentionList().toString());
+		//these get merged into one message by the message scheduler
+		if(server.getServerLink()!=null && server.getServerLink()!="") DiscordBot.queueMessage(getCommandChannel(), serverIdString + server.getServerLink());
+		DiscordBot.queueMessage(getCommandChannel(), "__**Blue**__: "+game.blueMentionList().toString());
+		DiscordBot.queueMessage(getCommandChannel(), "__**Red**__:  "+game.redMentionList().toString());
 		LOGGER.info("Game started: "+game.getBlueKagNames().toString()+game.getRedKagNames().toString());
-		game.sendTeamsToServer();
-		//create the team roles
-		this.generateAndSetTeamRoles(game);
-		//put the players into the team roles
-		this.addPlayersToTeamRoles(game);
-		//do voice channel stuff
-		this.movePlayersIntoTeamRooms(game, 5);
-		//send private messages last so they dont cause other things to be rate limited
-		List<PlayerObject> blue = game.getBluePlayerList();
-		List<PlayerObject> red = game.getRedPlayerList();
-		for(PlayerObject p : blue)
-		{
-			DiscordBot.sendMessage(DiscordBot.getPMChannel(p.getDiscordUserInfo()), "Gather game #"+game.getGameID()+" is starting and you are on the **Blue** team");
-		}
-		for(PlayerObject p : red)
+		if(!game.sendTeamsToServer())
 		{
-			DiscordBot.sendMessage(DiscordBot.getPMChannel(p.getDiscordUserInfo()), "Gather game #"+game.getGameID()+" is starting and you are on the **Red** team");
+			DiscordBot.sendMessage(getCommandChannel(), "Could not send the teams for game #"+game.getGameID()+" to the server, an admin can try again with the refreshservers command");
 		}
+		//get the team roles, this only blocks if there wasn't a free pair and they need to be created
+		teamRoles.acquire(game);
+		//put the players into the team roles in the background while the countdown is going
+		DiscordBot.runAsync(teamRoles.assignMembers(game), "adding team roles for game #"+game.getGameID());
+		//send private messages last so they dont cause other things to be rate limited
+		Flux<Message> privateMessages = Flux.merge(
+				Flux.fromIterable(game.getBluePlayerList()).flatMap(p -> DiscordBot.logErrors(DiscordBot.sendPrivateMessageAsync(p.getDiscordUserInfo(), "Gather game #"+game.getGameID()+" is starting and you are on the **Blue** team"), "private message to "+p.getKagName())),
+				Flux.fromIterable(game.getRedPlayerList()).flatMap(p -> DiscordBot.logErrors(DiscordBot.sendPrivateMessageAsync(p.getDiscordUserInfo(), "Gather game #"+game.getGameID()+" is starting and you are on the **Red** team"), "private message to "+p.getKagName())));
+		//do voice channel stuff, then the private messages once the players have been moved
+		this.movePlayersIntoTeamRooms(game, 5).whenComplete((ignored, e) ->
+		{
+			if(e != null) LOGGER.error("Error moving players into the team rooms for game #"+game.getGameID(), e);
+			DiscordBot.runAsync(privateMessages.then(), "private messages for game #"+game.getGameID());
+		});
 		return 0;
 	}
 
@@ -596,14 +672,7 @@ public class GatherObject
 	 */
 	public GatherGame getRunningGame(String serverIp, int serverPort)
 	{
-		for(GatherGame game : runningGames)
-		{
-			if(game.getServerIp().equals(serverIp) && game.getServerPort() == serverPort)
-			{
-				return game;
-			}
-		}
-		return null;
+		return gamesByServer.get(serverKey(serverIp, serverPort));
 	}
 
 	/**Get a gather game object using the id of the game. 
@@ -613,14 +682,44 @@ public class GatherObject
 	 */
 	public GatherGame getRunningGame(int id)
 	{
-		for(GatherGame game : runningGames)
+		return gamesById.get(id);
+	}
+
+	/**Helper for making the key of a server in the running games index. 
+	 * @param serverIp the ip address of the server
+	 * @param serverPort the port of the server
+	 * @return the key for the server
+	 */
+	private static String serverKey(String serverIp, int serverPort)
+	{
+		return serverIp+":"+serverPort;
+	}
+
+	/**Adds a game to the list of running games and to the indexes used to find it by id, server and player. 
+	 * @param game the game that has started
+	 */
+	private void addRunningGame(GatherGame game)
+	{
+		runningGames.add(game);
+		gamesById.put(game.getGameID(), game);
+		if(game.getServer() != null) gamesByServer.put(serverKey(game.getServerIp(), game.getServerPort()), game);
+		for(PlayerObject player : game.getPlayerList())
 		{
-			if(game.getGameID() == id)
-			{
-				return game;
-			}
+			gamesByPlayer.put(player.getDiscordid(), game);
 		}
-		return null;
+	}
+
+	/**Replaces one player in a running game with another, keeping the player index up to date. 
+	 * @param game the game the player is being replaced in
+	 * @param playerBeingReplaced the player that is being removed
+	 * @param player the player that is taking their place
+	 * @see GatherGame#replacePlayer(PlayerObject, PlayerObject)
+	 */
+	public void replacePlayer(GatherGame game, PlayerObject playerBeingReplaced, PlayerObject player)
+	{
+		game.replacePlayer(playerBeingReplaced, player);
+		gamesByPlayer.remove(playerBeingReplaced.getDiscordid(), game);
+		if(game.isPlayerPlaying(player)) gamesByPlayer.put(player.getDiscordid(), game);
 	}
 
 	/**Returns an unmodifiable version of the running games list. 
@@ -653,22 +752,58 @@ public class GatherObject
 			server.setInUse(false);
 		}
 		runningGames.remove(game);
+		gamesById.remove(game.getGameID(), game);
+		if(server != null) gamesByServer.remove(serverKey(game.getServerIp(), game.getServerPort()), game);
+		gamesByPlayer.values().removeIf(g -> g == game);
 		substitutions.clearGame(game);
 		
-		//remove the team role from the players
-		this.removePlayerTeamRoles(game);
-		this.deleteTeamRoles(game);
+		//remove the team role from the players and free the roles for the next game, nothing needs to wait for this so it is done in the background
+		DiscordBot.runAsync(teamRoles.release(game), "clearing team roles for game #"+game.getGameID());
 	}
 
 	/**Helper function for doing all the things necessary at the end of a game. 
+	 * <p>
+	 * Only marks the game as ended here, the rest is queued on the {@link EndGamePipeline} so that the caller (e.g. the rcon listener) isn't held up by the database and discord. 
 	 * @param game the GatherGame object that represents the game that has ended
 	 * @param winningTeam the team that won the game, 0 for blue, 1 for red
-	 * @return returns true
+	 * @return returns false if the game had already ended, true otherwise
+	 * @see EndGamePipeline
 	 */
 	public boolean endGame(GatherGame game, int winningTeam)
 	{
-		//set the game state as ended
-		game.setStateEnded();
+		synchronized(game)
+		{
+			//stops the result being counted twice if the game is ended again before the pipeline has removed it
+			if(game.getCurrState() == GatherGame.gameState.ENDED) return false;
+			//set the game state as ended
+			game.setStateEnded();
+		}
+		endGamePipeline.submit(game, winningTeam);
+		return true;
+	}
+
+	/**First stage of ending a game, stores the stats in the database. 
+	 * @param game the game that has ended
+	 * @param winningTeam the team that won the game
+	 * @see #endGame(GatherGame, int)
+	 */
+	void persistGameResult(GatherGame game, int winningTeam)
+	{
+		if(winningTeam>=-1 && winningTeam<=1)
+		{
+			//store stats in database
+			game.setWinningTeam(winningTeam);
+			game.saveResultToDB(this.substitutions);
+		}
+	}
+
+	/**Second stage of ending a game, prints the result to the score report, updates the scoreboard and tells everyone the game is over. 
+	 * @param game the game that has ended
+	 * @param winningTeam the team that won the game
+	 * @see #endGame(GatherGame, int)
+	 */
+	void reportGameResult(GatherGame game, int winningTeam)
+	{
 		if(winningTeam>=-1 && winningTeam<=1)
 		{
 			//print to score report
@@ -680,36 +815,48 @@ public class GatherObject
 			if(winningTeam==1) temp2 += " +1";
 			else if (winningTeam==0) temp2 += " -1";
 			else temp2 += " 0";
+			//sent separately rather than queued, so each team stays its own message in the score report
 			DiscordBot.sendMessage(getScoreReportChannel(), temp1);
 			DiscordBot.sendMessage(getScoreReportChannel(), temp2);
-			//store stats in database
-			game.setWinningTeam(winningTeam);
-			game.saveResultToDB(this.substitutions);
 			this.updateScoreboard();
 		}
 		//tell everyone
-		DiscordBot.sendMessage(getCommandChannel(), "Game #"+game.getGameID()+" has ended, "+teamString(winningTeam));
+		DiscordBot.queueMessage(getCommandChannel(), "Game #"+game.getGameID()+" has ended, "+teamString(winningTeam));
+	}
+
+	/**Third stage of ending a game, removes the game from the running games, clears the team roles and moves the players out of the team rooms. 
+	 * @param game the game that has ended
+	 * @return a future that completes once the players have been moved and the channels have had time to settle
+	 * @see #endGame(GatherGame, int)
+	 */
+	CompletableFuture<Void> cleanupEndedGame(GatherGame game)
+	{
 		//remove game object from list
-		if(game.getServer() == null)
+		synchronized(this)
 		{
-			//THIS IS A WORKAROUND FOR WHEN WE HAVE NO SERVER LIST AND THERE IS ONLY 1 GAME AT A TIME
-			//TODO: fix this? I don't remember why this is done.
-			LOGGER.warn("Server is null when giving win, clearing running games (if there is more than 1 running game this is a problem)");
-			clearGames();
-		}
-		else
-		{
-			setGameEnded(game);
-		}
-		//do voice channel stuff
-		movePlayersOutOfTeamRooms(game, 5);
-		//check if there is enough people in queue to start another game (after waiting for the channels to settle)
-		try {
-			Thread.sleep(1000);
-		} catch (InterruptedException e) {
+			if(game.getServer() == null)
+			{
+				//THIS IS A WORKAROUND FOR WHEN WE HAVE NO SERVER LIST AND THERE IS ONLY 1 GAME AT A TIME
+				//TODO: fix this? I don't remember why this is done.
+				LOGGER.warn("Server is null when giving win, clearing running games (if there is more than 1 running game this is a problem)");
+				clearGames();
+			}
+			else
+			{
+				setGameEnded(game);
+			}
 		}
+		//do voice channel stuff, then wait for the channels to settle before the next game can start
+		return movePlayersOutOfTeamRooms(game, 5).thenCompose(ignored -> endGamePipeline.schedule(() -> {}, 1000));
+	}
+
+	/**Last stage of ending a game, checks if there is enough people in queue to start another game. 
+	 * @see #endGame(GatherGame, int)
+	 */
+	void startNextGame()
+	{
+		//startGame only takes the players if the queue is still full, so this is safe while people are adding and removing
 		if(this.isQueueFull()) this.startGame();
-		return true;
 	}
 
 	/**Wrapper function for ending a game using the server information. 
@@ -750,12 +897,7 @@ public class GatherObject
 			LOGGER.warn("Scoreboard not set!");
 			return;
 		}
-		List<StatsObject> list = DiscordBot.database.getTopPlayers(30);
-		if(list == null)
-		{
-			LOGGER.warn("Failed to get scoreboard data from the database!");
-			return;
-		}
+		List<StatsObject> list = DiscordBot.leaderboard.getTopPlayers(30);
 		String scoreboardString="```md\n" + "# Scoreboard #" + "\n``````diff\n++|      KAG name      |Games|  Win % | Score\n";
 		int i=0;
 		for(StatsObject stats : list)
@@ -789,9 +931,9 @@ public class GatherObject
 			else if(stats.getMmrInteger()<1000) scoreboardString += " ";
 			scoreboardString += stats.getMmrInteger()+"\n";
 		}
-		scoreboardString+="\n           Total games played: " +DiscordBot.database.getGamesPlayed("+numgames+")+ "```";
+		scoreboardString+="\n           Total games played: " +DiscordBot.leaderboard.getTotalGames()+ "```";
 		if(scoreboardString.length()>2000) LOGGER.warn("SCOREBOARD IS TOO LARGE: "+scoreboardString.length());
-		DiscordBot.editMessage(this.getScoreboardMessage(), scoreboardString);
+		DiscordBot.runAsync(DiscordBot.editMessageAsync(this.getScoreboardMessage(), scoreboardString), "scoreboard edit");
 	}
 
 	/**Gets a server from the server list that is not in use. Returns the server id. 
@@ -800,17 +942,29 @@ public class GatherObject
 	public String getFreeServer()
 	{
 		// TODO make some kind of server priority? in case of high/low ping servers?
-		// TODO only get servers that the bot is currently connected to (will then also need to check if the queue is full on server (re)connect) (probably want to implement better heartbeat/reconnect system before this)
-		// not important now as there should only be 1 server anyway
+		// servers that aren't connected are skipped, serverConnectionChanged starts the game if one comes back while the queue is full
 		for(Entry<String, GatherServer> entry : servers.entrySet())
 		{
-			if (!entry.getValue().isInUse()) {
+			if (!entry.getValue().isInUse() && entry.getValue().isConnected()) {
 				return entry.getKey();
 			}
 		}
 		return null;
 	}
 
+	/**Function called when the connection to one of the gather KAG servers goes up or down. 
+	 * If a server has come back and the queue is full, the game that was waiting for a server is started. 
+	 * The game is started on the {@link EndGamePipeline} thread, as starting a game blocks for the countdown and this is called from the rcon listener. 
+	 * @param ip the ip address of the server
+	 * @param port the port of the server
+	 * @param connected true if the server has connected, false if the connection was lost
+	 */
+	public void serverConnectionChanged(String ip, int port, boolean connected)
+	{
+		LOGGER.info("Gather KAG server "+ip+":"+port+(connected ? " connected" : " disconnected"));
+		if(connected && this.isQueueFull()) endGamePipeline.schedule(this::startNextGame, 0);
+	}
+
 	/**Gets the GatherServer object for the requested server. 
 	 * @param ip the ip address of the server to find
 	 * @param port the port of the server to find
@@ -830,12 +984,14 @@ public class GatherObject
 	}
 
 	/**Gets the GatherServer object for the requested server. Loops through the list of servers and compares the given string with the server id case insensitively.
-	 * @param the server id to look for
+	 * @param the server id to look for, can be null
 	 * @return the GatherServer object if it was found, null otherwise
 	 * @see #GatherServer
 	 */
 	public GatherServer getServer(String serverId)
 	{
+		//getFreeServer returns null when every server is in use or disconnected
+		if(serverId == null) return null;
 		return this.servers.get(serverId.toUpperCase());
 		/*if(serverId == null) return null;
 		for(GatherServer server : servers.values())
@@ -1075,32 +1231,76 @@ public class GatherObject
 	}
 
 	/**Helper function for removing all players in the queue role from that role. Used when the bot connects in case they the queue was not removed before the bot left. 
+	 * <p>
+	 * Only the members the bot recorded giving the role to are changed, a few at a time. 
+	 * If there is no record yet (i.e. the first start since records were kept) every member of the guild is checked instead.
+	 * @see RoleHolderRecord
 	 */
 	public void clearQueueRole()
 	{
-		this.guild.getMembers().subscribe(member -> 
-		{
-			for(Snowflake id : member.getRoleIds())
-			{
-				if (id.equals(this.getQueueRole().getId()))
-				{
-					DiscordBot.removeRole(member, getQueueRole());
-				}
-			}
-		});
+		Role role = this.getQueueRole();
+		if(!DiscordBot.queueRoleHolders.isLoaded())
+		{
+			LOGGER.info("No queue role record, checking every member for the queue role");
+			//start the record before the scan, so players that add while it is running are kept in it and the next startup doesn't need to scan again
+			DiscordBot.queueRoleHolders.clear(role.getId());
+			this.guild.getMembers()
+					.filter(member -> member.getRoleIds().contains(role.getId()) && queue.get(member.getId()) == null)
+					.flatMap(member -> DiscordBot.logErrors(DiscordBot.removeRoleAsync(member, role), "removing queue role from "+member.getUsername()), CLEAR_ROLE_CONCURRENCY)
+					.subscribe();
+			return;
+		}
+		Set<Snowflake> holders = DiscordBot.queueRoleHolders.getHolders(role.getId());
+		LOGGER.info("Removing the queue role from "+holders.size()+" members");
+		Flux.fromIterable(holders)
+				//anyone that has added since the bot started keeps the role
+				.filter(memberId -> queue.get(memberId) == null)
+				.flatMap(memberId -> DiscordBot.logErrors(this.guild.getMemberById(memberId)
+						.filter(member -> member.getRoleIds().contains(role.getId()))
+						.flatMap(member -> DiscordBot.removeRoleAsync(member, role)), "removing queue role from "+memberId.asString())
+						//forget them even if it failed (e.g. they left the guild), so they aren't tried every startup
+						.doFinally(signal -> DiscordBot.queueRoleHolders.removed(role.getId(), memberId)), CLEAR_ROLE_CONCURRENCY)
+				.subscribe();
 	}
 
 	/**Function for removing all players from the queue e.g. when a game starts. 
 	 */
 	public void clearQueue()
 	{
-		for(PlayerObject player : queue)
+		this.removeQueueRoles(queue.clear());
+	}
+
+	/**Helper function for removing the queue role from players that have been taken out of the queue, then updating the channel caption. 
+	 * @param players the players that were removed from the queue
+	 */
+	private void removeQueueRoles(List<PlayerObject> players)
+	{
+		for(PlayerObject player : players)
 		{
-			DiscordBot.removeRole(player.getDiscordUserInfo(), getQueueRole());
+			this.takeQueueRole(player);
 		}
-		queue.clear();
 		updateChannelCaption();
 	}
+
+	/**Gives a player the queue role, recording that they have it so it can be removed at startup if the bot stops before they leave the queue. 
+	 * @param player the player that added
+	 * @see RoleHolderRecord
+	 */
+	private void giveQueueRole(PlayerObject player)
+	{
+		DiscordBot.addRole(player.getDiscordUserInfo(), getQueueRole());
+		//only recorded once the role has been given, addRole throws if it fails
+		DiscordBot.queueRoleHolders.added(getQueueRole().getId(), player.getDiscordid());
+	}
+
+	/**Takes the queue role from a player, and removes them from the record of players that have it. 
+	 * @param player the player that was removed from the queue
+	 */
+	private void takeQueueRole(PlayerObject player)
+	{
+		DiscordBot.removeRole(player.getDiscordUserInfo(), getQueueRole());
+		DiscordBot.queueRoleHolders.removed(getQueueRole().getId(), player.getDiscordid());
+	}
 	
 	/**Helper function for setting a player as interested. This means that they get the soft queue role. 
 	 * @param user
@@ -1149,106 +1349,161 @@ public class GatherObject
 	}
 
 	/**Helper function for moving all players out of the general voice channel into their team channels. 
+	 * Blocks until every move has been done. 
+	 * @see #movePlayersIntoTeamRoomsAsync(GatherGame)
 	 */
 	public void movePlayersIntoTeamRooms(GatherGame game)
+	{
+		movePlayersIntoTeamRoomsAsync(game).block();
+	}
+
+	/**Async version of {@link #movePlayersIntoTeamRooms(GatherGame)}, the moves are sent a few at a time with {@link DiscordBot#runBatch(Iterable, java.util.function.Function, String)}. 
+	 * @return a Mono that completes once every player has been moved
+	 */
+	public Mono<Void> movePlayersIntoTeamRoomsAsync(GatherGame game)
 	{
 		VoiceChannel general = this.getGeneralVoiceChannel();
 		VoiceChannel blue = this.getBlueVoiceChannel();
 		VoiceChannel red = this.getRedVoiceChannel();
 
-		for( PlayerObject p : game.getBluePlayerList())
+		return Mono.when(
+				moveTeamAsync(game.getBluePlayerList(), blue, general, red),
+				moveTeamAsync(game.getRedPlayerList(), red, general, blue));
+	}
+
+	/**Helper function for moving a list of players into a voice channel, if they are currently in one of the other listed channels. 
+	 * <p>
+	 * Which channel each player is in comes from the {@link VoiceStateCache}, so only the players that need moving have anything sent for them. 
+	 * If the cache hasn't been filled for this guild yet, each player's voice state is looked up instead. 
+	 * @param players the players to move
+	 * @param target the channel to move them to
+	 * @param from the channels that players can be moved out of, players in any other channel are left where they are
+	 * @return a Mono that completes once every player has been moved
+	 */
+	private Mono<Void> moveTeamAsync(List<PlayerObject> players, VoiceChannel target, VoiceChannel... from)
+	{
+		VoiceStateCache voiceStates = DiscordBot.voiceStates;
+		if(!voiceStates.isKnown(this.getGuild().getId()))
 		{
-			Member member = p.getDiscordUserInfo();
-			VoiceState voiceState = member.getVoiceState().block();
-			if(voiceState != null && voiceState.getChannelId().isPresent() && (general.getId().equals(voiceState.getChannelId().get()) || red.getId().equals(voiceState.getChannelId().get())))
+			return DiscordBot.runBatch(players, player ->
 			{
-				DiscordBot.moveToVoiceChannel(member, blue);
-			}
-		}
-		for( PlayerObject p : game.getRedPlayerList())
+				Member member = player.getDiscordUserInfo();
+				return member.getVoiceState()
+						.map(voiceState -> voiceState.getChannelId().isPresent() && isAnyChannel(voiceState.getChannelId().get(), from))
+						.defaultIfEmpty(false)
+						.flatMap(move ->
+						{
+							if(!move)
+							{
+								voiceStates.moveSkipped();
+								return Mono.empty();
+							}
+							voiceStates.moveIssued();
+							return DiscordBot.moveToVoiceChannelAsync(member, target);
+						});
+			}, "moving players to "+target.getName());
+		}
+		List<Member> toMove = new ArrayList<Member>();
+		for(PlayerObject player : players)
 		{
-			Member member = p.getDiscordUserInfo();
-			VoiceState voiceState = member.getVoiceState().block();
-			if(voiceState != null && voiceState.getChannelId().isPresent() && (general.getId().equals(voiceState.getChannelId().get()) || blue.getId().equals(voiceState.getChannelId().get())))
+			Snowflake channelId = voiceStates.getChannelId(this.getGuild().getId(), player.getDiscordid());
+			if(channelId != null && isAnyChannel(channelId, from))
+			{
+				toMove.add(player.getDiscordUserInfo());
+				voiceStates.moveIssued();
+			}
+			else
 			{
-				DiscordBot.moveToVoiceChannel(member, red);
+				voiceStates.moveSkipped();
 			}
 		}
+		return DiscordBot.runBatch(toMove, member -> DiscordBot.moveToVoiceChannelAsync(member, target), "moving players to "+target.getName());
 	}
 
-	/**Wrapper function for moving all players out of the general voice channel into their team channels. 
+	/**Helper function for checking if a channel id matches one of the channels. 
+	 * @param channelId the id of the channel
+	 * @param channels the channels to check against
+	 * @return true if the id matches any of the channels
+	 */
+	private boolean isAnyChannel(Snowflake channelId, VoiceChannel... channels)
+	{
+		for(VoiceChannel channel : channels)
+		{
+			if(channel.getId().equals(channelId)) return true;
+		}
+		return false;
+	}
+
+	/**Wrapper function for moving all players out of the general voice channel into their team channels after a countdown. 
+	 * The countdown is scheduled on the {@link EndGamePipeline} thread rather than sleeping. 
 	 * @param delay the number of seconds to delay for before moving
+	 * @return a future that completes once the players have been moved
 	 * @see #movePlayersIntoTeamRooms()
 	 */
-	public void movePlayersIntoTeamRooms(GatherGame game, int delay)
+	public CompletableFuture<Void> movePlayersIntoTeamRooms(GatherGame game, int delay)
 	{
 		String countString = "Moving channels in ";
 		Message countMsg = DiscordBot.sendMessage(this.getCommandChannel(), countString+delay);
 
-		try {
-			Thread.sleep(1000);
-			for(int i=delay-1;i>0;i--)
-			{
-				DiscordBot.editMessage(countMsg,countString+"**"+i+"**");
-				Thread.sleep(1000);
-			}
-		} catch (InterruptedException e) {
-			e.printStackTrace();
+		CompletableFuture<Void> countdown = CompletableFuture.completedFuture(null);
+		for(int i=delay-1;i>0;i--)
+		{
+			final int count = i;
+			countdown = countdown.thenCompose(ignored -> endGamePipeline.schedule(() -> DiscordBot.runAsync(DiscordBot.editMessageAsync(countMsg, countString+"**"+count+"**"), "countdown edit"), 1000));
 		}
-		movePlayersIntoTeamRooms(game);
-		DiscordBot.deleteMessage(countMsg);
+		return countdown.thenCompose(ignored -> endGamePipeline.schedule(() -> {}, 1000))
+				.thenCompose(ignored -> movePlayersIntoTeamRoomsAsync(game).toFuture())
+				.whenComplete((ignored, e) -> DiscordBot.runAsync(DiscordBot.deleteMessageAsync(countMsg), "deleting countdown message"));
 	}
 
 	/**Helper function for moving all players out of their team channels into the general voice channel. 
+	 * Blocks until every move has been done. 
+	 * @see #movePlayersOutOfTeamRoomsAsync(GatherGame)
 	 */
 	public void movePlayersOutOfTeamRooms(GatherGame game)
+	{
+		movePlayersOutOfTeamRoomsAsync(game).block();
+	}
+
+	/**Async version of {@link #movePlayersOutOfTeamRooms(GatherGame)}, the moves are sent a few at a time with {@link DiscordBot#runBatch(Iterable, java.util.function.Function, String)}. 
+	 * @return a Mono that completes once every player has been moved
+	 */
+	public Mono<Void> movePlayersOutOfTeamRoomsAsync(GatherGame game)
 	{
 		VoiceChannel general = this.getGeneralVoiceChannel();
 		VoiceChannel blue = this.getBlueVoiceChannel();
 		VoiceChannel red = this.getRedVoiceChannel();
 
-		for( PlayerObject p : game.getBluePlayerList())
-		{
-			Member member = p.getDiscordUserInfo();
-			VoiceState voiceState = member.getVoiceState().block();
-			if(voiceState != null && voiceState.getChannelId().isPresent() && (blue.getId().equals(voiceState.getChannelId().get()) || red.getId().equals(voiceState.getChannelId().get())))
-			{
-				DiscordBot.moveToVoiceChannel(member, general);
-			}
-		}
-		for( PlayerObject p : game.getRedPlayerList())
-		{
-			Member member = p.getDiscordUserInfo();
-			VoiceState voiceState = member.getVoiceState().block();
-			if(voiceState != null && voiceState.getChannelId().isPresent() && (blue.getId().equals(voiceState.getChannelId().get()) || red.getId().equals(voiceState.getChannelId().get())))
-			{
-				DiscordBot.moveToVoiceChannel(member, general);
-			}
-		}
-
+		return moveTeamAsync(game.getPlayerList(), general, blue, red);
 	}
 
-	/**Wrapper function for moving all players out of their team voice channel into the general voice channel. 
+	/**Wrapper function for moving all players out of their team voice channel into the general voice channel after a countdown. 
+	 * The countdown is scheduled on the {@link EndGamePipeline} thread rather than sleeping. 
 	 * @param delay the number of seconds to delay for before moving
-	 * @see #movePlayersIntoTeamRooms()
+	 * @return a future that completes once the players have been moved
+	 * @see #movePlayersOutOfTeamRooms()
 	 */
-	public void movePlayersOutOfTeamRooms(GatherGame game, int delay)
+	public CompletableFuture<Void> movePlayersOutOfTeamRooms(GatherGame game, int delay)
 	{
 		String countString = "Moving channels in ";
 		Message countMsg = DiscordBot.sendMessage(this.getCommandChannel(), countString+delay);
 
-		try {
-			Thread.sleep(1000);
-			for(int i=delay-1;i>0;i--)
-			{
-				DiscordBot.editMessage(countMsg, countString+i);
-				Thread.sleep(1000);
-			}
-		} catch (InterruptedException e) {
-			e.printStackTrace();
+		CompletableFuture<Void> countdown = CompletableFuture.completedFuture(null);
+		for(int i=delay-1;i>0;i--)
+		{
+			final int count = i;
+			countdown = countdown.thenCompose(ignored -> endGamePipeline.schedule(() -> DiscordBot.runAsync(DiscordBot.editMessageAsync(countMsg, countString+count), "countdown edit"), 1000));
 		}
-		movePlayersOutOfTeamRooms(game);
-		DiscordBot.deleteMessage(countMsg);
+		return countdown.thenCompose(ignored -> endGamePipeline.schedule(() -> DiscordBot.runAsync(DiscordBot.deleteMessageAsync(countMsg), "deleting countdown message"), 1000))
+				.thenCompose(ignored -> movePlayersOutOfTeamRoomsAsync(game).toFuture());
+	}
+
+	/**Getter for the pipeline that runs the stages of ending a game. 
+	 * @return the EndGamePipeline for this gather object
+	 */
+	public EndGamePipeline getEndGamePipeline()
+	{
+		return endGamePipeline;
 	}
 
 	/**Helper function for sending players to the correct voice channel after the teams have been shuffled
@@ -1259,59 +1514,12 @@ public class GatherObject
 		this.movePlayersIntoTeamRooms(game);
 	}
 
-	private void generateAndSetTeamRoles(GatherGame game) {
-		//check there isnt already roles that should be deleted
-		this.deleteTeamRoles(game);
-
-		int queueRolePosition = this.getQueueRole().getPosition().block();
-		//create the new roles
-		Role blue = this.getGuild().createRole(roleSpec ->{
-			roleSpec.setName("Blue Team #"+game.getGameID());
-			roleSpec.setHoist(true);
-			roleSpec.setMentionable(true);
-		}).doOnSuccess(role -> role.changePosition(queueRolePosition+1)).block();
-		Role red = this.getGuild().createRole(roleSpec ->{
-			roleSpec.setName("Red Team #"+game.getGameID());
-			roleSpec.setHoist(true);
-			roleSpec.setMentionable(true);
-		}).doOnSuccess(role -> role.changePosition(queueRolePosition+2)).block();
-		blue.changePosition(queueRolePosition+1);
-		red.changePosition(queueRolePosition+2);
-		
-		//set the roles on the game object
-		game.setBlueRole(blue);
-		game.setRedRole(red);
-	}
-
-	private void addPlayersToTeamRoles(GatherGame game) {
-		List<PlayerObject> players = game.getBluePlayerList();
-		for(PlayerObject player : players)
-		{
-			DiscordBot.addRole(player.getDiscordUserInfo(), game.getBlueRole());
-		}
-		players = game.getRedPlayerList();
-		for(PlayerObject player : players)
-		{
-			DiscordBot.addRole(player.getDiscordUserInfo(), game.getRedRole());
-		}
-	}
-
-	private void removePlayerTeamRoles(GatherGame game) {
-		List<PlayerObject> players = game.getPlayerList();
-		for(PlayerObject player : players)
-		{
-			//DiscordBot.removeRoleIfPresent(player.getDiscordUserInfo(), game.getBlueRole());
-			//DiscordBot.removeRoleIfPresent(player.getDiscordUserInfo(), game.getRedRole());
-			DiscordBot.removeRole(player.getDiscordUserInfo(), game.getBlueRole());
-			DiscordBot.removeRole(player.getDiscordUserInfo(), game.getRedRole());
-		}
-	}
-	
-	private void deleteTeamRoles(GatherGame game) {
-		DiscordBot.deleteRole(game.getBlueRole());
-		game.setBlueRole(null);
-		DiscordBot.deleteRole(game.getRedRole());
-		game.setRedRole(null);
+	/**Getter for the pool of team roles used by this gather's games
+	 * @return the team role pool
+	 */
+	public TeamRolePool getTeamRoles()
+	{
+		return teamRoles;
 	}
 
 	/**Helper function for converting a team number into a team string for win messages
@@ -1371,6 +1579,41 @@ public class GatherObject
 		queue.setMaxQueueSize(size);
 	}
 
+	/**Function called for every ticket count sent from a server. Only keeps the latest count for each team, the counts are applied to the game at most once every ticket update interval. 
+	 * @param ip the ip address of the server this information is coming from
+	 * @param port the port of the server this information is coming from
+	 * @param team the team the tickets should be set for
+	 * @param tickets the number of tickets the team has
+	 * @see #updateTickets(String, int, int, int)
+	 */
+	public void queueTicketUpdate(String ip, int port, int team, int tickets)
+	{
+		if(team!=0 && team!=1) return;
+		PendingTickets pending = pendingTickets.get(serverKey(ip, port));
+		if(pending == null) pending = pendingTickets.computeIfAbsent(serverKey(ip, port), key -> new PendingTickets(ip, port));
+		pending.tickets.set(team, tickets);
+		if(ticketFlushScheduled.compareAndSet(false, true))
+		{
+			ticketExecutor.schedule(this::flushTickets, ticketUpdateInterval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**Applies the latest ticket counts from every server to their games. 
+	 */
+	private void flushTickets()
+	{
+		//cleared first so that an update arriving during the flush schedules another one
+		ticketFlushScheduled.set(false);
+		for(PendingTickets pending : pendingTickets.values())
+		{
+			for(int team=0; team<2; team++)
+			{
+				int tickets = pending.tickets.getAndSet(team, PendingTickets.NONE);
+				if(tickets != PendingTickets.NONE) this.updateTickets(pending.ip, pending.port, team, tickets);
+			}
+		}
+	}
+
 	/**Function called when an updated ticket count is sent from a server. 
 	 * @param ip the ip address of the server this information is coming from
 	 * @param port the port of the server this information is coming from
@@ -20,6 +20,8 @@ public class GatherObjectConfig
 	public long softQueueRoleID = 0L;
 	public long scoreboardMessageID = 0L;
 	public long scoreboardChannelID = 0L;
+	//how often ticket counts from the servers are applied to the games, in milliseconds
+	public long ticketUpdateInterval = 1000L;
 
 	public Set<GatherServer> serverList;
 
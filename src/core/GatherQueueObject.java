@@ -1,100 +1,186 @@
 package core;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+
+import discord4j.core.object.util.Snowflake;
 
 /**
  * Holds a list of players that are currently in the gather queue
+ * <p>
+ * The players are kept in the order they added, indexed by discord id so that finding, adding and removing a player doesn't need to search the whole queue.
+ * All the methods are synchronized, so the size check and the add happen together and only one add can ever fill the queue.
+ * Every add and remove is also recorded in {@link DiscordBot#queuedPlayers}, which is used to filter events for members that aren't queued.
  * @author cameron
  *
  */
-public class GatherQueueObject extends ArrayList<PlayerObject>
+public class GatherQueueObject implements Iterable<PlayerObject>
 {
+	/**The result of trying to add a player to the queue
+	 */
+	public enum AddResult
+	{
+		ADDED, ADDED_NOW_FULL, ALREADY_QUEUED, QUEUE_FULL
+	}
+
 	private int maxQueueSize = 10;
+	//keyed by discord id, in the order the players added
+	private LinkedHashMap<Snowflake, PlayerObject> players = new LinkedHashMap<Snowflake, PlayerObject>();
 	
 	/**
 	 * @return The maximum queue size
 	 */
-	public int getMaxQueueSize() {
+	public synchronized int getMaxQueueSize() {
 		return maxQueueSize;
 	}
 
 	/**
 	 * @param The new max queue size
 	 */
-	public void setMaxQueueSize(int maxQueueSize) {
+	public synchronized void setMaxQueueSize(int maxQueueSize) {
 		this.maxQueueSize = maxQueueSize;
 	}
 	
-	/** 
+	/**Adds a player to the queue if they aren't already in it and there is space. 
 	 * @param player - The player to add to the queue
-	 * @return true if player was added to the queue
-	 * @see java.util.Vector#add(java.lang.Object)
+	 * @return {@link AddResult#ADDED_NOW_FULL} if this player filled the queue, this is only returned to one caller for each time the queue fills
 	 */
-	@Override
-	public boolean add(PlayerObject player)
+	public synchronized AddResult tryAdd(PlayerObject player)
 	{
-		int index = this.indexOf(player);
-		if(index==-1 && this.size()<getMaxQueueSize())
+		if(players.containsKey(player.getDiscordid()))
 		{
-			super.add(player);
-			return true;
+			return AddResult.ALREADY_QUEUED;
 		}
-		else
+		if(players.size()>=maxQueueSize)
+		{
+			return AddResult.QUEUE_FULL;
+		}
+		players.put(player.getDiscordid(), player);
+		DiscordBot.queuedPlayers.added(player.getDiscordid().asLong());
+		if(players.size()>=maxQueueSize)
 		{
-			return false;
+			return AddResult.ADDED_NOW_FULL;
 		}
+		return AddResult.ADDED;
+	}
+
+	/** 
+	 * @param player - The player to add to the queue
+	 * @return true if player was added to the queue
+	 * @see #tryAdd(PlayerObject)
+	 */
+	public boolean add(PlayerObject player)
+	{
+		AddResult result = tryAdd(player);
+		return result == AddResult.ADDED || result == AddResult.ADDED_NOW_FULL;
 	}
 	
 	/**
 	 * @param player The player to remove from the queue
 	 * @return true if the player was removed from the queue
-	 * @see java.util.Vector#remove(java.lang.Object)
 	 */
-	@Override
-	public boolean remove(Object player)
+	public synchronized boolean remove(PlayerObject player)
 	{
-		int index = this.indexOf(player);
-		if(index!=-1)
+		if(player == null) return false;
+		if(players.remove(player.getDiscordid(), player))
 		{
-			super.remove(player);
+			DiscordBot.queuedPlayers.removed(player.getDiscordid().asLong());
 			return true;
 		}
-		else
+		//the players discord id might have changed since they added (e.g. relinking), so fall back to looking for the object
+		Iterator<Map.Entry<Snowflake, PlayerObject>> itr = players.entrySet().iterator();
+		while(itr.hasNext())
 		{
-			return false;
+			Map.Entry<Snowflake, PlayerObject> entry = itr.next();
+			if(entry.getValue() == player)
+			{
+				itr.remove();
+				DiscordBot.queuedPlayers.removed(entry.getKey().asLong());
+				return true;
+			}
 		}
+		return false;
+	}
+
+	/**
+	 * @param discordid the discord id of the player to find
+	 * @return the player in the queue with that discord id, or null if they aren't in the queue
+	 */
+	public synchronized PlayerObject get(Snowflake discordid)
+	{
+		return players.get(discordid);
+	}
+
+	/**
+	 * @param player the player to find
+	 * @return true if the player is in the queue
+	 */
+	public synchronized boolean contains(PlayerObject player)
+	{
+		if(player == null) return false;
+		return players.get(player.getDiscordid()) == player;
 	}
-	
 	
 	/**
 	 * @return The number of players currently in the queue
 	 */
-	public int numPlayersInQueue()
+	public synchronized int numPlayersInQueue()
 	{
-		return super.size();
+		return players.size();
 	}
 	
 	/**
 	 * @return True if the current queue size is greater than or equal to the max queue size
 	 */
-	public boolean isFull()
+	public synchronized boolean isFull()
+	{
+		return players.size()>=maxQueueSize;
+	}
+
+	/**Empties the queue. 
+	 * @return the players that were in the queue
+	 */
+	public synchronized List<PlayerObject> clear()
+	{
+		List<PlayerObject> list = new ArrayList<PlayerObject>(players.values());
+		for(Snowflake discordid : players.keySet())
+		{
+			DiscordBot.queuedPlayers.removed(discordid.asLong());
+		}
+		players.clear();
+		return list;
+	}
+
+	/**Empties the queue, but only if it is full. Used when starting a game so that the game gets exactly the players that filled the queue, even if someone removes at the same time. 
+	 * @return the players that were in the queue, or null if the queue wasn't full
+	 */
+	public synchronized List<PlayerObject> clearIfFull()
 	{
-		return this.numPlayersInQueue()>=getMaxQueueSize();
+		if(players.size()<maxQueueSize) return null;
+		return clear();
 	}
 	
 	/**
 	 * @return A copy of the current list as a List of PlayerObjects
 	 */
-	public List<PlayerObject> asList()
+	public synchronized List<PlayerObject> asList()
 	{
-		ArrayList<PlayerObject> list = new ArrayList<PlayerObject>();
-		list.addAll(this);
-		return list;
+		return new ArrayList<PlayerObject>(players.values());
+	}
+
+	/**
+	 * @return an iterator over a copy of the queue, so the queue can change while iterating
+	 */
+	@Override
+	public Iterator<PlayerObject> iterator()
+	{
+		return asList().iterator();
 	}
 	
 	/**
 	 * @return A comma delimited representation of the players in the queue using PlayerObject.toString()
-	 * @see java.util.Vector#toString()
 	 * @see PlayerObject#toString()
 	 */
 	public String toString()
@@ -114,4 +200,4 @@ public class GatherQueueObject extends ArrayList<PlayerObject>
 			return returnString.substring(0, returnString.length()-2);
 		}
 	}
-}
\ No newline at end of file
+}
@@ -20,8 +20,6 @@ public class GatherServer
 	private KagServerChecker serverCheckObject;
 	private boolean isInUse;
 	
-	private Thread rconThread;
-	
 	GatherServer(String ip, int port, String rconPassword, String serverPassword, String serverLink)
 	{
 		this.ip=ip;
@@ -39,19 +37,15 @@ public class GatherServer
 		try
 		{
 			//check for and stop any existing connections
-			if(rconThread != null) rconThread.interrupt();
-			//now create the new connection
+			if(serverCheckObject != null) serverCheckObject.shutdown();
+			//now create the new connection, the socket is serviced by the shared rcon selector thread
 			serverCheckObject = new KagServerChecker(ip, port, rconPassword);
 			//add an rcon listener to process any received messages
 			serverCheckObject.addListener(new RconListener());
-			//create a thread for running the checker
-			rconThread = new Thread(serverCheckObject);
-			rconThread.start();
 			return true;
 		} catch (IOException e)
 		{
 			LOGGER.error("An error occured connecting to the gather KAG server("+e.getMessage()+"): "+ip+":"+port);
-			rconThread = null;
 			serverCheckObject = null;
 			return false;
 		}
@@ -63,7 +57,7 @@ public class GatherServer
 	 */
 	public boolean isConnected()
 	{
-		if(rconThread == null || !serverCheckObject.isConnected()) return false;
+		if(serverCheckObject == null || !serverCheckObject.isConnected()) return false;
 		return true;
 	}
 	
@@ -73,34 +67,45 @@ public class GatherServer
 	 */
 	public boolean isReconnecting()
 	{
-		if(rconThread == null || serverCheckObject.isReconnecting()) return false;
+		if(serverCheckObject == null || !serverCheckObject.isReconnecting()) return false;
 		else return true;
 	}
 	
-	/**Interrupts the connection listener, triggering a disconnect from the KAG server. 
+	/**Shuts down the connection, disconnecting from the KAG server and cancelling any reconnect attempts. 
 	 */
 	public void disconnect()
 	{
-		if(rconThread != null)
+		if(serverCheckObject != null)
 		{
-			rconThread.interrupt();
+			serverCheckObject.shutdown();
 		}
 	}
 	
 	/**Send a message to the KAG server. 
 	 * @param msg the message to send
+	 * @return false if the message couldn't be queued (there is no connection object or the send queue is full), true otherwise
 	 * @see #KagServerChecker
 	 */
-	public void sendMessage(String msg)
+	public boolean sendMessage(String msg)
 	{
 		if(serverCheckObject == null)
 		{
 			LOGGER.error("Could not send message to kag server, serverConnection is null");
-			return;
+			return false;
 		}
-		serverCheckObject.sendMessage(msg);
+		return serverCheckObject.sendMessage(msg);
 	}
 	
+	/**Gets a summary of the messages sent to the KAG server, for checking if the connection is keeping up. 
+	 * @return the queue depth, messages sent, drops and write latency, or a blank string if there is no connection object
+	 * @see KagServerChecker#getStatsString()
+	 */
+	public String getRconStatsString()
+	{
+		if(serverCheckObject == null) return "";
+		return serverCheckObject.getStatsString();
+	}
+
 	/**Say a message to the users of the gather server. 
 	 * @param msg the message to say
 	 */
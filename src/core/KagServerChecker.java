@@ -1,67 +1,165 @@
 package core;
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.Socket;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
-import java.util.ArrayList;
-import java.util.LinkedList;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
-import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-/**Listens to the tcp socket that is connected to the KAG server and sends received messages to its listeners. 
+/**Holds the tcp socket that is connected to the KAG server and sends received messages to its listeners.
+ * <p>
+ * The socket is non blocking and is serviced by the shared {@link RconMultiplexer} thread, which only wakes this object up when there is something to read or queued messages to write.
+ * Received lines are passed to the listeners on a separate thread for each server, so that a slow listener can't hold up the other servers.
+ * <p>
+ * Outgoing messages wait in a bounded queue, if the queue is full (e.g. the server has been unreachable for a long time) new messages are dropped rather than using up memory.
+ * Everything that is queued when the socket becomes writable is written in one go, so several commands sent together (e.g. the team lists) only take one write.
+ * <p>
+ * A connection that goes quiet is checked by sending a heartbeat command that the server echoes back, if nothing at all is received for {@link #HEARTBEAT_TIMEOUT} the connection is treated as lost.
+ * Reconnect attempts back off exponentially with some random jitter, starting from well under a second so that a short drop is recovered from quickly.
+ * Listeners are told whenever the connection goes up or down.
  * @author cameron
  *
  */
-public class KagServerChecker implements Runnable
+public class KagServerChecker
 {
 	static final Logger LOGGER = LoggerFactory.getLogger(KagServerChecker.class);
-	private Socket socket;
+	private static final int CONNECT_TIMEOUT = 10000;		//milliseconds
+	private static final int READ_BUFFER_SIZE = 8192;
+	//the most messages that can be waiting to be sent, more than this are dropped
+	private static final int MAX_QUEUED_MESSAGES = 1000;
+	//the most bytes to gather into one write
+	private static final int MAX_WRITE_SIZE = 65536;
+	//how long the connection can be quiet before a heartbeat is sent, and how long before it is treated as lost
+	private static final long HEARTBEAT_INTERVAL = 10000;		//milliseconds
+	private static final long HEARTBEAT_TIMEOUT = 30000;		//milliseconds
+	private static final String HEARTBEAT_PREFIX = "[Heartbeat]";
+	//the reconnect delay starts at the minimum and doubles after every failed attempt, up to the maximum
+	private static final long MIN_RECONNECT_DELAY = 500;		//milliseconds
+	private static final long MAX_RECONNECT_DELAY = 120000;		//milliseconds
+
+	private RconMultiplexer multiplexer;
+	private SocketChannel channel;
+	private SelectionKey key;
 	private List<RconListener> listeners;
-	private PrintWriter out;
-	private BufferedReader in;
-	private String lastMsg;
-	private boolean connected;
-	private boolean reconnecting;
-	private int reconnectTimer;			//milliseconds
-	
+	private ExecutorService listenerExecutor;
+	private ByteBuffer readBuffer;
+	private ByteArrayOutputStream lineBuffer;
+	private ByteBuffer writeBuffer;
+	private volatile boolean connected;
+	private volatile boolean reconnecting;
+	private volatile long reconnectDelay;			//milliseconds
+	private ScheduledFuture<?> reconnectTask;
+	//true from when a reconnect is scheduled until the attempt has finished
+	private boolean reconnectPending;
+	private volatile long lastReceived;
+	private long heartbeatNumber;
+	private ScheduledFuture<?> heartbeatTask;
+
 	private String ip;
 	private int port;
 	private String rconPassword;
-	
-	private Queue<String> sendMessageQueue;
-	
+
+	/**A message waiting to be sent, along with when it was queued so the write latency can be measured
+	 */
+	private static class QueuedMessage
+	{
+		private final String msg;
+		private final long queuedAt;
+
+		QueuedMessage(String msg)
+		{
+			this.msg = msg;
+			this.queuedAt = System.currentTimeMillis();
+		}
+	}
+
+	private BlockingQueue<QueuedMessage> sendMessageQueue;
+	private AtomicBoolean writeRequested;
+	//the oldest message in the write that is currently being sent, 0 if it is the password
+	private long writeQueuedAt;
+	//the message that didn't fit in the last write, it goes at the start of the next one
+	private QueuedMessage leftoverMessage;
+
+	private AtomicLong messagesSent;
+	private AtomicLong writes;
+	private AtomicLong messagesDropped;
+	private AtomicLong totalWriteLatency;
+	private AtomicLong maxWriteLatency;
+
 	KagServerChecker(String ip, int port, String rconPassword) throws UnknownHostException, IOException
 	{
-		listeners = new ArrayList<RconListener>();
-		sendMessageQueue = new LinkedList<String>();
+		multiplexer = RconMultiplexer.getInstance();
+		listeners = new CopyOnWriteArrayList<RconListener>();
+		listenerExecutor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "RCON listener "+ip+":"+port));
+		readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		lineBuffer = new ByteArrayOutputStream();
+		sendMessageQueue = new ArrayBlockingQueue<QueuedMessage>(MAX_QUEUED_MESSAGES);
+		writeRequested = new AtomicBoolean(false);
+		messagesSent = new AtomicLong();
+		writes = new AtomicLong();
+		messagesDropped = new AtomicLong();
+		totalWriteLatency = new AtomicLong();
+		maxWriteLatency = new AtomicLong();
 		this.ip=ip;
 		this.port=port;
 		this.rconPassword=rconPassword;
-		this.reconnectTimer = 120000;
+		this.reconnectDelay = MIN_RECONNECT_DELAY;
 		connect();
 	}
-	
-	/**Checks if this object thinks it is connected with the server. 
+
+	/**Checks if this object thinks it is connected with the server.
 	 * @return the value of the connected variable
 	 */
 	public boolean isConnected()
 	{
 		return connected;
 	}
-	
-	/**Changes the connection status of this object. 
+
+	/**Changes the connection status of this object, and tells the listeners if it has changed.
 	 * @param val true connected, false otherwise
 	 */
 	public void setConnected(boolean val)
 	{
-		connected = val;
+		boolean changed;
+		synchronized(this)
+		{
+			changed = connected != val;
+			connected = val;
+		}
+		if(!changed) return;
+		try
+		{
+			//on the listener thread so it is in order with the received lines
+			listenerExecutor.execute(() ->
+			{
+				for(RconListener listener : listeners)
+				{
+					listener.connectionChanged(ip, port, val);
+				}
+			});
+		}
+		catch(RejectedExecutionException e)
+		{
+			//the connection has been shut down, nothing is listening any more
+		}
 	}
-	
+
 	/**Checks if this object thinks it is currently disconnected, but will try to reconnect soon.
 	 * @return the value of the reconnecting variable
 	 */
@@ -69,17 +167,17 @@ public class KagServerChecker implements Runnable
 	{
 		return reconnecting;
 	}
-	
-	/**Changes the reconnecting status of this object. 
+
+	/**Changes the reconnecting status of this object.
 	 * @param val true if attempting to reconnect, false otherwise
 	 */
 	public void setReconnecting(boolean val)
 	{
 		reconnecting = val;
 	}
-	
-	/**Triggered whenever the connection is lost. Disconnects the socket and sets up a task to reconnect later. 
-	 * If the sleep is interrupted, the reconnect attempt is canceled
+
+	/**Triggered whenever the connection is lost. Disconnects the socket and schedules an attempt to reconnect later.
+	 * If the reconnect attempt fails another one is scheduled, until {@link #shutdown()} is called.
 	 */
 	public void connectionLost()
 	{
@@ -87,76 +185,330 @@ public class KagServerChecker implements Runnable
 		this.disconnect();
 		//reconnect later
 		this.setReconnecting(true);
-		while(this.isReconnecting())
+		this.scheduleReconnect();
+	}
+
+	/**Schedules one reconnect attempt after {@link #reconnectDelay} milliseconds, give or take some jitter, then doubles the delay for next time.
+	 */
+	private synchronized void scheduleReconnect()
+	{
+		if(!this.isReconnecting()) return;
+		//connection loss can be detected in more than one place at once, only need one attempt
+		if(reconnectPending) return;
+		reconnectPending = true;
+		//somewhere between half and all of the delay, so that servers that dropped together don't all reconnect together
+		long delay = reconnectDelay/2 + ThreadLocalRandom.current().nextLong(reconnectDelay/2 + 1);
+		reconnectDelay = Math.min(MAX_RECONNECT_DELAY, reconnectDelay*2);
+		LOGGER.info("Attempting to reconnect to KAG server "+ip+":"+port+" in "+delay/1000.0f+" seconds");
+		//the connect blocks, so it runs on the connect threads rather than holding up the heartbeats of every other server
+		reconnectTask = multiplexer.scheduleBlocking(() ->
 		{
-			if(Thread.interrupted()) return;
-			try {
-				LOGGER.info("Attempting to reconnect to KAG server in "+reconnectTimer/60.0f+" seconds");
-				Thread.sleep(reconnectTimer);
+			boolean failed = false;
+			if(this.isReconnecting())
+			{
 				try {
 					this.connect();
 				} catch (IOException e) {
 					this.disconnect();
 					LOGGER.error("An error occured connecting to the gather KAG server("+e.getMessage()+"): "+ip+":"+port);
+					failed = true;
 				}
-			} catch (InterruptedException e) {
-				//if the sleep is interrupted then we want to stay disconnected
-				this.setReconnecting(false);
-				//have to recreate the interrupt because sleep consumes it when it throws the interrupted exception
-				Thread.currentThread().interrupt();
-				return;
 			}
+			synchronized(this)
+			{
+				//this attempt has finished, so the next one can be scheduled
+				reconnectPending = false;
+			}
+			if(failed) this.scheduleReconnect();
+		}, delay);
+	}
+
+	/**Sends a heartbeat if nothing has been received for a while, or treats the connection as lost if nothing has been received for too long. Reschedules itself while connected.
+	 */
+	private synchronized void checkHeartbeat()
+	{
+		if(!this.isConnected()) return;
+		long quietTime = System.currentTimeMillis() - lastReceived;
+		if(quietTime > HEARTBEAT_TIMEOUT)
+		{
+			LOGGER.info("connection loss detected: nothing received from "+ip+":"+port+" for "+quietTime+"ms");
+			multiplexer.execute(this::connectionLost);
+			return;
+		}
+		if(quietTime >= HEARTBEAT_INTERVAL)
+		{
+			//the server sends this straight back to us
+			this.sendMessage("tcpr(\""+HEARTBEAT_PREFIX+" "+(++heartbeatNumber)+"\");");
 		}
+		heartbeatTask = multiplexer.schedule(this::checkHeartbeat, HEARTBEAT_INTERVAL);
 	}
-	
-	/**Initiates the connection with the server. 
+
+	/**Starts checking the connection with heartbeats, replacing any checks from an earlier connection.
+	 */
+	private synchronized void startHeartbeat()
+	{
+		if(heartbeatTask != null) heartbeatTask.cancel(false);
+		lastReceived = System.currentTimeMillis();
+		heartbeatTask = multiplexer.schedule(this::checkHeartbeat, HEARTBEAT_INTERVAL);
+	}
+
+	/**Initiates the connection with the server. The connect itself is blocking, once it is established the socket is handed over to the {@link RconMultiplexer}.
 	 * @throws UnknownHostException
 	 * @throws IOException
 	 */
 	public void connect() throws UnknownHostException, IOException
 	{
-
-		socket = new Socket(ip, port);
-		out = new PrintWriter(socket.getOutputStream(), true);
-		in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+		SocketChannel newChannel = SocketChannel.open();
+		try
+		{
+			newChannel.socket().connect(new InetSocketAddress(ip, port), CONNECT_TIMEOUT);
+			newChannel.configureBlocking(false);
+		}
+		catch (IOException e)
+		{
+			newChannel.close();
+			throw e;
+		}
 		LOGGER.info("Connected to KAG server: "+ip+":"+port);
-		out.println(rconPassword);
+		multiplexer.execute(() ->
+		{
+			try
+			{
+				channel = newChannel;
+				readBuffer.clear();
+				lineBuffer.reset();
+				//the password must be the first thing sent, before any queued messages
+				writeBuffer = StandardCharsets.UTF_8.encode(rconPassword+"\n");
+				writeQueuedAt = 0;
+				key = channel.register(multiplexer.getSelector(), SelectionKey.OP_READ | SelectionKey.OP_WRITE, this);
+			}
+			catch (IOException e)
+			{
+				LOGGER.error("An error occured registering the connection to the gather KAG server("+e.getMessage()+"): "+ip+":"+port);
+				this.connectionLost();
+			}
+		});
 		this.setReconnecting(false);
 		this.setConnected(true);
+		this.startHeartbeat();
 	}
-	
-	/**Sends text to the KAG server. 
+
+	/**Sends text to the KAG server. The message is queued and written by the selector thread once the socket is writable.
 	 * @param msg the string to send
+	 * @return false if the message was dropped because the queue is full, true otherwise
+	 */
+	public boolean sendMessage(String msg)
+	{
+		if(!sendMessageQueue.offer(new QueuedMessage(msg)))
+		{
+			//only log every 100th drop, otherwise a dead server would flood the log
+			if(messagesDropped.getAndIncrement() % 100 == 0) LOGGER.warn("RCON send queue for "+ip+":"+port+" is full, dropping messages ("+messagesDropped.get()+" dropped so far)");
+			return false;
+		}
+		//only need to wake up the selector once for any number of queued messages
+		if(writeRequested.compareAndSet(false, true))
+		{
+			multiplexer.execute(this::enableWrite);
+		}
+		return true;
+	}
+
+	/**Adds write interest to the selection key so that the selector wakes up when the queued messages can be sent. Must be called on the selector thread.
 	 */
-	public void sendMessage(String msg)
+	private void enableWrite()
 	{
-		sendMessageQueue.add(msg);
+		writeRequested.set(false);
+		if(key != null && key.isValid())
+		{
+			key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+		}
 	}
-	
-	/**Calls {@link #disconnect()}. 
+
+	/**Called by the selector thread when the socket has data to read. Splits the data into lines and passes each complete line to the listeners.
+	 * @throws IOException if the socket has been closed or an error occured reading it
+	 */
+	void onReadable() throws IOException
+	{
+		int bytesRead = channel.read(readBuffer);
+		if(bytesRead == -1)
+		{
+			LOGGER.info("connection loss detected: end of stream");
+			connectionLost();
+			return;
+		}
+		lastReceived = System.currentTimeMillis();
+		readBuffer.flip();
+		while(readBuffer.hasRemaining())
+		{
+			byte b = readBuffer.get();
+			if(b == '\n')
+			{
+				String line = new String(lineBuffer.toByteArray(), StandardCharsets.UTF_8);
+				lineBuffer.reset();
+				if(line.endsWith("\r")) line = line.substring(0, line.length()-1);
+				if(!lineReceived(line)) return;
+			}
+			else
+			{
+				lineBuffer.write(b);
+			}
+		}
+		readBuffer.clear();
+	}
+
+	/**Handles one line received from the server.
+	 * @param line the line without its line terminator
+	 * @return false if the line indicated that the connection was lost, true otherwise
+	 */
+	private boolean lineReceived(String line)
+	{
+		if(line.endsWith("server shutting down."))
+		{
+			LOGGER.info("connection loss detected: "+line);
+			connectionLost();
+			return false;
+		}
+		//the server is definitely up, so the next drop can start reconnecting quickly again
+		reconnectDelay = MIN_RECONNECT_DELAY;
+		//heartbeat replies are only needed to update lastReceived
+		if(line.startsWith(HEARTBEAT_PREFIX, line.indexOf(' ')+1)) return true;
+		listenerExecutor.execute(() ->
+		{
+			for(RconListener listener : listeners)
+			{
+				try
+				{
+					listener.messageReceived(line, ip, port);
+				}
+				catch(RuntimeException e)
+				{
+					LOGGER.error("Error handling rcon message from "+ip+":"+port+": "+line, e);
+				}
+			}
+		});
+		return true;
+	}
+
+	/**Called by the selector thread when the socket can be written to. Gathers all the queued messages into one buffer and writes it, and removes the write interest once everything has been sent.
+	 * @throws IOException if an error occured writing to the socket
+	 */
+	void onWritable() throws IOException
+	{
+		while(true)
+		{
+			if(writeBuffer != null)
+			{
+				channel.write(writeBuffer);
+				if(writeBuffer.hasRemaining())
+				{
+					//the socket buffer is full, wait until the selector says we can write again
+					return;
+				}
+				writeBuffer = null;
+				if(writeQueuedAt != 0) recordWriteLatency(System.currentTimeMillis() - writeQueuedAt);
+			}
+			if(!gatherQueuedMessages()) break;
+		}
+		key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+	}
+
+	/**Takes as many queued messages as fit in one write and puts them in the write buffer. Must be called on the selector thread.
+	 * @return false if there was nothing queued
+	 */
+	private boolean gatherQueuedMessages()
+	{
+		QueuedMessage next = leftoverMessage != null ? leftoverMessage : sendMessageQueue.poll();
+		leftoverMessage = null;
+		if(next == null) return false;
+		StringBuilder batch = new StringBuilder();
+		writeQueuedAt = next.queuedAt;
+		int count = 0;
+		while(next != null)
+		{
+			//always send at least one message, even if it is bigger than a write on its own
+			if(count > 0 && batch.length()+next.msg.length()+1 > MAX_WRITE_SIZE)
+			{
+				leftoverMessage = next;
+				break;
+			}
+			batch.append(next.msg).append('\n');
+			count++;
+			next = sendMessageQueue.poll();
+		}
+		writeBuffer = StandardCharsets.UTF_8.encode(batch.toString());
+		messagesSent.addAndGet(count);
+		writes.incrementAndGet();
+		return true;
+	}
+
+	/**Adds the time a write took from its oldest message being queued to it being sent to the latency stats.
+	 * @param latency the latency in milliseconds
+	 */
+	private void recordWriteLatency(long latency)
+	{
+		totalWriteLatency.addAndGet(latency);
+		long max = maxWriteLatency.get();
+		while(latency > max && !maxWriteLatency.compareAndSet(max, latency))
+		{
+			max = maxWriteLatency.get();
+		}
+	}
+
+	/**Getter for the number of messages waiting to be sent.
+	 * @return the number of queued messages
+	 */
+	public int getQueueDepth()
+	{
+		return sendMessageQueue.size() + (leftoverMessage != null ? 1 : 0);
+	}
+
+	/**Gets a summary of the outgoing messages to this server.
+	 * @return a string with the queue depth, messages sent, writes, drops and write latency
+	 */
+	public String getStatsString()
+	{
+		long numWrites = writes.get();
+		return "queued: "+getQueueDepth()+"/"+MAX_QUEUED_MESSAGES+", sent: "+messagesSent.get()+" in "+numWrites+" writes, dropped: "+messagesDropped.get()
+				+", write latency avg: "+(numWrites == 0 ? 0 : totalWriteLatency.get()/numWrites)+"ms max: "+maxWriteLatency.get()+"ms";
+	}
+
+	/**Calls {@link #disconnect()}.
 	 * @see java.lang.Object#finalize()
 	 */
 	protected void finalize()
 	{
 		this.disconnect();
 	}
-	
-	/**Disconnect from the kag server and close the apporpriate resources. 
+
+	/**Disconnect from the kag server and close the apporpriate resources.
 	 */
 	public void disconnect()
 	{
 		try {
-			LOGGER.info("Disconnecting from KAG server: "+ip+":"+port);
-			socket.close();
-			in.close();
-			out.close();
+			LOGGER.info("Disconnecting from KAG server: "+ip+":"+port+" ("+getStatsString()+")");
+			if(key != null) key.cancel();
+			if(channel != null) channel.close();
+			synchronized(this)
+			{
+				if(heartbeatTask != null) heartbeatTask.cancel(false);
+			}
 			setConnected(false);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
-	
-	/**Add a listener object to be passed messages when they are received. 
+
+	/**Disconnect from the kag server and stop any further reconnect attempts. Used when the connection is being removed rather than lost.
+	 */
+	public synchronized void shutdown()
+	{
+		this.setReconnecting(false);
+		if(reconnectTask != null && reconnectTask.cancel(false)) reconnectPending = false;
+		multiplexer.execute(this::disconnect);
+		listenerExecutor.shutdown();
+	}
+
+	/**Add a listener object to be passed messages when they are received.
 	 * @param listener an RconListener object
 	 * @see #RconListener
 	 */
@@ -164,8 +516,8 @@ public class KagServerChecker implements Runnable
 	{
 		listeners.add(listener);
 	}
-	
-	/**Remove a listener so that it is no longer passed messages when they are received. 
+
+	/**Remove a listener so that it is no longer passed messages when they are received.
 	 * @param listener an RconListener object
 	 * @see #RconListener
 	 */
@@ -173,43 +525,4 @@ public class KagServerChecker implements Runnable
 	{
 		listeners.remove(listener);
 	}
-	
-	
-	/**runs the thread that checks the socket for messages. When a message is received it is sent to all listeners. Checks for messages to send and sends them all. Tries to detect disconnects by detection server shutdown messages.
-	 * TODO implement a heartbeat in order to detect when the server is disconnected. 
-	 * @see java.lang.Runnable#run()
-	 */
-	public void run()
-	{
-		while(!Thread.interrupted())
-		{
-			try {
-				//check if there is any incoming messages from the server
-				if(in.ready())
-				{
-					lastMsg = in.readLine();
-					if(lastMsg == null || lastMsg.endsWith("server shutting down."))
-					{
-						LOGGER.info("connection loss detected: "+lastMsg);
-						connectionLost();
-					}
-					else
-					{
-						for(RconListener listener : listeners)
-						{
-							listener.messageReceived(lastMsg, ip, port);
-						}
-					}
-				}
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-			//check for any messages waiting to be sent to the server
-			while(sendMessageQueue.peek() != null)
-			{
-				out.println(sendMessageQueue.poll());
-			}
-		}
-		this.disconnect();
-	}
 }
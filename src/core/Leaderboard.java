@@ -0,0 +1,278 @@
+package core;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**Keeps the ranking of every player in memory so that the scoreboard and rank lookups don't need to query and sort the whole players table.
+ * <p>
+ * The players are loaded from the database once at startup, then updated with the stat changes from each game as it is saved.
+ * The ranked list is kept sorted the same way as the old scoreboard query (mmr, then win rate, then games played, then name), so a player can be found or moved with a binary search.
+ * Only players with more than 10% of the total number of games are ranked.
+ * The whole thing is reloaded from the database periodically in case anything was changed outside of the bot.
+ * @author cameron
+ * @see StatsCache#getAllPlayers()
+ * @see GameResultBatch
+ */
+public class Leaderboard
+{
+	static final Logger LOGGER = LoggerFactory.getLogger(Leaderboard.class);
+	private static final long RECONCILE_FREQUENCY = 3600000;		//milliseconds
+
+	/**A player on the leaderboard, along with the values used to sort them so they aren't recalculated on every comparison
+	 */
+	private static class Entry
+	{
+		private StatsObject stats;
+		private double mmr;
+		private float winRate;
+
+		Entry(StatsObject stats)
+		{
+			this.stats = stats;
+			update();
+		}
+
+		/**Recalculates the sort values after the stats have changed
+		 */
+		private void update()
+		{
+			mmr = stats.getMmrDouble();
+			winRate = stats.winRate();
+		}
+	}
+
+	private static final Comparator<Entry> RANK_ORDER = (a, b) ->
+	{
+		int compare = Double.compare(b.mmr, a.mmr);
+		if(compare != 0) return compare;
+		compare = Float.compare(b.winRate, a.winRate);
+		if(compare != 0) return compare;
+		compare = Integer.compare(b.stats.gamesplayed, a.stats.gamesplayed);
+		if(compare != 0) return compare;
+		compare = String.CASE_INSENSITIVE_ORDER.compare(a.stats.kagname, b.stats.kagname);
+		if(compare != 0) return compare;
+		return a.stats.kagname.compareTo(b.stats.kagname);
+	};
+
+	private StatsCache statsCache;
+	private Map<String, Entry> players;
+	private List<Entry> ranked;
+	private int totalGames;
+	//the fewest games a player can have and still be ranked
+	private int minGames;
+	private Timer timer;
+
+	Leaderboard(StatsCache statsCache)
+	{
+		this.statsCache = statsCache;
+		this.players = new HashMap<String, Entry>();
+		this.ranked = new ArrayList<Entry>();
+		this.totalGames = 0;
+		this.minGames = 1;
+	}
+
+	/**Loads every player from the database, replacing anything that was already loaded.
+	 * @return true if the players were loaded, false if the database query failed
+	 */
+	public boolean reload()
+	{
+		//loaded through the stats cache so that game results that haven't been saved yet are included
+		List<StatsObject> list = statsCache.getAllPlayers();
+		if(list == null)
+		{
+			LOGGER.warn("Failed to load the leaderboard from the database");
+			return false;
+		}
+		Map<String, Entry> newPlayers = new HashMap<String, Entry>();
+		int newTotalGames = 0;
+		for(StatsObject stats : list)
+		{
+			if(stats.kagname == null) continue;
+			if(GameResultBatch.TOTAL_GAMES_KAGNAME.equals(stats.kagname))
+			{
+				newTotalGames = stats.gamesplayed;
+				continue;
+			}
+			newPlayers.put(stats.kagname.toLowerCase(), new Entry(stats));
+		}
+		synchronized(this)
+		{
+			players = newPlayers;
+			totalGames = newTotalGames;
+			rebuildRanking();
+			LOGGER.info("Leaderboard loaded with "+players.size()+" players, "+ranked.size()+" ranked");
+		}
+		return true;
+	}
+
+	/**Starts reloading the leaderboard from the database periodically.
+	 */
+	public void startReconciling()
+	{
+		if(timer != null) return;
+		timer = new Timer("Leaderboard reconcile", true);
+		timer.scheduleAtFixedRate(new TimerTask()
+		{
+			public void run()
+			{
+				reload();
+			}
+		}, RECONCILE_FREQUENCY, RECONCILE_FREQUENCY);
+	}
+
+	/**Rebuilds the ranked list from scratch, used when loading and when the minimum number of games changes. Must hold the lock.
+	 */
+	private void rebuildRanking()
+	{
+		minGames = minGamesFor(totalGames);
+		List<Entry> newRanked = new ArrayList<Entry>();
+		for(Entry entry : players.values())
+		{
+			if(entry.stats.gamesplayed >= minGames) newRanked.add(entry);
+		}
+		Collections.sort(newRanked, RANK_ORDER);
+		ranked = newRanked;
+	}
+
+	/**Gets the fewest games a player needs to be ranked. The old scoreboard query required gamesplayed > total*0.1.
+	 * @param total the total number of games
+	 * @return the minimum number of games played to be ranked
+	 */
+	private static int minGamesFor(int total)
+	{
+		return total/10 + 1;
+	}
+
+	/**Applies the stat changes from a saved game to the leaderboard. Each changed player is removed from the ranking, updated, and inserted back in the right place.
+	 * @param batch the result of the game
+	 * @see StatsCache#recordGameResult(GameResultBatch)
+	 */
+	public synchronized void applyGameResult(GameResultBatch batch)
+	{
+		for(StatsObject changes : batch.getStatChanges())
+		{
+			if(GameResultBatch.TOTAL_GAMES_KAGNAME.equals(changes.kagname))
+			{
+				totalGames += changes.gamesplayed;
+				continue;
+			}
+			Entry entry = players.get(changes.kagname.toLowerCase());
+			if(entry == null)
+			{
+				//a player that linked since the last reload, they start from nothing
+				StatsObject stats = new StatsObject();
+				stats.kagname = changes.kagname;
+				entry = new Entry(stats);
+				players.put(changes.kagname.toLowerCase(), entry);
+			}
+			else
+			{
+				removeRanked(entry);
+			}
+			entry.stats.gamesplayed += changes.gamesplayed;
+			entry.stats.wins += changes.wins;
+			entry.stats.losses += changes.losses;
+			entry.stats.draws += changes.draws;
+			entry.stats.desertions += changes.desertions;
+			entry.stats.substitutions += changes.substitutions;
+			entry.stats.desertionlosses += changes.desertionlosses;
+			entry.stats.substitutionwins += changes.substitutionwins;
+			entry.update();
+			if(entry.stats.gamesplayed >= minGames) insertRanked(entry);
+		}
+		//the minimum only changes every 10 games, when it does some players need to drop off the ranking
+		if(minGamesFor(totalGames) != minGames) rebuildRanking();
+	}
+
+	/**Inserts a player into the ranked list at the right place. Must hold the lock.
+	 * @param entry the player to insert
+	 */
+	private void insertRanked(Entry entry)
+	{
+		int index = Collections.binarySearch(ranked, entry, RANK_ORDER);
+		if(index < 0) ranked.add(-index-1, entry);
+	}
+
+	/**Removes a player from the ranked list, must be called before their stats change. Must hold the lock.
+	 * @param entry the player to remove
+	 */
+	private void removeRanked(Entry entry)
+	{
+		int index = Collections.binarySearch(ranked, entry, RANK_ORDER);
+		if(index >= 0) ranked.remove(index);
+	}
+
+	/**Copies a players stats so that callers can't change the leaderboard, and fills in the win rate like the scoreboard query did.
+	 * @param entry the player to copy
+	 * @return a new StatsObject with the same values
+	 */
+	private static StatsObject copyStats(Entry entry)
+	{
+		StatsObject copy = new StatsObject();
+		copy.kagname = entry.stats.kagname;
+		copy.discordid = entry.stats.discordid;
+		copy.gamesplayed = entry.stats.gamesplayed;
+		copy.wins = entry.stats.wins;
+		copy.losses = entry.stats.losses;
+		copy.draws = entry.stats.draws;
+		copy.desertions = entry.stats.desertions;
+		copy.substitutions = entry.stats.substitutions;
+		copy.desertionlosses = entry.stats.desertionlosses;
+		copy.substitutionwins = entry.stats.substitutionwins;
+		copy.winRate = entry.winRate;
+		return copy;
+	}
+
+	/**Returns a list of players ordered based on their rank, followed by win percentage, then games played.
+	 * @param numPlayers the number of players to get
+	 * @return a list of StatsObject that has a length of numPlayers or less
+	 */
+	public synchronized List<StatsObject> getTopPlayers(int numPlayers)
+	{
+		int size = Math.min(numPlayers, ranked.size());
+		List<StatsObject> list = new ArrayList<StatsObject>(size);
+		for(int i=0; i<size; i++)
+		{
+			list.add(copyStats(ranked.get(i)));
+		}
+		return list;
+	}
+
+	/**Gets the position of a player on the leaderboard.
+	 * @param kagName the KAG username of the player
+	 * @return the position starting from 1, or -1 if the player is not ranked
+	 */
+	public synchronized int getPosition(String kagName)
+	{
+		if(kagName == null) return -1;
+		Entry entry = players.get(kagName.toLowerCase());
+		if(entry == null || entry.stats.gamesplayed < minGames) return -1;
+		int index = Collections.binarySearch(ranked, entry, RANK_ORDER);
+		if(index < 0) return -1;
+		return index+1;
+	}
+
+	/**Getter for the total number of gather games played
+	 * @return the number of games
+	 */
+	public synchronized int getTotalGames()
+	{
+		return totalGames;
+	}
+
+	/**Getter for the number of players that are currently ranked
+	 * @return the number of ranked players
+	 */
+	public synchronized int getNumRanked()
+	{
+		return ranked.size();
+	}
+}
@@ -0,0 +1,357 @@
+package core;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import discord4j.core.object.entity.Message;
+import discord4j.core.object.entity.MessageChannel;
+import discord4j.core.object.util.Snowflake;
+import reactor.core.publisher.Mono;
+
+/**Sits in front of the message sending, editing and deleting wrappers in {@link DiscordBot} to cut down the number of requests made to discord.
+ * <p>
+ * Each channel has a token bucket that matches discords limit of 5 messages per 5 seconds per channel, requests that would go over the limit wait in a queue rather than being sent and rate limited.
+ * Messages queued to the same channel within a short window are merged into one message, and an edit that is replaced by a newer edit of the same message before it is sent is dropped.
+ * Edits still waiting when their message is deleted are dropped too.
+ * <p>
+ * All the queues are only touched on the scheduler thread, so no locking is needed.
+ * @author cameron
+ * @see DiscordBot#queueMessage(MessageChannel, String)
+ */
+public class MessageScheduler
+{
+	static final Logger LOGGER = LoggerFactory.getLogger(MessageScheduler.class);
+	//discord allows 5 message creates/edits/deletes per 5 seconds in each channel
+	private static final int BUCKET_SIZE = 5;
+	private static final long TOKEN_INTERVAL = 1000;		//milliseconds
+	//how long a queued message waits for more messages to the same channel to merge with
+	private static final long COALESCE_WINDOW = 250;		//milliseconds
+	private static final int MAX_MESSAGE_LENGTH = 2000;
+
+	private ScheduledExecutorService executor;
+	private Map<Snowflake, Route> routes;
+
+	private AtomicLong requested;
+	private AtomicLong sent;
+	private AtomicLong coalesced;
+	private AtomicLong superseded;
+
+	/**The queue and rate limit state for one channel
+	 */
+	private class Route
+	{
+		private double tokens = BUCKET_SIZE;
+		private long lastRefill = System.currentTimeMillis();
+		private Deque<Outbound> queue = new ArrayDeque<Outbound>();
+		private ScheduledFuture<?> flushTask = null;
+		private long flushAt = 0;
+
+		/**Adds the tokens that have been earned since the last refill, up to the bucket size.
+		 */
+		private void refill()
+		{
+			long now = System.currentTimeMillis();
+			tokens = Math.min(BUCKET_SIZE, tokens + (now - lastRefill) / (double)TOKEN_INTERVAL);
+			lastRefill = now;
+		}
+	}
+
+	/**A message create or edit waiting to be sent, along with everything waiting for its result
+	 */
+	private abstract class Outbound
+	{
+		protected StringBuilder content;
+		protected List<CompletableFuture<Message>> waiters = new ArrayList<CompletableFuture<Message>>();
+
+		abstract Mono<Message> request();
+	}
+
+	private class PendingMessage extends Outbound
+	{
+		private MessageChannel channel;
+		private boolean tts;
+		//messages someone is waiting for might be edited later, so nothing can be merged into them
+		private boolean mergeable;
+		private long sendAt;
+
+		PendingMessage(MessageChannel channel, String msg, boolean tts, boolean mergeable, long sendAt)
+		{
+			this.channel = channel;
+			this.content = new StringBuilder(msg);
+			this.tts = tts;
+			this.mergeable = mergeable;
+			this.sendAt = sendAt;
+		}
+
+		Mono<Message> request()
+		{
+			String msg = content.toString();
+			return channel.createMessage(messageSpec ->
+			{
+				messageSpec.setContent(msg);
+				messageSpec.setTts(tts);
+			});
+		}
+	}
+
+	private class PendingEdit extends Outbound
+	{
+		private Message message;
+
+		PendingEdit(Message message, String newString)
+		{
+			this.message = message;
+			this.content = new StringBuilder(newString);
+		}
+
+		Mono<Message> request()
+		{
+			String newString = content.toString();
+			return message.edit(editSpec ->
+			{
+				editSpec.setContent(newString);
+			});
+		}
+	}
+
+	private class PendingDelete extends Outbound
+	{
+		private Message message;
+
+		PendingDelete(Message message)
+		{
+			this.message = message;
+			this.content = new StringBuilder();
+		}
+
+		Mono<Message> request()
+		{
+			return message.delete().then(Mono.empty());
+		}
+	}
+
+	MessageScheduler()
+	{
+		routes = new HashMap<Snowflake, Route>();
+		requested = new AtomicLong();
+		sent = new AtomicLong();
+		coalesced = new AtomicLong();
+		superseded = new AtomicLong();
+		executor = Executors.newSingleThreadScheduledExecutor(runnable ->
+		{
+			Thread thread = new Thread(runnable, "Discord outbound");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**Queues a message to be sent to a channel.
+	 * @param channel the channel to put the message in
+	 * @param msg the message to send
+	 * @param tts should use text to speech, text to speech messages are never merged with other messages
+	 * @param immediate true if the caller is waiting for the message, in which case it is sent as soon as the rate limit allows and is never merged with other messages
+	 * @return a future that completes with the message once it has been created, if the message was merged this is the merged message
+	 */
+	public CompletableFuture<Message> send(MessageChannel channel, String msg, boolean tts, boolean immediate)
+	{
+		CompletableFuture<Message> future = new CompletableFuture<Message>();
+		requested.incrementAndGet();
+		executor.execute(() ->
+		{
+			Route route = getRoute(channel.getId());
+			long now = System.currentTimeMillis();
+			Outbound last = route.queue.peekLast();
+			boolean mergeable = !tts && !immediate;
+			if(mergeable && last instanceof PendingMessage && ((PendingMessage)last).mergeable && last.content.length()+1+msg.length() <= MAX_MESSAGE_LENGTH)
+			{
+				//merge with the message that is already waiting
+				last.content.append("\n").append(msg);
+				last.waiters.add(future);
+				coalesced.incrementAndGet();
+			}
+			else
+			{
+				if(immediate)
+				{
+					//messages queued before this one have to go first, so stop them waiting to be merged
+					for(Outbound outbound : route.queue)
+					{
+						if(outbound instanceof PendingMessage) ((PendingMessage)outbound).sendAt = now;
+					}
+				}
+				PendingMessage pending = new PendingMessage(channel, msg, tts, mergeable, immediate ? now : now+COALESCE_WINDOW);
+				pending.waiters.add(future);
+				route.queue.add(pending);
+			}
+			flush(route);
+		});
+		return future;
+	}
+
+	/**Queues an edit of a message. If there is already an edit of the same message waiting, that edit is replaced by this one.
+	 * @param message the message to be edited
+	 * @param newString the new version of the message
+	 * @return a future that completes with the edited message
+	 */
+	public CompletableFuture<Message> edit(Message message, String newString)
+	{
+		CompletableFuture<Message> future = new CompletableFuture<Message>();
+		requested.incrementAndGet();
+		executor.execute(() ->
+		{
+			Route route = getRoute(message.getChannelId());
+			for(Outbound outbound : route.queue)
+			{
+				if(outbound instanceof PendingEdit && ((PendingEdit)outbound).message.getId().equals(message.getId()))
+				{
+					//the old edit would be overwritten straight away anyway, so only send the new one
+					outbound.content.setLength(0);
+					outbound.content.append(newString);
+					outbound.waiters.add(future);
+					superseded.incrementAndGet();
+					return;
+				}
+			}
+			PendingEdit pending = new PendingEdit(message, newString);
+			pending.waiters.add(future);
+			route.queue.add(pending);
+			flush(route);
+		});
+		return future;
+	}
+
+	/**Queues a message to be deleted. Any edits of the message that are still waiting are dropped, as they would be deleted straight away anyway.
+	 * @param message the message to delete
+	 * @return a future that completes once the message has been deleted
+	 */
+	public CompletableFuture<Void> delete(Message message)
+	{
+		CompletableFuture<Message> future = new CompletableFuture<Message>();
+		requested.incrementAndGet();
+		executor.execute(() ->
+		{
+			Route route = getRoute(message.getChannelId());
+			Iterator<Outbound> itr = route.queue.iterator();
+			while(itr.hasNext())
+			{
+				Outbound outbound = itr.next();
+				if(outbound instanceof PendingEdit && ((PendingEdit)outbound).message.getId().equals(message.getId()))
+				{
+					itr.remove();
+					for(CompletableFuture<Message> waiter : outbound.waiters) waiter.complete(null);
+					superseded.incrementAndGet();
+				}
+			}
+			PendingDelete pending = new PendingDelete(message);
+			pending.waiters.add(future);
+			route.queue.add(pending);
+			flush(route);
+		});
+		return future.thenApply(ignored -> null);
+	}
+
+	/**Gets the route for a channel, creating it the first time the channel is used. Must be called on the scheduler thread.
+	 * @param channelId the id of the channel
+	 * @return the route for the channel
+	 */
+	private Route getRoute(Snowflake channelId)
+	{
+		Route route = routes.get(channelId);
+		if(route == null)
+		{
+			route = new Route();
+			routes.put(channelId, route);
+		}
+		return route;
+	}
+
+	/**Sends as many of the queued requests for a channel as the rate limit allows, then schedules another flush for when the next request can be sent. Must be called on the scheduler thread.
+	 * @param route the route to flush
+	 */
+	private void flush(Route route)
+	{
+		route.refill();
+		long now = System.currentTimeMillis();
+		while(!route.queue.isEmpty())
+		{
+			Outbound head = route.queue.peekFirst();
+			long wait = 0;
+			if(route.tokens < 1) wait = (long)Math.ceil((1 - route.tokens) * TOKEN_INTERVAL);
+			if(head instanceof PendingMessage) wait = Math.max(wait, ((PendingMessage)head).sendAt - now);
+			if(wait > 0)
+			{
+				//only reschedule if this flush needs to happen sooner than the one already scheduled
+				if(route.flushTask == null || route.flushAt > now+wait)
+				{
+					if(route.flushTask != null) route.flushTask.cancel(false);
+					route.flushAt = now+wait;
+					route.flushTask = executor.schedule(() ->
+					{
+						route.flushTask = null;
+						flush(route);
+					}, wait, TimeUnit.MILLISECONDS);
+				}
+				return;
+			}
+			route.queue.pollFirst();
+			route.tokens--;
+			dispatch(head);
+		}
+		cleanUp();
+	}
+
+	/**Sends a request to discord and passes the result on to everything waiting for it.
+	 * @param outbound the request to send
+	 */
+	private void dispatch(Outbound outbound)
+	{
+		sent.incrementAndGet();
+		List<CompletableFuture<Message>> waiters = outbound.waiters;
+		outbound.request().subscribe(message ->
+		{
+			for(CompletableFuture<Message> waiter : waiters) waiter.complete(message);
+		}, error ->
+		{
+			for(CompletableFuture<Message> waiter : waiters) waiter.completeExceptionally(error);
+		}, () ->
+		{
+			//completes with no message if the request didn't return anything
+			for(CompletableFuture<Message> waiter : waiters) waiter.complete(null);
+		});
+	}
+
+	/**Removes routes that have nothing queued and a full bucket, so the map doesn't keep every private channel forever.
+	 */
+	private void cleanUp()
+	{
+		if(routes.size() < 100) return;
+		Iterator<Route> itr = routes.values().iterator();
+		while(itr.hasNext())
+		{
+			Route route = itr.next();
+			route.refill();
+			if(route.queue.isEmpty() && route.flushTask == null && route.tokens >= BUCKET_SIZE) itr.remove();
+		}
+	}
+
+	/**Gets a summary of how many requests have been saved.
+	 * @return a string with the number of requests queued, sent, merged and dropped
+	 */
+	public String getStatsString()
+	{
+		return "requested: "+requested.get()+", sent: "+sent.get()+", merged: "+coalesced.get()+", superseded edits: "+superseded.get();
+	}
+}
@@ -0,0 +1,25 @@
+package core;
+
+
+/**Object for holding the link between a players KAG username and their Discord id when it is retreived from the database
+ * <p>
+ * The players table has no guild column, links are the same in every guild, so the guild is left to whoever is using the link. 
+ * @author cameron
+ * @see GatherDB#getLinkedPlayer(String)
+ */
+public class PlayerLinkObject {
+	PlayerLinkObject(String kagname, long discordid)
+	{
+		this.kagname = kagname;
+		this.discordid = discordid;
+	}
+	//the KAG username with the case that is stored in the database
+	public String kagname;
+	public long discordid;
+
+	@Override
+	public String toString()
+	{
+		return kagname+" ("+discordid+")";
+	}
+}
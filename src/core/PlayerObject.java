@@ -16,7 +16,7 @@ public class PlayerObject
 
 	/**Variable for keeping track of how long it has been since this player object has been used
 	 */
-	private long lastUsed;
+	private volatile long lastUsed;
 
 	private PlayerObject(Member user, boolean capVote)
 	{
@@ -1,115 +1,173 @@
 package core;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
-import java.util.TimerTask;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import discord4j.core.object.entity.Member;
 import discord4j.core.object.entity.User;
 import discord4j.core.object.util.Snowflake;
-
-import java.util.Timer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 /**class to keep track of player objects so that they can be updated when player data is changed (for example when a user links their accounts). All player objects should be created here. If they are created elsewhere they will become invalid if a player changes their linked accounts.
- * also periodically checks the last used time of each of the player objects and frees them for garbage collection if they have not been used for some time.
+ * <p>
+ * The cache can be used from any thread. Each player is kept in two maps, one by KAG name and one by Discord id, and changes to both maps are made together while holding a lock so they always agree.
+ * The cache has a maximum size, and players that have not been used for {@link #EXPIRE_AFTER_ACCESS} milliseconds are expired.
+ * There is no cleaning thread, instead the clean up is done every so often by whichever thread is using the cache.
+ * <p>
+ * Players that are expired or evicted are kept as weak references, so if something else still holds the player object (e.g. a queue or a running game) the same object is returned next time it is asked for.
+ * <p>
+ * Only one database lookup is done for a player at a time, if a second thread asks for the same player while it is being loaded it waits for the first lookup.
  * @author cameron
  *
  */
 public class PlayerObjectManager
 {
-	//want this to be a map for efficiency reasons, feel like there should be a better way of doing this than maintaining two maps
+	static final Logger LOGGER = LoggerFactory.getLogger(PlayerObjectManager.class);
+
+	//the age threshold after which entries are expired
+	private static final long EXPIRE_AFTER_ACCESS = 129600000;		//1.5 days
+	//the most players to keep strong references to
+	private static final int MAX_SIZE = 1000;
+	//how many cache writes between clean ups
+	private static final int CLEAN_UP_INTERVAL = 64;
+	//how many members can be fetched at once when loading a group of players
+	private static final int MEMBER_FETCH_CONCURRENCY = 8;
+
 	private Map<String, PlayerObject> kagNameToPlayerObjectMap;
 	private Map<Snowflake, PlayerObject> discordidToPlayerObjectMap;
-	//player objects are moved to the weak hash map when they are old, this is so the garbage collector can clean them up
+	//player objects are moved to the weak maps when they are old, this is so the garbage collector can clean them up
 	//don't want to just remove them without keeping the weak map in case there is still a reference to them used somewhere else
 	//in that case, the player object will remain in the weak map and will be moved back to the strong one next time it is used
 	private Map<String, WeakReference<PlayerObject>> weakKagNameToPlayerObjectMap;
 	private Map<Snowflake, WeakReference<PlayerObject>> weakDiscordidToPlayerObjectMap;
+	//the lookups currently in progress, keyed by lower case kag name or discord id
+	private Map<Object, CompletableFuture<PlayerObject>> loading;
+	//held when changing the maps, reads don't need it
+	private final Object writeLock = new Object();
+
+	private AtomicInteger writesSinceCleanUp;
+	private AtomicBoolean cleaningUp;
+	private AtomicLong hits;
+	private AtomicLong misses;
+	private AtomicLong loads;
+	private AtomicLong evictions;
 
-	//functions for keeping the player cache clean
-	private Timer timer;
+	PlayerObjectManager()
+	{
+		kagNameToPlayerObjectMap = new ConcurrentHashMap<String, PlayerObject>();
+		discordidToPlayerObjectMap = new ConcurrentHashMap<Snowflake, PlayerObject>();
+		weakKagNameToPlayerObjectMap = new ConcurrentHashMap<String, WeakReference<PlayerObject>>();
+		weakDiscordidToPlayerObjectMap = new ConcurrentHashMap<Snowflake, WeakReference<PlayerObject>>();
+		loading = new ConcurrentHashMap<Object, CompletableFuture<PlayerObject>>();
+		writesSinceCleanUp = new AtomicInteger();
+		cleaningUp = new AtomicBoolean(false);
+		hits = new AtomicLong();
+		misses = new AtomicLong();
+		loads = new AtomicLong();
+		evictions = new AtomicLong();
+	}
 
-	/**Wrapper for allowing a timer to take a lambda as its task
-	 * @param r the function to be used
-	 * @return the TimerTask object that can be used by a timer
+	/**Runs the clean up every {@value #CLEAN_UP_INTERVAL} writes, or straight away if the cache is over its maximum size.
+	 * Only one thread cleans up at a time, any other thread that would clean up at the same time just skips it.
 	 */
-	private static TimerTask wrap(Runnable r) {
-	  return new TimerTask() {
-
-	    @Override
-	    public void run() {
-	      r.run();
-	    }
-	  };
+	private void maybeCleanUp()
+	{
+		if(writesSinceCleanUp.incrementAndGet() < CLEAN_UP_INTERVAL && discordidToPlayerObjectMap.size() <= MAX_SIZE) return;
+		if(!cleaningUp.compareAndSet(false, true)) return;
+		try
+		{
+			writesSinceCleanUp.set(0);
+			cleanCacheAndweakenOldReferences();
+		}
+		finally
+		{
+			cleaningUp.set(false);
+		}
 	}
 
-	//the age threshold after which entries should be weakened
-	private static int AGE_TO_DELETE = 129600000;			//1.5 days
-	//how often to check the cache for old entries
-	private static int CACHE_CLEAN_FREQUENCY = 7200000;		//2 hours
-
-	/**Checks the last used time of all the currently cached player objects and changes them to a weak reference if they are too old
-	 * The weak reference allows java to remove the object if no other part of the code is still using it too
+	/**Removes weak references that have been garbage collected, weakens players that haven't been used for too long,
+	 * then weakens the least recently used players until the cache is back under its maximum size.
 	 */
 	private void cleanCacheAndweakenOldReferences()
 	{
 		//check if any of the current weak references have been garbage collected yet
-		Iterator<Entry<Snowflake, WeakReference<PlayerObject>>> weakDiscordidIterator = this.weakDiscordidToPlayerObjectMap.entrySet().iterator();
-		while(weakDiscordidIterator.hasNext())
-		{
-			WeakReference<PlayerObject> weakRef = weakDiscordidIterator.next().getValue();
-			if(weakRef==null || weakRef.get()==null)
-			{
-				weakDiscordidIterator.remove();
-			}
-		}
-		Iterator<Entry<String, WeakReference<PlayerObject>>> weakKagNameIterator = this.weakKagNameToPlayerObjectMap.entrySet().iterator();
-		while(weakKagNameIterator.hasNext())
+		weakDiscordidToPlayerObjectMap.values().removeIf(weakRef -> weakRef.get()==null);
+		weakKagNameToPlayerObjectMap.values().removeIf(weakRef -> weakRef.get()==null);
+		this.weakenOldReferences(false);
+		int excess = discordidToPlayerObjectMap.size() - MAX_SIZE;
+		if(excess > 0)
 		{
-			WeakReference<PlayerObject> weakRef = weakKagNameIterator.next().getValue();
-			if(weakRef==null || weakRef.get()==null)
-			{
-				weakKagNameIterator.remove();
-			}
+			//only happens when the cache is full, so sorting everything here is fine
+			discordidToPlayerObjectMap.values().stream()
+					.sorted((a, b) -> Long.compare(a.getLastUsed(), b.getLastUsed()))
+					.limit(excess)
+					.forEach(p -> weaken(p));
 		}
-		this.weakenOldReferences(false);
-		this.printMaps();
 	}
 
-	/**Weaken all player object references that are older than {@value #AGE_TO_DELETE} milliseconds
+	/**Weaken all player object references that have not been used for {@value #EXPIRE_AFTER_ACCESS} milliseconds
 	 * @param force override the last used age check - just weaken all the references anyway
 	 */
 	private void weakenOldReferences(boolean force)
 	{
 		long currentTime = System.currentTimeMillis();
-		Iterator<Entry<String, PlayerObject>> i = this.kagNameToPlayerObjectMap.entrySet().iterator();
-		while(i.hasNext())
+		for(PlayerObject playerObj : discordidToPlayerObjectMap.values())
 		{
-			PlayerObject playerObj = i.next().getValue();
-			if(force || currentTime - playerObj.getLastUsed() > AGE_TO_DELETE)
+			if(force || currentTime - playerObj.getLastUsed() > EXPIRE_AFTER_ACCESS)
 			{
-				//remove it from both strong maps
-				i.remove();
-				this.discordidToPlayerObjectMap.remove(playerObj.getDiscordid());
-				//keep it in the weak map
-				this.addToWeakMap(playerObj);
+				weaken(playerObj);
 			}
 		}
 	}
 
-	/**Helper for printing the current state of the cache to std out
+	/**Moves a player from the strong maps to the weak maps.
+	 * @param p the player to weaken
+	 */
+	private void weaken(PlayerObject p)
+	{
+		synchronized(writeLock)
+		{
+			if(discordidToPlayerObjectMap.remove(p.getDiscordid(), p)) evictions.incrementAndGet();
+			kagNameToPlayerObjectMap.remove(p.getKagName().toLowerCase(), p);
+			//keep it in the weak map
+			this.addToWeakMap(p);
+		}
+	}
+
+	/**Helper for logging the current state of the cache
 	 */
 	public void printMaps()
 	{
-		System.out.println(kagNameToPlayerObjectMap);
-		System.out.println(discordidToPlayerObjectMap);
-		System.out.println(weakKagNameToPlayerObjectMap);
-		System.out.println(weakDiscordidToPlayerObjectMap);
+		LOGGER.info("Player cache: "+getStatsString());
+		LOGGER.debug(kagNameToPlayerObjectMap.toString());
+		LOGGER.debug(discordidToPlayerObjectMap.toString());
+		LOGGER.debug(weakKagNameToPlayerObjectMap.toString());
+		LOGGER.debug(weakDiscordidToPlayerObjectMap.toString());
+	}
+
+	/**Gets a summary of how well the cache is working.
+	 * @return a string with the size, hits, misses, loads and evictions
+	 */
+	public String getStatsString()
+	{
+		return "size: "+discordidToPlayerObjectMap.size()+"/"+MAX_SIZE+" (weak: "+weakDiscordidToPlayerObjectMap.size()+"), hits: "+hits.get()+", misses: "+misses.get()
+				+", loads: "+loads.get()+", evictions: "+evictions.get();
 	}
 
 	/**Helper for getting a set containing all currently cached player objects
@@ -120,8 +178,11 @@ public class PlayerObjectManager
 		Set<PlayerObject> returnSet = new HashSet<PlayerObject>();
 		returnSet.addAll(kagNameToPlayerObjectMap.values());
 		returnSet.addAll(discordidToPlayerObjectMap.values());
-		returnSet.addAll(weakKagNameToPlayerObjectMap.values().stream().map(weakRef -> weakRef.get()).collect(Collectors.toSet()));
-		returnSet.addAll(weakDiscordidToPlayerObjectMap.values().stream().map(weakRef -> weakRef.get()).collect(Collectors.toSet()));
+		for(WeakReference<PlayerObject> weakRef : weakDiscordidToPlayerObjectMap.values())
+		{
+			PlayerObject p = weakRef.get();
+			if(p != null) returnSet.add(p);
+		}
 		return returnSet;
 	}
 
@@ -131,31 +192,35 @@ public class PlayerObjectManager
 	 */
 	private void moveFromWeakToStrongMap(PlayerObject p)
 	{
-		this.removeFromWeakMap(p);
-		this.addToStrongMap(p);
+		synchronized(writeLock)
+		{
+			this.removeFromWeakMap(p);
+			this.addToStrongMap(p);
+		}
 		p.used();
 	}
 
-	/**Helper function for adding a player to the weak map
+	/**Helper function for adding a player to the weak map. Must hold the write lock.
 	 * @param p the player object to add
 	 */
 	private void addToWeakMap(PlayerObject p)
 	{
 		if(p==null) return;
-		this.weakKagNameToPlayerObjectMap.put(p.getKagName().toLowerCase(), new WeakReference<PlayerObject>(p));
-		this.weakDiscordidToPlayerObjectMap.put(p.getDiscordid(), new WeakReference<PlayerObject>(p));
+		WeakReference<PlayerObject> weakRef = new WeakReference<PlayerObject>(p);
+		this.weakKagNameToPlayerObjectMap.put(p.getKagName().toLowerCase(), weakRef);
+		this.weakDiscordidToPlayerObjectMap.put(p.getDiscordid(), weakRef);
 	}
 
-	/**Helper function for removing a player from the weak map
+	/**Helper function for removing a player from the weak map. Must hold the write lock.
 	 * @param p the player object to remove
 	 */
 	private void removeFromWeakMap(PlayerObject p)
 	{
 		weakDiscordidToPlayerObjectMap.remove(p.getDiscordid());
-		weakKagNameToPlayerObjectMap.remove(p.getKagName());
+		weakKagNameToPlayerObjectMap.remove(p.getKagName().toLowerCase());
 	}
 
-	/**Helper function for adding a player to the strong map
+	/**Helper function for adding a player to the strong map. Must hold the write lock.
 	 * @param p the player object to add
 	 */
 	private void addToStrongMap(PlayerObject p)
@@ -165,7 +230,7 @@ public class PlayerObjectManager
 		this.discordidToPlayerObjectMap.put(p.getDiscordid(), p);
 	}
 
-	/**Helper function for removing a player from the strong map
+	/**Helper function for removing a player from the strong map. Must hold the write lock.
 	 * @param p the player object to remove
 	 */
 	private void removeFromStrongMap(PlayerObject p)
@@ -174,16 +239,30 @@ public class PlayerObjectManager
 		this.kagNameToPlayerObjectMap.remove(p.getKagName().toLowerCase());
 	}
 
-	PlayerObjectManager()
+	/**Adds a newly created player to the cache, unless a player with the same KAG name or Discord id was added by another thread in the meantime.
+	 * @param p the new player object
+	 * @return the player object that is in the cache, either p or the one that was already there
+	 */
+	private PlayerObject addNewPlayer(PlayerObject p)
 	{
-		kagNameToPlayerObjectMap = new HashMap<String, PlayerObject>();
-		discordidToPlayerObjectMap = new HashMap<Snowflake, PlayerObject>();
-		weakKagNameToPlayerObjectMap = new HashMap<String, WeakReference<PlayerObject>>();
-		weakDiscordidToPlayerObjectMap = new HashMap<Snowflake, WeakReference<PlayerObject>>();
-
-		//initialise the task for cleaning up old player objects
-		timer = new Timer(true);
-		timer.scheduleAtFixedRate(wrap(() -> this.cleanCacheAndweakenOldReferences()), CACHE_CLEAN_FREQUENCY, CACHE_CLEAN_FREQUENCY);
+		if(p == null) return null;
+		PlayerObject existing;
+		synchronized(writeLock)
+		{
+			existing = checkCache(p.getDiscordid());
+			if(existing == null) existing = checkCache(p.getKagName());
+			if(existing == null)
+			{
+				addToStrongMap(p);
+			}
+		}
+		maybeCleanUp();
+		if(existing != null)
+		{
+			//keep the object that is already being used so there is only ever one object for each player
+			return getIfExists(existing.getDiscordid());
+		}
+		return p;
 	}
 
 	/**Returns a player if they exist, null otherwise.
@@ -202,11 +281,7 @@ public class PlayerObjectManager
 		WeakReference<PlayerObject> weakRef = weakDiscordidToPlayerObjectMap.get(discordid);
 		if(weakRef!=null)
 		{
-			p = weakRef.get();
-			if(p!=null)
-			{
-				return p;
-			}
+			return weakRef.get();
 		}
 		return null;
 	}
@@ -228,11 +303,7 @@ public class PlayerObjectManager
 		WeakReference<PlayerObject> weakRef = weakKagNameToPlayerObjectMap.get(kagName);
 		if(weakRef!=null)
 		{
-			p = weakRef.get();
-			if(p!=null)
-			{
-				return p;
-			}
+			return weakRef.get();
 		}
 		return null;
 	}
@@ -254,8 +325,7 @@ public class PlayerObjectManager
 				//trying to remove a user that is not currently cached
 				return false;
 			}
-			this.removeFromStrongMap(p);
-			this.addToWeakMap(p);
+			this.weaken(p);
 		}
 		else
 		{
@@ -265,14 +335,16 @@ public class PlayerObjectManager
 		//garbage collect anything that can be collected
 		System.gc();
 		//move everything that didn't get collected back from the weak to the strong map
-		for(WeakReference<PlayerObject> w : weakKagNameToPlayerObjectMap.values())
+		synchronized(writeLock)
 		{
-			PlayerObject p = w.get();
-			addToStrongMap(p);
+			for(WeakReference<PlayerObject> w : weakDiscordidToPlayerObjectMap.values())
+			{
+				addToStrongMap(w.get());
+			}
+			//clear the weak map
+			weakKagNameToPlayerObjectMap.clear();
+			weakDiscordidToPlayerObjectMap.clear();
 		}
-		//clear the weak map
-		weakKagNameToPlayerObjectMap.clear();
-		weakDiscordidToPlayerObjectMap.clear();
 		this.printMaps();
 		if(discordid != null && discordidToPlayerObjectMap.containsKey(discordid))
 		{
@@ -292,9 +364,9 @@ public class PlayerObjectManager
 	public PlayerObject getIfExists(Snowflake discordid)
 	{
 		PlayerObject p = discordidToPlayerObjectMap.get(discordid);
-		//System.out.println("discordid in strong map?"+p);
 		if(p!=null)
 		{
+			hits.incrementAndGet();
 			p.used();
 			return p;
 		}
@@ -302,13 +374,14 @@ public class PlayerObjectManager
 		if(weakRef!=null)
 		{
 			p = weakRef.get();
-			//System.out.println("discordid in weak map?"+p);
 			if(p!=null)
 			{
+				hits.incrementAndGet();
 				moveFromWeakToStrongMap(p);
 				return p;
 			}
 		}
+		misses.incrementAndGet();
 		return null;
 	}
 
@@ -321,9 +394,9 @@ public class PlayerObjectManager
 		if(kagName == null) return null;
 		kagName = kagName.toLowerCase();
 		PlayerObject p = kagNameToPlayerObjectMap.get(kagName);
-		//System.out.println("kagName in strong map?"+p);
 		if(p!=null)
 		{
+			hits.incrementAndGet();
 			p.used();
 			return p;
 		}
@@ -331,13 +404,14 @@ public class PlayerObjectManager
 		if(weakRef!=null)
 		{
 			p = weakRef.get();
-			//System.out.println("kagName in weak map?"+p);
 			if(p!=null)
 			{
+				hits.incrementAndGet();
 				moveFromWeakToStrongMap(p);
 				return p;
 			}
 		}
+		misses.incrementAndGet();
 		return null;
 	}
 
@@ -351,24 +425,53 @@ public class PlayerObjectManager
 		return getIfExists(user.getId());
 	}
 
+	/**Runs a database lookup for a player, making sure only one lookup for the same key runs at a time.
+	 * If a lookup for the key is already running, waits for that one and returns its result instead.
+	 * @param key the lower case kag name or the discord id being looked up
+	 * @param loader the lookup to run
+	 * @return the player object, or null if the player isn't linked
+	 */
+	private PlayerObject loadOnce(Object key, Supplier<PlayerObject> loader)
+	{
+		CompletableFuture<PlayerObject> future = new CompletableFuture<PlayerObject>();
+		CompletableFuture<PlayerObject> existing = loading.putIfAbsent(key, future);
+		if(existing != null)
+		{
+			//someone else is already loading this player
+			return existing.join();
+		}
+		try
+		{
+			loads.incrementAndGet();
+			PlayerObject p = addNewPlayer(loader.get());
+			future.complete(p);
+			return p;
+		}
+		catch(RuntimeException e)
+		{
+			future.completeExceptionally(e);
+			throw e;
+		}
+		finally
+		{
+			loading.remove(key, future);
+		}
+	}
+
 	/**Create a new managed PlayerObject. Takes their KAG username and gets their Discord id from the database.
 	 * @param kagName the KAG username of the user to instantiate
 	 * @return null if no Discord id was found for this KAG username (the player is not linked), or the new PlayerObject if creation is successful
 	 */
 	private PlayerObject addObject(String kagName, Snowflake guildId)
 	{
-		//get their info from sql
-		long id = DiscordBot.database.getDiscordID(kagName);
-		//also get the kag name incase the provided string was not the right case
-		kagName = DiscordBot.database.getKagName(id);
-		//return null if they have no sql entry
-		if(id==-1) return null;
-		//we dont need to check the player doesnt already exist with the new data, this should be prevented by update
-		//p = checkExists(id);
-		PlayerObject p = new PlayerObject(Snowflake.of(id), guildId, kagName);
-		//add the new player object to the maps for next time its needed
-		addToStrongMap(p);
-		return p;
+		return loadOnce(kagName.toLowerCase(), () ->
+		{
+			//get their info from sql, the kag name from the database has the right case incase the provided string didn't
+			PlayerLinkObject link = DiscordBot.database.getLinkedPlayer(kagName);
+			//return null if they have no sql entry
+			if(link==null) return null;
+			return new PlayerObject(Snowflake.of(link.discordid), guildId, link.kagname);
+		});
 	}
 
 	/**Create a new managed PlayerObject. Takes their Discord id and gets their KAG username from the database.
@@ -377,16 +480,15 @@ public class PlayerObjectManager
 	 */
 	private PlayerObject addObject(Member member)
 	{
-		//get their info from sql
-		String kagname = DiscordBot.database.getKagName(member.getId().asLong());
-		//return null if they have no sql entry
-		if(kagname=="") return null;
-		//we dont need to check the player doesnt already exist with the new data, this should be prevented by update
-		//p = checkExists(kagname);
-		PlayerObject p = new PlayerObject(member, kagname);
-		//add the new player object to the list for next time its needed
-		addToStrongMap(p);
-		return p;
+		if(member == null) return null;
+		return loadOnce(member.getId(), () ->
+		{
+			//get their info from sql
+			PlayerLinkObject link = DiscordBot.database.getLinkedPlayer(member.getId().asLong());
+			//return null if they have no sql entry
+			if(link==null || link.kagname==null || link.kagname.isEmpty()) return null;
+			return new PlayerObject(member, link.kagname);
+		});
 	}
 
 	/**Wrapper for getting a players PlayerObject by discord user object. Creates the player object if they don't already have one.
@@ -426,6 +528,91 @@ public class PlayerObjectManager
 		return addObject(DiscordBot.fetchMember(guildId, discordid));
 	}
 
+	/**Getter for the player objects of a group of players (e.g. a team list). Players that aren't cached are all looked up in one database query.
+	 * @param kagNames the KAG usernames of the wanted players
+	 * @param guildId the guild the players are in
+	 * @return their PlayerObjects in the same order as the names, players that aren't linked are left out
+	 */
+	public List<PlayerObject> getOrCreatePlayerObjects(List<String> kagNames, Snowflake guildId)
+	{
+		List<PlayerObject> players = new ArrayList<PlayerObject>(kagNames.size());
+		Map<String, PlayerObject> found = new HashMap<String, PlayerObject>();
+		Set<String> missing = new LinkedHashSet<String>();
+		for(String kagName : kagNames)
+		{
+			PlayerObject p = getIfExists(kagName);
+			if(p!=null) found.put(kagName.toLowerCase(), p);
+			else missing.add(kagName);
+		}
+		if(!missing.isEmpty())
+		{
+			loads.incrementAndGet();
+			Map<String, PlayerLinkObject> links = DiscordBot.database.getLinkedPlayers(missing);
+			if(links != null)
+			{
+				//fetch the members for every player at once rather than one after another
+				List<PlayerObject> loaded = fetchPlayers(links.values(), guildId).collectList().block();
+				if(loaded != null)
+				{
+					for(PlayerObject loadedPlayer : loaded)
+					{
+						PlayerObject p = addNewPlayer(loadedPlayer);
+						if(p!=null) found.put(p.getKagName().toLowerCase(), p);
+					}
+				}
+			}
+		}
+		for(String kagName : kagNames)
+		{
+			PlayerObject p = found.get(kagName.toLowerCase());
+			if(p!=null) players.add(p);
+		}
+		return players;
+	}
+
+	/**Fetches the discord members for a group of linked players, a few at a time, and makes a player object for each. 
+	 * Players whose member can't be fetched (e.g. they left the guild) are left out. 
+	 * @param links the linked players
+	 * @param guildId the guild the players are in
+	 * @return a Flux of the new player objects, these still need to be added to the cache
+	 */
+	private Flux<PlayerObject> fetchPlayers(Collection<PlayerLinkObject> links, Snowflake guildId)
+	{
+		return Flux.fromIterable(links)
+				.flatMap(link -> DiscordBot.logErrors(DiscordBot.fetchMemberAsync(guildId, Snowflake.of(link.discordid)), "fetching member for "+link.kagname)
+						.map(member -> new PlayerObject(member, link.kagname)), MEMBER_FETCH_CONCURRENCY);
+	}
+
+	/**Fills the cache with the players that played most recently, so the first games after a restart don't have to look every player up one at a time.
+	 * The players are read from the database, then only their members are fetched, a few at a time. 
+	 * Needs to be done after logging in. 
+	 * @param guildId the guild the players are in
+	 * @param limit the most players to load
+	 * @return a Mono that emits the number of players added to the cache, or -1 if the database query failed
+	 */
+	public Mono<Integer> preload(Snowflake guildId, int limit)
+	{
+		return Mono.defer(() ->
+		{
+			long start = System.currentTimeMillis();
+			List<PlayerLinkObject> links = new ArrayList<PlayerLinkObject>();
+			int read = DiscordBot.database.forEachRecentLink(Math.min(limit, MAX_SIZE), links::add);
+			if(read < 0)
+			{
+				LOGGER.warn("Failed to preload the player cache");
+				return Mono.just(-1);
+			}
+			return fetchPlayers(links, guildId)
+					.filter(player -> addNewPlayer(player) != null)
+					.count()
+					.map(added ->
+					{
+						LOGGER.info("Preloaded "+added+" of "+read+" recent players into the player cache in "+(System.currentTimeMillis()-start)+"ms");
+						return added.intValue();
+					});
+		});
+	}
+
 	/**Updates a player object in the cache with a new value for their discord id.
 	 * <p>
 	 * Removes any existing strong/weak discord map entries for {@link PlayerObject#getDiscordid()},
@@ -435,12 +622,16 @@ public class PlayerObjectManager
 	 * @param discordid the new discord id
 	 */
 	private void update(PlayerObject p, Member member) {
-		//remove the player from the map (we need to update the key they are stored under)
-		discordidToPlayerObjectMap.remove(p.getDiscordid());
-		weakDiscordidToPlayerObjectMap.remove(p.getDiscordid());
-		p.setDiscordUserInfo(member);
-		//add them back into the map with the new key
-		discordidToPlayerObjectMap.put(member.getId(), p);
+		if(member == null) return;
+		synchronized(writeLock)
+		{
+			//remove the player from the map (we need to update the key they are stored under)
+			discordidToPlayerObjectMap.remove(p.getDiscordid());
+			weakDiscordidToPlayerObjectMap.remove(p.getDiscordid());
+			p.setDiscordUserInfo(member);
+			//add them back into the map with the new key
+			discordidToPlayerObjectMap.put(member.getId(), p);
+		}
 	}
 
 	/**Updates a player object in the cache with a new value for their kagName.
@@ -452,12 +643,15 @@ public class PlayerObjectManager
 	 * @param discordid the new discord id
 	 */
 	private void update(PlayerObject p, String kagName) {
-		//remove the player from the map (we need to update the key they are stored under)
-		kagNameToPlayerObjectMap.remove(p.getKagName());
-		weakKagNameToPlayerObjectMap.remove(p.getKagName());
-		p.setKagName(kagName);
-		//add them back into the map with the new key
-		kagNameToPlayerObjectMap.put(kagName, p);
+		synchronized(writeLock)
+		{
+			//remove the player from the map (we need to update the key they are stored under)
+			kagNameToPlayerObjectMap.remove(p.getKagName().toLowerCase());
+			weakKagNameToPlayerObjectMap.remove(p.getKagName().toLowerCase());
+			p.setKagName(kagName);
+			//add them back into the map with the new key
+			kagNameToPlayerObjectMap.put(kagName.toLowerCase(), p);
+		}
 	}
 
 	/**Wrapper for update(long discordid). Called when someones player info changes.
@@ -479,8 +673,9 @@ public class PlayerObjectManager
 		if(p!=null)
 		{
 			//get their info from sql
-			long id = DiscordBot.database.getDiscordID(kagName);
-			this.update(p, DiscordBot.fetchMember(guildId, Snowflake.of(id)));
+			PlayerLinkObject link = DiscordBot.database.getLinkedPlayer(kagName);
+			if(link==null) return;
+			this.update(p, DiscordBot.fetchMember(guildId, Snowflake.of(link.discordid)));
 		}
 		//could add their player object here, but will do lazy approach and only do that when the object is needed
 		//addObject(kagName);
@@ -496,8 +691,9 @@ public class PlayerObjectManager
 		if(p!=null)
 		{
 			//get their info from sql
-			String kagName = DiscordBot.database.getKagName(discordId.asLong());
-			this.update(p, kagName);
+			PlayerLinkObject link = DiscordBot.database.getLinkedPlayer(discordId.asLong());
+			if(link==null) return;
+			this.update(p, link.kagname);
 		}
 		//could add their player object here, but will do lazy approach and only do that when the object is needed
 		//addObject(discordid);
@@ -514,9 +710,8 @@ public class PlayerObjectManager
 		PlayerObject playerByDiscordid = getIfExists(member);
 		if(playerByKagname==null && playerByDiscordid==null)
 		{
-			PlayerObject p = new PlayerObject(member, kagName);
 			//add the new player object to the list for next time its needed
-			addToStrongMap(p);
+			addNewPlayer(new PlayerObject(member, kagName));
 			return true;
 		}
 		else
@@ -539,7 +734,7 @@ public class PlayerObjectManager
 			return true;
 		}
 	}
-	
+
 	public boolean forceUpdate(String kagName, long userId, long guildId)
 	{
 		return this.forceUpdate(kagName, DiscordBot.fetchMember(Snowflake.of(guildId), Snowflake.of(userId)));
@@ -0,0 +1,70 @@
+package core;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**Keeps the discord id of every player in any gather queue, so that events about other members (e.g. every presence update in the guild) can be thrown out without fetching anything.
+ * <p>
+ * The ids are published as a sorted array that is replaced whenever a queue changes. Queues change rarely and are small, while lookups happen for every event, so a lookup is just a binary search of the current array without any locking or allocation.
+ * A count is kept for each id in case the same player is in more than one queue.
+ * @author cameron
+ * @see GatherQueueObject
+ */
+public class QueuedPlayerIndex
+{
+	private Map<Long, Integer> counts = new HashMap<Long, Integer>();
+	private volatile long[] queuedIds = new long[0];
+
+	/**Records that a player has been added to a queue
+	 * @param discordid the discord id of the player
+	 */
+	public synchronized void added(long discordid)
+	{
+		counts.merge(discordid, 1, Integer::sum);
+		publish();
+	}
+
+	/**Records that a player has been removed from a queue
+	 * @param discordid the discord id of the player
+	 */
+	public synchronized void removed(long discordid)
+	{
+		Integer count = counts.get(discordid);
+		if(count == null) return;
+		if(count <= 1) counts.remove(discordid);
+		else counts.put(discordid, count-1);
+		publish();
+	}
+
+	/**Rebuilds the sorted array of ids, must hold the lock
+	 */
+	private void publish()
+	{
+		long[] ids = new long[counts.size()];
+		int i = 0;
+		for(Long id : counts.keySet())
+		{
+			ids[i++] = id;
+		}
+		Arrays.sort(ids);
+		queuedIds = ids;
+	}
+
+	/**
+	 * @return true if no one is in any queue
+	 */
+	public boolean isEmpty()
+	{
+		return queuedIds.length == 0;
+	}
+
+	/**Checks if a player is in any queue
+	 * @param discordid the discord id of the player
+	 * @return true if they are in at least one queue
+	 */
+	public boolean contains(long discordid)
+	{
+		long[] ids = queuedIds;
+		return ids.length != 0 && Arrays.binarySearch(ids, discordid) >= 0;
+	}
+}
@@ -0,0 +1,188 @@
+package core;
+
+/**A line received from a KAG server, parsed into the kind of event it is and the positions of its arguments. 
+ * <p>
+ * The line is never split or copied, the arguments are just start and end positions in the original string. 
+ * Numbers are read straight from the line, strings are only made when a string argument is asked for, so the lines that come in all game (e.g. ticket updates) don't make any garbage. 
+ * One RconEvent is meant to be reused for every line from a server, so it is not thread safe. 
+ * @author cameron
+ * @see RconListener
+ */
+public class RconEvent
+{
+	/**The kinds of line that the bot does something with
+	 */
+	public enum Tag
+	{
+		SAY("SAY"), GAMEOVER("GAMEOVER"), RSUB("RSUB"), SUBVOTE("SUBVOTE"), LINK("LINK"), BUILDINGTIMEENDED("BUILDINGTIMEENDED"), ROUNDSTARTED("ROUNDSTARTED"), TICKETS("[Tickets]"), UNKNOWN("");
+
+		private final String keyword;
+
+		Tag(String keyword)
+		{
+			this.keyword = keyword;
+		}
+	}
+
+	private static final String GATHER_PREFIX = "[Gather]";
+	//the gather messages are checked in this order, the same order as the old startsWith checks
+	private static final Tag[] GATHER_TAGS = {Tag.SAY, Tag.GAMEOVER, Tag.RSUB, Tag.SUBVOTE, Tag.LINK, Tag.BUILDINGTIMEENDED, Tag.ROUNDSTARTED};
+	//no message needs more than this many arguments split out, anything after is read with getRestAfter()
+	private static final int MAX_ARGS = 4;
+
+	private String line;
+	private Tag tag = Tag.UNKNOWN;
+	//where the gather message starts (after the time stamp and [Gather]), used for logging
+	private int messageStart;
+	private int[] argStart = new int[MAX_ARGS];
+	private int[] argEnd = new int[MAX_ARGS];
+	private int numArgs;
+
+	/**Parses a line received from the server, replacing whatever was parsed before. 
+	 * @param line the line as received from the server, including the time stamp
+	 * @return the kind of event the line is, {@link Tag#UNKNOWN} if it is not something the bot uses
+	 */
+	public Tag parse(String line)
+	{
+		this.line = line;
+		this.tag = Tag.UNKNOWN;
+		this.numArgs = 0;
+		//skip the time stamp
+		int pos = line.indexOf(' ')+1;
+		if(line.startsWith(GATHER_PREFIX, pos))
+		{
+			//skip the [Gather]
+			pos = line.indexOf(' ', pos)+1;
+			if(pos == 0) return tag;
+			messageStart = pos;
+			for(Tag gatherTag : GATHER_TAGS)
+			{
+				if(line.startsWith(gatherTag.keyword, pos))
+				{
+					tag = gatherTag;
+					break;
+				}
+			}
+		}
+		else if(line.startsWith(Tag.TICKETS.keyword, pos))
+		{
+			messageStart = pos;
+			tag = Tag.TICKETS;
+		}
+		if(tag != Tag.UNKNOWN) tokenize(messageStart);
+		return tag;
+	}
+
+	/**Finds the start and end of the first few whitespace separated arguments, the first argument is the keyword itself. 
+	 * @param pos where to start looking
+	 */
+	private void tokenize(int pos)
+	{
+		int length = line.length();
+		while(numArgs < MAX_ARGS)
+		{
+			while(pos < length && Character.isWhitespace(line.charAt(pos))) pos++;
+			if(pos >= length) return;
+			argStart[numArgs] = pos;
+			while(pos < length && !Character.isWhitespace(line.charAt(pos))) pos++;
+			argEnd[numArgs] = pos;
+			numArgs++;
+		}
+	}
+
+	/**
+	 * @return the kind of event the last parsed line was
+	 */
+	public Tag getTag()
+	{
+		return tag;
+	}
+
+	/**
+	 * @return the number of arguments found, including the keyword
+	 */
+	public int getNumArgs()
+	{
+		return numArgs;
+	}
+
+	/**Gets an argument as a string, this is the only part that makes a new string. 
+	 * @param i the index of the argument, 0 is the keyword
+	 * @return the argument
+	 * @throws IndexOutOfBoundsException if there aren't that many arguments
+	 */
+	public String getArg(int i)
+	{
+		checkArg(i);
+		return line.substring(argStart[i], argEnd[i]);
+	}
+
+	/**Gets everything after an argument, e.g. the message of a SAY line. 
+	 * @param i the index of the argument to start after
+	 * @return the rest of the line after the space that follows the argument, or a blank string if there is nothing after it
+	 */
+	public String getRestAfter(int i)
+	{
+		checkArg(i);
+		if(argEnd[i]+1 >= line.length()) return "";
+		return line.substring(argEnd[i]+1);
+	}
+
+	/**Reads an argument as an int without making a string. 
+	 * @param i the index of the argument
+	 * @return the value of the argument
+	 * @throws NumberFormatException if the argument is not a number or doesn't fit in an int
+	 */
+	public int getIntArg(int i)
+	{
+		long value = getLongArg(i);
+		if(value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) throw new NumberFormatException("Value out of range: "+getArg(i));
+		return (int)value;
+	}
+
+	/**Reads an argument as a long without making a string. 
+	 * @param i the index of the argument
+	 * @return the value of the argument
+	 * @throws NumberFormatException if the argument is not a number or doesn't fit in a long
+	 */
+	public long getLongArg(int i)
+	{
+		if(i >= numArgs) throw new NumberFormatException("Missing argument "+i);
+		int pos = argStart[i];
+		int end = argEnd[i];
+		boolean negative = false;
+		if(line.charAt(pos) == '-' || line.charAt(pos) == '+')
+		{
+			negative = line.charAt(pos) == '-';
+			pos++;
+		}
+		if(pos >= end) throw new NumberFormatException("For input string: \""+getArg(i)+"\"");
+		//accumulate negatively so that Long.MIN_VALUE can be read
+		long result = 0;
+		for(; pos < end; pos++)
+		{
+			int digit = Character.digit(line.charAt(pos), 10);
+			if(digit < 0 || result < (Long.MIN_VALUE+digit)/10) throw new NumberFormatException("For input string: \""+getArg(i)+"\"");
+			result = result*10 - digit;
+		}
+		if(!negative)
+		{
+			if(result == Long.MIN_VALUE) throw new NumberFormatException("For input string: \""+getArg(i)+"\"");
+			return -result;
+		}
+		return result;
+	}
+
+	/**
+	 * @return the gather message without the time stamp and [Gather], used for logging
+	 */
+	public String getMessage()
+	{
+		return line.substring(messageStart);
+	}
+
+	private void checkArg(int i)
+	{
+		if(i < 0 || i >= numArgs) throw new IndexOutOfBoundsException("Argument "+i+" of "+numArgs);
+	}
+}
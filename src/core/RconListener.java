@@ -1,5 +1,8 @@
 package core;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import discord4j.core.object.util.Snowflake;
 
 /**Listener object to be added to the KagServerChecker. Gets messages passed to it when they are received from the server. 
@@ -8,6 +11,13 @@ import discord4j.core.object.util.Snowflake;
  */
 public class RconListener
 {
+	static final Logger LOGGER = LoggerFactory.getLogger(RconListener.class);
+
+	//reused for every line, the listener is only ever called from its servers listener thread
+	private RconEvent event = new RconEvent();
+	//the gather object the server belongs to, looked up on the first line rather than every line
+	private GatherObject gather = null;
+
 	/**The function that is called when a message is received. 
 	 * @param msg the message received from the server
 	 * @param ip the ip address of the server
@@ -15,114 +25,100 @@ public class RconListener
 	 */
 	public void messageReceived(String msg, String ip, int port)
 	{
-		//remove time stamp
-		int index = msg.indexOf(" ");
-		msg = msg.substring(index+1);
-		
-		if(msg.startsWith("[Gather]"))
+		RconEvent.Tag tag = event.parse(msg);
+		if(tag == RconEvent.Tag.UNKNOWN) return;
+
+		if(gather==null) gather = DiscordBot.getGatherObjectForServer(ip, port);
+		if(gather==null) return;
+		if(tag != RconEvent.Tag.TICKETS && LOGGER.isDebugEnabled()) LOGGER.debug(event.getMessage());
+		switch(tag)
 		{
-			//trim off the [Gather]
-			index = msg.indexOf(" ");
-			String gatherMsg = msg.substring(index+1);
-			
-			GatherObject gather = DiscordBot.getGatherObjectForServer(ip, port);
-			System.out.println(gatherMsg);
-			if(gatherMsg.startsWith("SAY"))
-			{
-				index = gatherMsg.indexOf(" ");
-				gatherMsg = gatherMsg.substring(index+1);
-				
+			case SAY:
 				//separate player and message
-				index = gatherMsg.indexOf(" ");
-				String player = gatherMsg.substring(0,index);
-				index = gatherMsg.indexOf(" ");
-				gatherMsg = gatherMsg.substring(index+1);
-				
-				DiscordBot.sendMessage(gather.getCommandChannel(), "<"+player+"> "+gatherMsg);
-			}
-			else if(gatherMsg.startsWith("GAMEOVER"))
-			{
-				index = gatherMsg.indexOf(" ");
-				gatherMsg = gatherMsg.substring(index+1);
+				DiscordBot.sendMessage(gather.getCommandChannel(), "<"+event.getArg(1)+"> "+event.getRestAfter(1));
+				break;
+			case GAMEOVER:
+				//only queues the end of the game, the database and discord work is done by the end game pipeline
+				gather.endGame(ip, port, event.getIntArg(1));
+				break;
+			case RSUB:
+				gather.addSubRequest(event.getRestAfter(0), ip, port);
+				break;
+			case SUBVOTE:
+				gather.addSubVote(event.getArg(1), event.getArg(2), ip, port);
+				break;
+			case LINK:
+				this.linkReceived(gather, ip, port);
+				break;
+			case BUILDINGTIMEENDED:
+				gather.setBuildingTimeEnded(ip, port);
+				break;
+			case ROUNDSTARTED:
+				gather.setRoundStarted(ip, port);
+				break;
+			case TICKETS:
+				//only the latest counts are kept, they are applied to the game every ticket update interval
+				gather.queueTicketUpdate(ip, port, event.getIntArg(1), event.getIntArg(2));
+				break;
+			default:
+				break;
+		}
+	}
 
-				//just to make sure there isnt some strange cases of the end game detecting a full queue while someone is adding
-				synchronized(gather)
-				{
-					gather.endGame(ip, port, Integer.parseInt(gatherMsg));
-				}
-			}
-			else if(gatherMsg.startsWith("RSUB"))
-			{
-				index = gatherMsg.indexOf(" ");
-				gatherMsg = gatherMsg.substring(index+1);
-				
-				gather.addSubRequest(gatherMsg, ip, port);
-			}
-			else if(gatherMsg.startsWith("SUBVOTE"))
-			{
-				String[] args = gatherMsg.split("\\s");
-				gather.addSubVote(args[1], args[2], ip, port);
-			}
-			else if(gatherMsg.startsWith("LINK"))
+	/**Called when the connection to the server goes up or down, passes it on to the gather object so it knows which servers can be used. 
+	 * @param ip the ip address of the server
+	 * @param port the port of the server
+	 * @param connected true if the connection has just been made, false if it was lost
+	 */
+	public void connectionChanged(String ip, int port, boolean connected)
+	{
+		if(gather==null) gather = DiscordBot.getGatherObjectForServer(ip, port);
+		if(gather==null) return;
+		gather.serverConnectionChanged(ip, port, connected);
+	}
+
+	/**Handles a LINK message, which a player sends from the KAG server to finish linking their accounts. 
+	 * @param gather the gather object the server belongs to
+	 * @param ip the ip address of the server
+	 * @param port the port of the server
+	 */
+	private void linkReceived(GatherObject gather, String ip, int port)
+	{
+		long id = -1;
+		String username = "";
+		try
+		{
+			id = event.getLongArg(1);
+			username = event.getArg(2);
+			int returnVal = DiscordBot.doLinkRequest(username, id);
+			switch(returnVal)
 			{
-				String[] args = gatherMsg.split("\\s");
-				long id = -1;
-				String username = "";
-				try
-				{
-					String idString = args[1].trim();
-					id = Long.parseLong(idString);
-					username = args[2];
-					int returnVal = DiscordBot.doLinkRequest(username, id);
-					switch(returnVal)
-					{
-					case 1:
-						gather.getServer(ip, port).say("Accounts linked successfully, you can now join the queue in discord");
-						DiscordBot.sendMessage(gather.getCommandChannel(), DiscordBot.client.getUserById(Snowflake.of(id)).block().getMention()+" has sucessfully linked");
-						if(!DiscordBot.database.checkValidLink(username, id))
-						{
-							DiscordBot.sendMessage(gather.getCommandChannel(),"WARNING: problem with linked information detected, there maybe more than one entry for you. **Please share this error with someone that has database access.** (This should not prevent you playing in the short term, but may cause issues long term)");
-						}
-						break;
-					case -1:
-						gather.getServer(ip, port).say("There is no existing link request for that discord user");
-						break;
-					case -2:
-						gather.getServer(ip, port).say("The existing discord request for that discord user uses a different kag username, you should make a link request for the correct username in discord or login with the correct KAG account");
-						gather.getServer(ip, port).say("The username of the KAG account you are currently connected with is "+username);
-						break;
-					case -3:
-						gather.getServer(ip, port).say("Could not find a user for that discord id, did you type it correctly?");
-						break;
-					case -4:
-						DiscordBot.sendMessage(gather.getCommandChannel(), DiscordBot.client.getUserById(Snowflake.of(id)).block().getMention()+"WARNING: fatal problem with linked information detected, you maybe trying to cross link. **Please share this error with someone that has database access.**");
-						break;
-					}
-				}
-				catch (NumberFormatException e)
+			case 1:
+				gather.getServer(ip, port).say("Accounts linked successfully, you can now join the queue in discord");
+				DiscordBot.sendMessage(gather.getCommandChannel(), DiscordBot.client.getUserById(Snowflake.of(id)).block().getMention()+" has sucessfully linked");
+				if(!DiscordBot.database.checkValidLink(username, id))
 				{
-					gather.getServer(ip, port).say("An error occured reading the supplied discord id, did you type it correctly?");
+					DiscordBot.sendMessage(gather.getCommandChannel(),"WARNING: problem with linked information detected, there maybe more than one entry for you. **Please share this error with someone that has database access.** (This should not prevent you playing in the short term, but may cause issues long term)");
 				}
-			}
-			else if(gatherMsg.startsWith("BUILDINGTIMEENDED"))
-			{
-				gather.setBuildingTimeEnded(ip, port);
-			}
-			else if(gatherMsg.startsWith("ROUNDSTARTED"))
-			{
-				gather.setRoundStarted(ip, port);
+				break;
+			case -1:
+				gather.getServer(ip, port).say("There is no existing link request for that discord user");
+				break;
+			case -2:
+				gather.getServer(ip, port).say("The existing discord request for that discord user uses a different kag username, you should make a link request for the correct username in discord or login with the correct KAG account");
+				gather.getServer(ip, port).say("The username of the KAG account you are currently connected with is "+username);
+				break;
+			case -3:
+				gather.getServer(ip, port).say("Could not find a user for that discord id, did you type it correctly?");
+				break;
+			case -4:
+				DiscordBot.sendMessage(gather.getCommandChannel(), DiscordBot.client.getUserById(Snowflake.of(id)).block().getMention()+"WARNING: fatal problem with linked information detected, you maybe trying to cross link. **Please share this error with someone that has database access.**");
+				break;
 			}
 		}
-		else if(msg.startsWith("[Tickets]"))
+		catch (NumberFormatException e)
 		{
-			GatherObject gather = DiscordBot.getGatherObjectForServer(ip, port);
-			if(gather==null) return;
-			String[] args = msg.split("\\s");
-			int team=Integer.parseInt(args[1]);
-			int tickets=Integer.parseInt(args[2]);
-			gather.updateTickets(ip, port, team, tickets);
+			gather.getServer(ip, port).say("An error occured reading the supplied discord id, did you type it correctly?");
 		}
-		
-		
 	}
 }
@@ -0,0 +1,164 @@
+package core;
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**Runs a single selector thread that services the tcpr connections of every KAG server.
+ * <p>
+ * The thread sleeps in {@link Selector#select()} until one of the connections has data to read, has room to write queued commands, or another thread asks it to do something.
+ * Any change to the registered channels must be done on the selector thread, so other threads pass those changes in using {@link #execute(Runnable)}.
+ * @author cameron
+ * @see KagServerChecker
+ */
+public class RconMultiplexer implements Runnable
+{
+	static final Logger LOGGER = LoggerFactory.getLogger(RconMultiplexer.class);
+	private static RconMultiplexer instance;
+
+	private Selector selector;
+	private Queue<Runnable> pendingTasks;
+	private ScheduledExecutorService scheduler;
+	//connects can block for the whole connect timeout, so they are kept off the scheduler thread
+	private ExecutorService connectExecutor;
+	private Thread selectorThread;
+
+	private RconMultiplexer() throws IOException
+	{
+		selector = Selector.open();
+		pendingTasks = new ConcurrentLinkedQueue<Runnable>();
+		scheduler = Executors.newSingleThreadScheduledExecutor(runnable ->
+		{
+			Thread thread = new Thread(runnable, "RCON scheduler");
+			thread.setDaemon(true);
+			return thread;
+		});
+		AtomicInteger connectThreadNumber = new AtomicInteger();
+		connectExecutor = Executors.newCachedThreadPool(runnable ->
+		{
+			Thread thread = new Thread(runnable, "RCON connect "+connectThreadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		selectorThread = new Thread(this, "RCON selector");
+		selectorThread.setDaemon(true);
+		selectorThread.start();
+	}
+
+	/**Gets the shared multiplexer, starting the selector thread the first time it is needed.
+	 * @return the multiplexer used by all KAG server connections
+	 * @throws IOException if the selector could not be opened
+	 */
+	public static synchronized RconMultiplexer getInstance() throws IOException
+	{
+		if(instance == null)
+		{
+			instance = new RconMultiplexer();
+		}
+		return instance;
+	}
+
+	/**Getter for the selector, should only be used from the selector thread.
+	 * @return the selector the connections are registered with
+	 */
+	Selector getSelector()
+	{
+		return selector;
+	}
+
+	/**Runs a task on the selector thread, waking the selector up if it is currently waiting for events.
+	 * @param task the task to run
+	 */
+	public void execute(Runnable task)
+	{
+		pendingTasks.add(task);
+		selector.wakeup();
+	}
+
+	/**Runs a task after a delay. The task is run on the scheduler thread, which is shared by every connection, so it must not block for long.
+	 * @param task the task to run
+	 * @param delay the delay in milliseconds
+	 * @return the future that can be used to cancel the task
+	 * @see #scheduleBlocking(Runnable, long)
+	 */
+	public ScheduledFuture<?> schedule(Runnable task, long delay)
+	{
+		return scheduler.schedule(task, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**Runs a task that might block for a long time (e.g. connecting) after a delay. The delay is timed on the scheduler thread, then the task is run on a connect thread, so a server that is slow to connect doesn't hold up the heartbeats and reconnects of the others.
+	 * @param task the task to run
+	 * @param delay the delay in milliseconds
+	 * @return the future that can be used to cancel the task before it starts
+	 */
+	public ScheduledFuture<?> scheduleBlocking(Runnable task, long delay)
+	{
+		return scheduler.schedule(() -> connectExecutor.execute(task), delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**Runs all the tasks that were passed in by other threads since the last wake up.
+	 */
+	private void runPendingTasks()
+	{
+		Runnable task;
+		while((task = pendingTasks.poll()) != null)
+		{
+			try
+			{
+				task.run();
+			}
+			catch(RuntimeException e)
+			{
+				LOGGER.error("Error running rcon selector task", e);
+			}
+		}
+	}
+
+	/**The selector loop. Waits for events, then passes readable and writable events to the KagServerChecker attached to the key.
+	 * @see java.lang.Runnable#run()
+	 */
+	public void run()
+	{
+		while(!Thread.interrupted())
+		{
+			try
+			{
+				selector.select();
+			}
+			catch (IOException e)
+			{
+				LOGGER.error("Error waiting for rcon events", e);
+				continue;
+			}
+			runPendingTasks();
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while(keys.hasNext())
+			{
+				SelectionKey key = keys.next();
+				keys.remove();
+				KagServerChecker checker = (KagServerChecker)key.attachment();
+				try
+				{
+					if(key.isValid() && key.isReadable()) checker.onReadable();
+					if(key.isValid() && key.isWritable()) checker.onWritable();
+				}
+				catch (IOException e)
+				{
+					LOGGER.info("connection loss detected: "+e.getMessage());
+					checker.connectionLost();
+				}
+			}
+		}
+	}
+}
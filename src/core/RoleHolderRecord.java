@@ -0,0 +1,138 @@
+package core;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import discord4j.core.object.util.Snowflake;
+
+/**Remembers which members the bot has given a role to, saved to a file so it is still known after the bot restarts.
+ * <p>
+ * Used for the queue role, so that anyone left with the role when the bot stopped can have it removed at startup without going through every member of the guild.
+ * The file is rewritten every time the record changes, this is fine because it only holds the few members that currently have the role.
+ * @author cameron
+ * @see GatherObject#clearQueueRole()
+ */
+public class RoleHolderRecord
+{
+	static final Logger LOGGER = LoggerFactory.getLogger(RoleHolderRecord.class);
+	private static final Type RECORD_TYPE = new TypeToken<HashMap<String, HashSet<String>>>(){}.getType();
+
+	private String fileName;
+	//role id to the ids of the members that have it
+	private Map<String, Set<String>> holders;
+	//false if there was no saved file to load, meaning nothing is known about who had the roles before now
+	private boolean loaded;
+
+	RoleHolderRecord(String fileName)
+	{
+		this.fileName = fileName;
+		this.holders = new HashMap<String, Set<String>>();
+		this.loaded = false;
+	}
+
+	/**Loads the record from the file, if there is one.
+	 * @return true if the file was loaded
+	 */
+	public synchronized boolean load()
+	{
+		try(Reader reader = new FileReader(fileName))
+		{
+			Map<String, Set<String>> saved = new Gson().fromJson(reader, RECORD_TYPE);
+			holders = saved == null ? new HashMap<String, Set<String>>() : saved;
+			loaded = true;
+		}
+		catch(IOException e)
+		{
+			LOGGER.info("No role record loaded from "+fileName+": "+e.getMessage());
+		}
+		catch(JsonParseException e)
+		{
+			LOGGER.warn("Could not read the role record in "+fileName, e);
+		}
+		return loaded;
+	}
+
+	/**Writes the record to the file, must hold the lock.
+	 */
+	private void save()
+	{
+		try(Writer writer = new FileWriter(fileName))
+		{
+			new Gson().toJson(holders, RECORD_TYPE, writer);
+			loaded = true;
+		}
+		catch(IOException e)
+		{
+			LOGGER.warn("Could not save the role record to "+fileName, e);
+		}
+	}
+
+	/**
+	 * @return true if the record was loaded from a file or has been saved since the bot started
+	 */
+	public synchronized boolean isLoaded()
+	{
+		return loaded;
+	}
+
+	/**Records that a member was given a role
+	 * @param roleId the role
+	 * @param memberId the member that was given it
+	 */
+	public synchronized void added(Snowflake roleId, Snowflake memberId)
+	{
+		if(holders.computeIfAbsent(roleId.asString(), id -> new HashSet<String>()).add(memberId.asString())) save();
+	}
+
+	/**Records that a role was taken from a member
+	 * @param roleId the role
+	 * @param memberId the member that it was taken from
+	 */
+	public synchronized void removed(Snowflake roleId, Snowflake memberId)
+	{
+		Set<String> members = holders.get(roleId.asString());
+		if(members == null || !members.remove(memberId.asString())) return;
+		if(members.isEmpty()) holders.remove(roleId.asString());
+		save();
+	}
+
+	/**Forgets everyone that has a role, used once the role has been removed from everyone some other way
+	 * @param roleId the role
+	 */
+	public synchronized void clear(Snowflake roleId)
+	{
+		holders.remove(roleId.asString());
+		save();
+	}
+
+	/**Gets the members that have been given a role
+	 * @param roleId the role
+	 * @return a copy of the set of member ids
+	 */
+	public synchronized Set<Snowflake> getHolders(Snowflake roleId)
+	{
+		Set<String> members = holders.get(roleId.asString());
+		if(members == null) return Collections.emptySet();
+		Set<Snowflake> ids = new HashSet<Snowflake>();
+		for(String id : members)
+		{
+			ids.add(Snowflake.of(id));
+		}
+		return ids;
+	}
+}
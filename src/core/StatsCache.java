@@ -0,0 +1,446 @@
+package core;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+
+/**Cache of player stats in front of {@link GatherDB}, so that commands like !stats don't need to query the database every time.
+ * <p>
+ * Players can be looked up by discord id or by KAG name (ignoring case). The least recently used players are evicted once the cache is full.
+ * <p>
+ * Game results are written behind: the stat changes are applied to the cached players straight away, and the results are saved to the database in the background no later than {@link #MAX_STALENESS} after the game ended.
+ * Changes that have not been saved yet are also applied to players loaded from the database, so reads never go backwards.
+ * A result that fails to save {@link #MAX_SAVE_ATTEMPTS} times is given up on and written to {@link #FAILED_RESULTS_FILE} instead, so it doesn't hold up the results after it.
+ * <p>
+ * The database is never used while holding the lock, so lookups aren't held up by a slow save or a database outage.
+ * @author cameron
+ * @see GatherDB#saveGameResult(GameResultBatch)
+ */
+public class StatsCache
+{
+	static final Logger LOGGER = LoggerFactory.getLogger(StatsCache.class);
+	private static final int MAX_SIZE = 500;
+	//the longest a game result can wait before it is saved to the database
+	private static final long MAX_STALENESS = 10000;		//milliseconds
+	//how long to wait before retrying when saving fails
+	private static final long RETRY_DELAY = 30000;		//milliseconds
+	//how many times saving a result is tried before giving up on it
+	private static final int MAX_SAVE_ATTEMPTS = 5;
+	//results that couldn't be saved are added to this file, one json object per line, so they can be put in the database by hand
+	private static final String FAILED_RESULTS_FILE = "failedresults.json";
+
+	private GatherDB database;
+	//keyed by lower case kag name, in access order so the first entry is the least recently used
+	private LinkedHashMap<String, StatsObject> statsByName;
+	private Map<Long, String> nameByDiscordId;
+	//game results that haven't been saved yet, and the sum of their changes for each player
+	private List<GameResultBatch> pendingResults;
+	private Map<String, StatsObject> pendingChanges;
+	private ScheduledExecutorService flushExecutor;
+	private ScheduledFuture<?> flushTask;
+	//only one flush runs at a time, so a result can't be saved twice by the scheduled flush and the shutdown flush
+	private final Object flushLock = new Object();
+	//true while a result is being saved, and counts the saves that have finished, so reads can tell if a save happened while they were reading
+	private boolean saving;
+	private long saveCount;
+
+	private AtomicLong hits;
+	private AtomicLong misses;
+	private AtomicLong evictions;
+	private AtomicLong flushedResults;
+	private AtomicLong failedResults;
+
+	StatsCache(GatherDB database)
+	{
+		this.database = database;
+		this.statsByName = new LinkedHashMap<String, StatsObject>(16, 0.75f, true);
+		this.nameByDiscordId = new HashMap<Long, String>();
+		this.pendingResults = new ArrayList<GameResultBatch>();
+		this.pendingChanges = new HashMap<String, StatsObject>();
+		this.hits = new AtomicLong();
+		this.misses = new AtomicLong();
+		this.evictions = new AtomicLong();
+		this.flushedResults = new AtomicLong();
+		this.failedResults = new AtomicLong();
+		this.flushExecutor = Executors.newSingleThreadScheduledExecutor(runnable ->
+		{
+			Thread thread = new Thread(runnable, "Stats flush");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**Gets the stats of a player by KAG name.
+	 * @param kagName the KAG username of the player, case doesn't matter
+	 * @return a copy of the players stats, or null if they couldn't be found
+	 * @see GatherDB#getStats(String)
+	 */
+	public StatsObject getStats(String kagName)
+	{
+		if(kagName == null) return null;
+		synchronized(this)
+		{
+			StatsObject stats = statsByName.get(kagName.toLowerCase());
+			if(stats != null)
+			{
+				hits.incrementAndGet();
+				return copy(stats);
+			}
+			misses.incrementAndGet();
+		}
+		return readDatabase(() -> database.getStats(kagName), stats -> copyOrNull(load(stats)));
+	}
+
+	/**Gets the stats of a player by discord id.
+	 * @param discordId the discord id of the player
+	 * @return a copy of the players stats, or null if they couldn't be found
+	 * @see GatherDB#getStats(long)
+	 */
+	public StatsObject getStats(long discordId)
+	{
+		synchronized(this)
+		{
+			String kagName = nameByDiscordId.get(discordId);
+			StatsObject stats = kagName == null ? null : statsByName.get(kagName);
+			if(stats != null)
+			{
+				hits.incrementAndGet();
+				return copy(stats);
+			}
+			misses.incrementAndGet();
+		}
+		return readDatabase(() -> database.getStats(discordId), stats -> copyOrNull(load(stats)));
+	}
+
+	/**Gets the KAG name linked to a discord id.
+	 * @param discordId the discord id of the player
+	 * @return the KAG username, or a blank string if no user was found
+	 * @see GatherDB#getKagName(long)
+	 */
+	public String getKagName(long discordId)
+	{
+		StatsObject stats = getStats(discordId);
+		if(stats == null) return "";
+		return stats.kagname;
+	}
+
+	/**Gets the discord id linked to a KAG name.
+	 * @param kagName the KAG username of the player, case doesn't matter
+	 * @return the discord id, or -1 if no user was found
+	 * @see GatherDB#getDiscordID(String)
+	 */
+	public long getDiscordID(String kagName)
+	{
+		StatsObject stats = getStats(kagName);
+		if(stats == null) return -1L;
+		return stats.discordid;
+	}
+
+	/**Reads something from the database without holding the lock, then passes it to a function that is run while holding the lock.
+	 * <p>
+	 * If a result was saved while reading, it can't be told if the read includes that result or not, so adding the pending changes could count it twice. 
+	 * In that case the read is done again, waiting for a save that is already running to finish first. Only a single save is waited for, not the whole flush.
+	 * @param read reads from the database
+	 * @param apply uses what was read, run while holding the lock
+	 * @return the result of apply
+	 */
+	private <T, R> R readDatabase(Supplier<T> read, Function<T, R> apply)
+	{
+		while(true)
+		{
+			long startCount;
+			synchronized(this)
+			{
+				while(saving)
+				{
+					try
+					{
+						wait();
+					}
+					catch (InterruptedException e)
+					{
+						Thread.currentThread().interrupt();
+						break;
+					}
+				}
+				startCount = saveCount;
+			}
+			T value = read.get();
+			synchronized(this)
+			{
+				if((!saving && saveCount == startCount) || Thread.currentThread().isInterrupted()) return apply.apply(value);
+			}
+		}
+	}
+
+	/**Adds a player loaded from the database to the cache, applying any changes that haven't been saved yet. Must hold the lock.
+	 * @param stats the stats loaded from the database, can be null
+	 * @return the cached stats
+	 */
+	private StatsObject load(StatsObject stats)
+	{
+		if(stats == null || stats.kagname == null) return null;
+		StatsObject pending = pendingChanges.get(stats.kagname.toLowerCase());
+		if(pending != null) addChanges(stats, pending, 1);
+		statsByName.put(stats.kagname.toLowerCase(), stats);
+		nameByDiscordId.put(stats.discordid, stats.kagname.toLowerCase());
+		evict();
+		return stats;
+	}
+
+	/**Removes the least recently used players until the cache is back under its maximum size. Must hold the lock.
+	 */
+	private void evict()
+	{
+		Iterator<StatsObject> itr = statsByName.values().iterator();
+		while(statsByName.size() > MAX_SIZE && itr.hasNext())
+		{
+			StatsObject stats = itr.next();
+			itr.remove();
+			nameByDiscordId.remove(stats.discordid);
+			evictions.incrementAndGet();
+		}
+	}
+
+	/**Removes a player from the cache, used when their link details change.
+	 * @param kagName the KAG username of the player, can be null
+	 * @param discordId the discord id of the player
+	 */
+	public synchronized void invalidate(String kagName, long discordId)
+	{
+		String cachedName = nameByDiscordId.remove(discordId);
+		if(cachedName != null) statsByName.remove(cachedName);
+		if(kagName != null)
+		{
+			StatsObject stats = statsByName.remove(kagName.toLowerCase());
+			if(stats != null) nameByDiscordId.remove(stats.discordid);
+		}
+	}
+
+	/**Records the result of a game. The changes are applied to the cache straight away, and the result is queued to be saved to the database.
+	 * @param batch the result of the game
+	 */
+	public synchronized void recordGameResult(GameResultBatch batch)
+	{
+		for(StatsObject changes : batch.getStatChanges())
+		{
+			String key = changes.kagname.toLowerCase();
+			StatsObject cached = statsByName.get(key);
+			if(cached != null) addChanges(cached, changes, 1);
+			StatsObject pending = pendingChanges.get(key);
+			if(pending == null)
+			{
+				pending = new StatsObject();
+				pending.kagname = changes.kagname;
+				pendingChanges.put(key, pending);
+			}
+			addChanges(pending, changes, 1);
+		}
+		pendingResults.add(batch);
+		//the rankings are updated now rather than when saved, so the scoreboard is right as soon as the game ends
+		if(DiscordBot.leaderboard != null) DiscordBot.leaderboard.applyGameResult(batch);
+		if(flushTask == null) flushTask = flushExecutor.schedule(this::flush, MAX_STALENESS, TimeUnit.MILLISECONDS);
+	}
+
+	/**Saves every game result that is waiting to the database. Each result is saved in its own transaction, a result that fails to save stays queued and is retried later. 
+	 * A failed result doesn't stop the ones after it from being saved, and is given up on after {@link #MAX_SAVE_ATTEMPTS} tries.
+	 */
+	public void flush()
+	{
+		saveWaiting(false);
+	}
+
+	/**Saves every game result that is waiting, used when the bot stops. Anything that still can't be saved is written to {@link #FAILED_RESULTS_FILE} rather than being lost.
+	 */
+	public void shutdown()
+	{
+		saveWaiting(true);
+	}
+
+	/**Saves the waiting game results, the database is used without holding the lock.
+	 * @param lastTry true to give up on any result that fails to save straight away, rather than retrying it later
+	 */
+	private void saveWaiting(boolean lastTry)
+	{
+		synchronized(flushLock)
+		{
+			List<GameResultBatch> batches;
+			synchronized(this)
+			{
+				flushTask = null;
+				batches = new ArrayList<GameResultBatch>(pendingResults);
+			}
+			for(GameResultBatch batch : batches)
+			{
+				synchronized(this)
+				{
+					saving = true;
+				}
+				int val = -1;
+				try
+				{
+					val = database.saveGameResult(batch);
+				}
+				finally
+				{
+					synchronized(this)
+					{
+						saving = false;
+						saveCount++;
+						if(val >= 0)
+						{
+							//now the database has these changes, so they shouldn't be added to players loaded from it any more
+							removePending(batch);
+							flushedResults.incrementAndGet();
+							LOGGER.info("Saved result of game #"+batch.getGameId()+" "+val);
+						}
+						else
+						{
+							int attempts = batch.saveFailed();
+							if(lastTry || attempts >= MAX_SAVE_ATTEMPTS) giveUp(batch, attempts);
+							else LOGGER.warn("Failed to save the result of game #"+batch.getGameId()+" (attempt "+attempts+" of "+MAX_SAVE_ATTEMPTS+"), retrying later");
+						}
+						notifyAll();
+					}
+				}
+			}
+			synchronized(this)
+			{
+				if(!pendingResults.isEmpty() && flushTask == null && !lastTry) flushTask = flushExecutor.schedule(this::flush, RETRY_DELAY, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	/**Takes a result out of the waiting results, and takes its changes away from the pending changes. Must hold the lock.
+	 * @param batch the result to remove
+	 */
+	private void removePending(GameResultBatch batch)
+	{
+		pendingResults.remove(batch);
+		for(StatsObject changes : batch.getStatChanges())
+		{
+			String key = changes.kagname.toLowerCase();
+			StatsObject pending = pendingChanges.get(key);
+			if(pending == null) continue;
+			addChanges(pending, changes, -1);
+			if(isEmpty(pending)) pendingChanges.remove(key);
+		}
+	}
+
+	/**Gives up on saving a result. It is written to {@link #FAILED_RESULTS_FILE}, and the players in it are taken out of the cache so they are read from the database again. Must hold the lock.
+	 * @param batch the result that couldn't be saved
+	 * @param attempts how many times saving it was tried
+	 */
+	private void giveUp(GameResultBatch batch, int attempts)
+	{
+		removePending(batch);
+		for(StatsObject changes : batch.getStatChanges())
+		{
+			StatsObject stats = statsByName.remove(changes.kagname.toLowerCase());
+			if(stats != null) nameByDiscordId.remove(stats.discordid);
+		}
+		failedResults.incrementAndGet();
+		try(Writer writer = new FileWriter(FAILED_RESULTS_FILE, true))
+		{
+			writer.write(new Gson().toJson(batch));
+			writer.write(System.lineSeparator());
+			LOGGER.error("Gave up saving the result of game #"+batch.getGameId()+" after "+attempts+" attempts, it was added to "+FAILED_RESULTS_FILE);
+		}
+		catch(IOException e)
+		{
+			LOGGER.error("Gave up saving the result of game #"+batch.getGameId()+" after "+attempts+" attempts, and could not add it to "+FAILED_RESULTS_FILE+": "+new Gson().toJson(batch), e);
+		}
+	}
+
+	/**Gets the stats of every player from the database, with any changes that haven't been saved yet added on. 
+	 * The read is done again if a result was saved part way through, so it can't be counted twice. 
+	 * @return a list of StatsObject for every row of the players table, null if something went wrong
+	 * @see GatherDB#getAllPlayers()
+	 */
+	public List<StatsObject> getAllPlayers()
+	{
+		return readDatabase(database::getAllPlayers, list ->
+		{
+			if(list == null) return null;
+			for(StatsObject stats : list)
+			{
+				if(stats.kagname == null) continue;
+				StatsObject pending = pendingChanges.get(stats.kagname.toLowerCase());
+				if(pending != null) addChanges(stats, pending, 1);
+			}
+			return list;
+		});
+	}
+
+	/**Adds one set of stat changes to a StatsObject.
+	 * @param stats the object to change
+	 * @param changes the changes to add
+	 * @param sign 1 to add the changes, -1 to take them away
+	 */
+	private static void addChanges(StatsObject stats, StatsObject changes, int sign)
+	{
+		stats.gamesplayed += sign*changes.gamesplayed;
+		stats.wins += sign*changes.wins;
+		stats.losses += sign*changes.losses;
+		stats.draws += sign*changes.draws;
+		stats.desertions += sign*changes.desertions;
+		stats.substitutions += sign*changes.substitutions;
+		stats.desertionlosses += sign*changes.desertionlosses;
+		stats.substitutionwins += sign*changes.substitutionwins;
+	}
+
+	/**Checks if a set of stat changes doesn't change anything.
+	 * @param changes the changes to check
+	 * @return true if every change is 0
+	 */
+	private static boolean isEmpty(StatsObject changes)
+	{
+		return changes.gamesplayed==0 && changes.wins==0 && changes.losses==0 && changes.draws==0 && changes.desertions==0
+				&& changes.substitutions==0 && changes.desertionlosses==0 && changes.substitutionwins==0;
+	}
+
+	/**Copies a StatsObject so that callers can't change the cached stats.
+	 * @param stats the stats to copy
+	 * @return a new StatsObject with the same values
+	 */
+	private static StatsObject copy(StatsObject stats)
+	{
+		StatsObject copy = new StatsObject();
+		copy.kagname = stats.kagname;
+		copy.discordid = stats.discordid;
+		addChanges(copy, stats, 1);
+		return copy;
+	}
+
+	private static StatsObject copyOrNull(StatsObject stats)
+	{
+		if(stats == null) return null;
+		return copy(stats);
+	}
+
+	/**Gets a summary of how well the cache is working.
+	 * @return a string with the size, hits, misses, evictions and pending and failed results
+	 */
+	public synchronized String getStatsString()
+	{
+		return "size: "+statsByName.size()+"/"+MAX_SIZE+", hits: "+hits.get()+", misses: "+misses.get()+", evictions: "+evictions.get()
+				+", results saved: "+flushedResults.get()+", results waiting: "+pendingResults.size()+", results given up on: "+failedResults.get();
+	}
+}
@@ -75,7 +75,7 @@ public class StatsObject {
 	public double getMmrDouble()
 	{
 		if (mmr.getMmr() == -1) {
-			return calculateMmr(wins - ((desertions + 0.0) / 2), gamesplayed);
+			return calculateRating(wins, desertions, gamesplayed);
 		}
 		return mmr.getMmr();
 	}
@@ -91,12 +91,25 @@ public class StatsObject {
 		return (int) mmr.getMmr();
 	}
 	
+	/**Calculates the rating of a player from their stats. This is the only place the rating formula is defined, 
+	 * it is used for the mmr column in the database as well as anything calculated in the bot. 
+	 * @param wins user's wins
+	 * @param desertions user's desertions, each one takes away half a win
+	 * @param gamesplayed user's total games
+	 * @return MMR as double
+	 * @see GatherDB#addRatingColumn()
+	 */
+	public static double calculateRating(int wins, int desertions, int gamesplayed)
+	{
+		return calculateMmr(wins - ((desertions + 0.0) / 2), gamesplayed);
+	}
+	
 	/**Function for calculating MMR using new algorithm
 	 * @return MMR as double
 	 * @param pos user's wins (optional desertion punishment)
 	 * @param n user's total games
 	 */
-	public double calculateMmr(Double pos, int n)
+	public static double calculateMmr(Double pos, int n)
 	{
 		if (pos <= 0 || n == 0)
 		{
@@ -110,7 +123,5 @@ public class StatsObject {
 		phat = 1 * pos / n;
 
 		return (phat + z*z/(2*n) - z * Math.sqrt((phat*(1-phat)+z*z/(4*n))/n))/(1+z*z/n);
-
-		// For SQL query: ((1*(CASE WHEN wins-(desertions/2)<0 THEN 0 ELSE wins-(desertions/2) END))/gamesplayed)+1.96*1.96/(2*gamesplayed)-1.96*SQRT(((1*(wins-(desertions/2))/gamesplayed)*(1-(1*(wins-(desertions/2))/gamesplayed))+1.96*1.96/(4*gamesplayed))/gamesplayed))/(1+1.96*1.96/gamesplayed)
 	}
 }
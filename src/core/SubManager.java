@@ -188,7 +188,7 @@ public class SubManager
 	private SubstitutionObject makeSub(SubRequestObject sub, PlayerObject playerTakingSpot)
 	{
 		PlayerObject playerBeingReplaced = sub.playerToBeReplaced;
-		sub.game.replacePlayer(playerBeingReplaced, playerTakingSpot);
+		gather.replacePlayer(sub.game, playerBeingReplaced, playerTakingSpot);
 		removeSubRequest(sub);
 		return new SubstitutionObject(playerBeingReplaced, playerTakingSpot, sub.game);
 	}
@@ -0,0 +1,301 @@
+package core;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import discord4j.core.object.entity.Member;
+import discord4j.core.object.entity.Role;
+import discord4j.core.object.util.Snowflake;
+import reactor.core.publisher.Mono;
+
+/**Keeps the Blue/Red team roles for each game that can be running at once, so they can be reused instead of created and deleted for every game.
+ * <p>
+ * Creating, moving and deleting roles are slow and heavily rate limited, and used to hold up every game start.
+ * Now a pair of roles is only created when every existing pair is in use, after that a game just takes a free pair and renames it with its game number.
+ * The pool remembers who it gave each role to, so when the roles are handed out it only adds and removes the members that changed.
+ * Team roles left over from before the bot restarted are taken into the pool at startup rather than being left behind.
+ * @author cameron
+ * @see GatherObject#startGame()
+ */
+public class TeamRolePool
+{
+	static final Logger LOGGER = LoggerFactory.getLogger(TeamRolePool.class);
+	private static final Pattern TEAM_ROLE_NAME = Pattern.compile("(Blue|Red) Team #(\\d+)");
+
+	/**A Blue and Red role pair, along with who the bot has given each role to
+	 */
+	private static class Slot
+	{
+		private Role blue;
+		private Role red;
+		private String blueName;
+		private String redName;
+		private Map<Snowflake, Member> blueHolders = new HashMap<Snowflake, Member>();
+		private Map<Snowflake, Member> redHolders = new HashMap<Snowflake, Member>();
+
+		Slot(Role blue, Role red)
+		{
+			this.blue = blue;
+			this.red = red;
+			this.blueName = blue.getName();
+			this.redName = red.getName();
+		}
+	}
+
+	private GatherObject gather;
+	private Deque<Slot> free;
+	//game id to the roles the game is using
+	private Map<Integer, Slot> inUse;
+	private AtomicLong created;
+	private AtomicLong reused;
+
+	TeamRolePool(GatherObject gather)
+	{
+		this.gather = gather;
+		this.free = new ArrayDeque<Slot>();
+		this.inUse = new HashMap<Integer, Slot>();
+		this.created = new AtomicLong();
+		this.reused = new AtomicLong();
+	}
+
+	/**Takes any team roles already in the guild into the pool, pairing the Blue and Red roles with the same game number. Used at startup.
+	 * <p>
+	 * Members can still have these roles from a game that was running when the bot stopped, so the members are checked once and anyone with one of the roles is recorded as holding it.
+	 * That way they have the role taken off when the pair is reused, rather than showing up in the next game's team.
+	 */
+	public void adoptExistingRoles()
+	{
+		Map<String, Role> blues = new HashMap<String, Role>();
+		Map<String, Role> reds = new HashMap<String, Role>();
+		List<Role> roles = gather.getGuild().getRoles().collectList().block();
+		if(roles == null) return;
+		for(Role role : roles)
+		{
+			Matcher matcher = TEAM_ROLE_NAME.matcher(role.getName());
+			if(!matcher.matches()) continue;
+			if(matcher.group(1).equals("Blue")) blues.put(matcher.group(2), role);
+			else reds.put(matcher.group(2), role);
+		}
+		List<Slot> adopted = new ArrayList<Slot>();
+		for(Map.Entry<String, Role> entry : blues.entrySet())
+		{
+			Role red = reds.get(entry.getKey());
+			if(red != null) adopted.add(new Slot(entry.getValue(), red));
+		}
+		int holders = 0;
+		if(!adopted.isEmpty())
+		{
+			List<Member> members = gather.getGuild().getMembers().collectList().block();
+			if(members != null)
+			{
+				for(Member member : members)
+				{
+					for(Slot slot : adopted)
+					{
+						if(member.getRoleIds().contains(slot.blue.getId()))
+						{
+							slot.blueHolders.put(member.getId(), member);
+							holders++;
+						}
+						if(member.getRoleIds().contains(slot.red.getId()))
+						{
+							slot.redHolders.put(member.getId(), member);
+							holders++;
+						}
+					}
+				}
+			}
+		}
+		synchronized(this)
+		{
+			free.addAll(adopted);
+			LOGGER.info("Adopted "+adopted.size()+" existing team role pairs, held by "+holders+" members");
+		}
+	}
+
+	/**Gives a game a pair of team roles, reusing a free pair if there is one. This only blocks if a new pair needs to be created.
+	 * The free pair is renamed in the background, the players still need to be given the roles with {@link #assignMembers(GatherGame)}.
+	 * @param game the game that needs roles
+	 */
+	public void acquire(GatherGame game)
+	{
+		Slot slot;
+		synchronized(this)
+		{
+			slot = free.poll();
+		}
+		if(slot == null)
+		{
+			slot = createSlot(game.getGameID());
+			created.incrementAndGet();
+		}
+		else
+		{
+			reused.incrementAndGet();
+			DiscordBot.runAsync(rename(slot, game.getGameID()), "renaming team roles for game #"+game.getGameID());
+		}
+		synchronized(this)
+		{
+			inUse.put(game.getGameID(), slot);
+		}
+		game.setBlueRole(slot.blue);
+		game.setRedRole(slot.red);
+	}
+
+	/**Creates a new pair of team roles, placed just above the queue role. This blocks as the roles are needed straight away.
+	 * @param gameId the game number to name the roles with
+	 * @return the new pair of roles
+	 */
+	private Slot createSlot(int gameId)
+	{
+		int queueRolePosition = gather.getQueueRole().getPosition().block();
+		Role blue = gather.getGuild().createRole(roleSpec ->{
+			roleSpec.setName("Blue Team #"+gameId);
+			roleSpec.setHoist(true);
+			roleSpec.setMentionable(true);
+		}).block();
+		Role red = gather.getGuild().createRole(roleSpec ->{
+			roleSpec.setName("Red Team #"+gameId);
+			roleSpec.setHoist(true);
+			roleSpec.setMentionable(true);
+		}).block();
+		//the position only needs setting once, reused roles keep it
+		Mono.when(
+				DiscordBot.logErrors(blue.changePosition(queueRolePosition+1).then(), "moving blue role"),
+				DiscordBot.logErrors(red.changePosition(queueRolePosition+2).then(), "moving red role")).block();
+		LOGGER.info("Created team roles for game #"+gameId);
+		return new Slot(blue, red);
+	}
+
+	/**Renames a pair of roles for a new game, skipping any that already have the right name
+	 * @param slot the roles to rename
+	 * @param gameId the game number
+	 * @return a Mono that completes when the roles are renamed
+	 */
+	private Mono<Void> rename(Slot slot, int gameId)
+	{
+		String blueName = "Blue Team #"+gameId;
+		String redName = "Red Team #"+gameId;
+		Mono<Void> blue = Mono.empty();
+		Mono<Void> red = Mono.empty();
+		if(!blueName.equals(slot.blueName))
+		{
+			slot.blueName = blueName;
+			blue = DiscordBot.logErrors(slot.blue.edit(spec -> spec.setName(blueName)).then(), "renaming blue role");
+		}
+		if(!redName.equals(slot.redName))
+		{
+			slot.redName = redName;
+			red = DiscordBot.logErrors(slot.red.edit(spec -> spec.setName(redName)).then(), "renaming red role");
+		}
+		return Mono.when(blue, red);
+	}
+
+	/**Gives the players of a game their team role, only changing the members that don't already have the right role.
+	 * @param game the game, must have been given roles with {@link #acquire(GatherGame)}
+	 * @return a Mono that completes when the roles have been changed
+	 */
+	public Mono<Void> assignMembers(GatherGame game)
+	{
+		Map<Snowflake, Member> blue = new HashMap<Snowflake, Member>();
+		Map<Snowflake, Member> red = new HashMap<Snowflake, Member>();
+		for(PlayerObject player : game.getBluePlayerList())
+		{
+			blue.put(player.getDiscordid(), player.getDiscordUserInfo());
+		}
+		for(PlayerObject player : game.getRedPlayerList())
+		{
+			red.put(player.getDiscordid(), player.getDiscordUserInfo());
+		}
+		Slot slot;
+		synchronized(this)
+		{
+			slot = inUse.get(game.getGameID());
+		}
+		if(slot == null) return Mono.empty();
+		return Mono.when(diff(slot.blue, slot.blueHolders, blue), diff(slot.red, slot.redHolders, red));
+	}
+
+	/**Takes the roles off a finished game's players and puts the roles back in the pool.
+	 * @param game the game that has ended
+	 * @return a Mono that completes when the roles are free again
+	 */
+	public Mono<Void> release(GatherGame game)
+	{
+		Slot slot;
+		synchronized(this)
+		{
+			slot = inUse.remove(game.getGameID());
+		}
+		game.setBlueRole(null);
+		game.setRedRole(null);
+		if(slot == null) return Mono.empty();
+		//subs are given roles directly by the game, so make sure the current players are included as well as who the pool gave the roles to
+		synchronized(slot.blueHolders)
+		{
+			for(PlayerObject player : game.getBluePlayerList())
+			{
+				slot.blueHolders.putIfAbsent(player.getDiscordid(), player.getDiscordUserInfo());
+			}
+		}
+		synchronized(slot.redHolders)
+		{
+			for(PlayerObject player : game.getRedPlayerList())
+			{
+				slot.redHolders.putIfAbsent(player.getDiscordid(), player.getDiscordUserInfo());
+			}
+		}
+		Map<Snowflake, Member> none = new HashMap<Snowflake, Member>();
+		return Mono.when(diff(slot.blue, slot.blueHolders, none), diff(slot.red, slot.redHolders, none))
+				.doFinally(signal ->
+				{
+					synchronized(this)
+					{
+						free.add(slot);
+					}
+					LOGGER.debug(getStatsString());
+				});
+	}
+
+	/**Changes who has a role to match a new set of members, only adding and removing the members that are different.
+	 * The holders are updated straight away, a request that still fails after its retries is logged and not tried again.
+	 * @param role the role to change
+	 * @param holders who currently has the role, changed to match the wanted members
+	 * @param wanted who should have the role
+	 * @return a Mono that completes when the requests have finished
+	 */
+	private Mono<Void> diff(Role role, Map<Snowflake, Member> holders, Map<Snowflake, Member> wanted)
+	{
+		Map<Snowflake, Member> toRemove;
+		Map<Snowflake, Member> toAdd;
+		synchronized(holders)
+		{
+			toRemove = new HashMap<Snowflake, Member>(holders);
+			toRemove.keySet().removeAll(wanted.keySet());
+			toAdd = new HashMap<Snowflake, Member>(wanted);
+			toAdd.keySet().removeAll(holders.keySet());
+			holders.keySet().removeAll(toRemove.keySet());
+			holders.putAll(toAdd);
+		}
+		return Mono.when(
+				DiscordBot.runBatch(toRemove.values(), member -> DiscordBot.removeRoleAsync(member, role), "removing "+role.getName()),
+				DiscordBot.runBatch(toAdd.values(), member -> DiscordBot.addRoleAsync(member, role), "adding "+role.getName()));
+	}
+
+	/**Gets how many role pairs have been created and reused.
+	 * @return a string describing the pool
+	 */
+	public synchronized String getStatsString()
+	{
+		return "Team roles: "+(free.size()+inUse.size())+" pairs ("+inUse.size()+" in use), "+created.get()+" created, "+reused.get()+" reused";
+	}
+}
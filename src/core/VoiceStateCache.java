@@ -0,0 +1,143 @@
+package core;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import discord4j.core.event.domain.VoiceStateUpdateEvent;
+import discord4j.core.event.domain.guild.GuildCreateEvent;
+import discord4j.core.object.VoiceState;
+import discord4j.core.object.util.Snowflake;
+
+/**Keeps track of which voice channel every member is in, so moving players between the team rooms doesn't need to look up each player's voice state first.
+ * <p>
+ * Filled from the voice states sent when the bot joins a guild, then kept up to date from voice state update events.
+ * Until a guild has been filled the cache doesn't know anything about it, and the voice state has to be looked up the old way.
+ * Also counts how many moves were sent and how many were skipped because the player wasn't in a channel they should be moved from.
+ * @author cameron
+ * @see GatherObject#movePlayersIntoTeamRoomsAsync(GatherGame)
+ */
+public class VoiceStateCache
+{
+	static final Logger LOGGER = LoggerFactory.getLogger(VoiceStateCache.class);
+	//stored for a member who left voice while their guild was being filled, so the older voice state from the guild doesn't put them back
+	private static final Long NOT_IN_VOICE = 0L;
+
+	//guild id to member id to the channel id they are in, members not in voice aren't in the map
+	private Map<Long, Map<Long, Long>> channels;
+	//guilds that have been filled, so a missing member means they aren't in voice
+	private Set<Long> knownGuilds;
+	private AtomicLong movesIssued;
+	private AtomicLong movesSkipped;
+
+	VoiceStateCache()
+	{
+		this.channels = new ConcurrentHashMap<Long, Map<Long, Long>>();
+		this.knownGuilds = ConcurrentHashMap.newKeySet();
+		this.movesIssued = new AtomicLong();
+		this.movesSkipped = new AtomicLong();
+	}
+
+	/**Fills the cache with everyone in voice when the bot joins a guild (including at startup), the voice states come with the guild so this doesn't send any requests.
+	 * <p>
+	 * The guild isn't known while it is being filled. Updates that arrive in the meantime go straight into the cache, including members leaving voice, and are kept over the voice states from the guild as they are newer.
+	 * @param event the guild create event
+	 */
+	public void onGuildCreate(GuildCreateEvent event)
+	{
+		long guildId = event.getGuild().getId().asLong();
+		knownGuilds.remove(guildId);
+		Map<Long, Long> guildChannels = new ConcurrentHashMap<Long, Long>();
+		channels.put(guildId, guildChannels);
+		event.getGuild().getVoiceStates().doOnNext(voiceState ->
+		{
+			if(voiceState.getChannelId().isPresent())
+			{
+				guildChannels.putIfAbsent(voiceState.getUserId().asLong(), voiceState.getChannelId().get().asLong());
+			}
+		}).doOnComplete(() ->
+		{
+			knownGuilds.add(guildId);
+			//once the guild is known, members leaving voice are removed so the markers aren't needed any more
+			guildChannels.values().removeIf(NOT_IN_VOICE::equals);
+			LOGGER.info("Voice state cache filled for guild "+guildId+" with "+guildChannels.size()+" members in voice");
+		}).subscribe();
+	}
+
+	/**Updates the cache when a member joins, leaves or changes voice channel.
+	 * @param event the voice state update event
+	 */
+	public void onVoiceStateUpdate(VoiceStateUpdateEvent event)
+	{
+		VoiceState voiceState = event.getCurrent();
+		long guildId = voiceState.getGuildId().asLong();
+		Map<Long, Long> guildChannels = channels.computeIfAbsent(guildId, id -> new ConcurrentHashMap<Long, Long>());
+		if(voiceState.getChannelId().isPresent())
+		{
+			guildChannels.put(voiceState.getUserId().asLong(), voiceState.getChannelId().get().asLong());
+		}
+		else if(knownGuilds.contains(guildId))
+		{
+			guildChannels.remove(voiceState.getUserId().asLong());
+		}
+		else
+		{
+			guildChannels.put(voiceState.getUserId().asLong(), NOT_IN_VOICE);
+		}
+	}
+
+	/**
+	 * @param guildId the guild
+	 * @return true if the cache has been filled for the guild, and can be used instead of looking up voice states
+	 */
+	public boolean isKnown(Snowflake guildId)
+	{
+		return knownGuilds.contains(guildId.asLong());
+	}
+
+	/**Gets the voice channel a member is in, only meaningful if the guild is known.
+	 * @param guildId the guild
+	 * @param memberId the member
+	 * @return the channel id, or null if they aren't in a voice channel
+	 * @see #isKnown(Snowflake)
+	 */
+	public Snowflake getChannelId(Snowflake guildId, Snowflake memberId)
+	{
+		Map<Long, Long> guildChannels = channels.get(guildId.asLong());
+		if(guildChannels == null) return null;
+		Long channelId = guildChannels.get(memberId.asLong());
+		if(channelId == null || NOT_IN_VOICE.equals(channelId)) return null;
+		return Snowflake.of(channelId);
+	}
+
+	/**Records that a move was sent
+	 */
+	public void moveIssued()
+	{
+		movesIssued.incrementAndGet();
+	}
+
+	/**Records that a move wasn't needed
+	 */
+	public void moveSkipped()
+	{
+		movesSkipped.incrementAndGet();
+	}
+
+	/**Gets the move counts and the size of the cache, logged with the rest of the bot's stats
+	 * @return a string describing the cache
+	 * @see DiscordBot#getStatsString()
+	 */
+	public String getStatsString()
+	{
+		int members = 0;
+		for(Map<Long, Long> guildChannels : channels.values())
+		{
+			members += guildChannels.size();
+		}
+		return "Voice state cache: "+members+" members in voice across "+knownGuilds.size()+" guilds, "+movesIssued.get()+" moves issued, "+movesSkipped.get()+" moves skipped";
+	}
+}